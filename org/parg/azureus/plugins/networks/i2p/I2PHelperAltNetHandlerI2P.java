@@ -26,7 +26,6 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -35,9 +34,12 @@ import net.i2p.data.Destination;
 
 import com.biglybt.core.util.BEncoder;
 import com.biglybt.core.util.Debug;
+import com.biglybt.core.util.HashWrapper;
 import com.biglybt.core.util.SystemTime;
 import org.parg.azureus.plugins.networks.i2p.snarkdht.NID;
 import org.parg.azureus.plugins.networks.i2p.snarkdht.NodeInfo;
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperHistoryRing;
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperTTLCache;
 import org.parg.azureus.plugins.networks.i2p.vuzedht.DHTTransportContactI2P;
 
 import com.biglybt.core.dht.transport.DHTTransportAlternativeContact;
@@ -47,6 +49,15 @@ import com.biglybt.core.dht.transport.udp.impl.DHTUDPUtils;
 public class 
 I2PHelperAltNetHandlerI2P 
 {
+		// the same contacts are decoded over and over as they're gossiped, keep the parsed
+		// destination and its address keyed by the serialised destination. NodeInfos are mutable
+		// and handed on to the DHT so a new one is built for each decode
+	
+	private static final int	DECODE_CACHE_MAX	= 1024;
+	private static final long	DECODE_CACHE_TTL	= 30*60*1000;
+	
+	private static final I2PHelperTTLCache<HashWrapper,DecodedContact>	decode_cache = new I2PHelperTTLCache<>( "I2P contact cache", DECODE_CACHE_MAX );
+	
 	private DHTTransportAlternativeNetworkImpl		i2p_net = new DHTTransportAlternativeNetworkImpl( DHTTransportAlternativeNetwork.AT_I2P );
 	
 	protected
@@ -74,7 +85,29 @@ I2PHelperAltNetHandlerI2P
 		try{
 			Map<String,Object>	map = contact.getProperties();
 			
+	    	DecodedContact decoded = decodeContactSupport( map );
+	    	
+	    	if ( decoded == null ){
+	    		
+	    		return( null );
+	    	}
+	    	
 	    	byte[]	nid_bytes 	= (byte[])map.get( "n" );
+	    	int		port 		= ((Number)map.get( "p" )).intValue();
+
+	    	return( new NodeInfo( new NID( nid_bytes ), decoded.destination, port ));
+	    	
+		}catch( Throwable e ){
+			
+			return( null );
+		}
+	}
+	
+	private static DecodedContact
+	decodeContactSupport(
+		Map<String,Object>		map )
+	{
+		try{
 	    	byte[]	dest_bytes	= (byte[])map.get( "d" );
 
 	    	if ( !map.containsKey( "p" )){
@@ -82,17 +115,24 @@ I2PHelperAltNetHandlerI2P
 	    		return( null );
 	    	}
 	    	
-	    	int		port 		= ((Number)map.get( "p" )).intValue();
-
-	    	NID nid = new NID( nid_bytes );
+	    	HashWrapper key = new HashWrapper( dest_bytes );
 	    	
-	    	Destination destination = new Destination();
-	    
-	    	destination.fromByteArray( dest_bytes );
+	    	DecodedContact decoded = decode_cache.get( key );
 	    	
-	    	NodeInfo ni = new NodeInfo( nid, destination, port );
-
-	    	return( ni );
+	    	if ( decoded == null ){
+	    			    	
+		    	Destination destination = new Destination();
+		    
+		    	destination.fromByteArray( dest_bytes );
+		    	
+		    	String address = Base32.encode( destination.calculateHash().getData()) + ".b32.i2p";
+		    	
+		    	decoded = new DecodedContact( destination, InetSocketAddress.createUnresolved( address, 6881 ));
+		    	
+		    	decode_cache.put( key, decoded, DECODE_CACHE_TTL );
+	    	}
+	    	
+	    	return( decoded );
 	    	
 		}catch( Throwable e ){
 			
@@ -100,12 +140,34 @@ I2PHelperAltNetHandlerI2P
 		}
 	}
 	
+	protected String
+	getStatusString()
+	{
+		return( decode_cache.getStatusString());
+	}
+	
 	protected void
 	destroy()
 	{
 		DHTUDPUtils.unregisterAlternativeNetwork( i2p_net );
 	}
 	
+	private static final class
+	DecodedContact
+	{
+		private final Destination			destination;
+		private final InetSocketAddress		address;
+		
+		private
+		DecodedContact(
+			Destination			_destination,
+			InetSocketAddress	_address )
+		{
+			destination	= _destination;
+			address		= _address;
+		}
+	}
+	
 	private static class
 	DHTTransportAlternativeNetworkImpl
 		implements DHTTransportAlternativeNetwork
@@ -114,7 +176,7 @@ I2PHelperAltNetHandlerI2P
 		
 		private int	network;
 		
-		private LinkedList<Object[]>	address_history = new LinkedList<Object[]>();
+		private I2PHelperHistoryRing<NodeInfo>	address_history = new I2PHelperHistoryRing<>( ADDRESS_HISTORY_MAX );
 			
 		private
 		DHTTransportAlternativeNetworkImpl(
@@ -134,18 +196,9 @@ I2PHelperAltNetHandlerI2P
 		getNotionalAddress(
 			DHTTransportAlternativeContact contact )
 		{
-			NodeInfo ni = decodeContact( contact );
+			DecodedContact decoded = decodeContactSupport( contact.getProperties());
 			
-			if ( ni != null ){
-				
-				byte[]	peer_hash = ni.getDestination().calculateHash().getData();
-				
-				String peer_ip = Base32.encode( peer_hash ) + ".b32.i2p";
-				
-				return( InetSocketAddress.createUnresolved(peer_ip, 6881 ));
-			}
-			
-			return( null );
+			return( decoded==null?null:decoded.address );
 		}
 		
 		private void
@@ -154,12 +207,7 @@ I2PHelperAltNetHandlerI2P
 		{
 			synchronized( address_history ){
 				
-				address_history.addFirst(new Object[]{  node_info, new Long( SystemTime.getMonotonousTime())});
-				
-				if ( address_history.size() > ADDRESS_HISTORY_MAX ){
-					
-					address_history.removeLast();
-				}
+				address_history.addFirst( node_info, SystemTime.getMonotonousTime());
 			}
 		}
 		
@@ -172,14 +220,11 @@ I2PHelperAltNetHandlerI2P
 			
 			synchronized( address_history ){
 				
-				for ( Object[] entry: address_history ){
-					
-					result.add( new DHTTransportAlternativeContactImpl((NodeInfo)entry[0],(Long)entry[1]));
+				int	num = Math.min( max, address_history.size());
+				
+				for ( int i=0;i<num;i++){
 					
-					if ( result.size() == max ){
-						
-						break;
-					}
+					result.add( new DHTTransportAlternativeContactImpl( address_history.get( i ), address_history.getTime( i )));
 				}
 			}
 			
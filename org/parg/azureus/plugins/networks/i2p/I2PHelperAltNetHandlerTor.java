@@ -26,7 +26,6 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -35,8 +34,11 @@ import com.biglybt.core.util.BEncoder;
 import com.biglybt.core.util.Base32;
 import com.biglybt.core.util.Constants;
 import com.biglybt.core.util.Debug;
+import com.biglybt.core.util.HashWrapper;
 import com.biglybt.core.util.RandomUtils;
 import com.biglybt.core.util.SystemTime;
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperHistoryRing;
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperTTLCache;
 
 import com.biglybt.core.dht.transport.DHTTransportAlternativeContact;
 import com.biglybt.core.dht.transport.DHTTransportAlternativeNetwork;
@@ -47,6 +49,13 @@ I2PHelperAltNetHandlerTor
 {
 	public static final int LOCAL_VERSION	= 2;
 	
+		// host names decoded from contacts, keyed by the serialised host
+	
+	private static final int	DECODE_CACHE_MAX	= 1024;
+	private static final long	DECODE_CACHE_TTL	= 30*60*1000;
+	
+	private static final I2PHelperTTLCache<HashWrapper,String>	decode_cache = new I2PHelperTTLCache<>( "Tor contact cache", DECODE_CACHE_MAX );
+	
 	private DHTTransportAlternativeNetworkImpl		tor_net = new DHTTransportAlternativeNetworkImpl( 6 ); // replace sometime after 3.4 DHTTransportAlternativeNetwork.AT_TOR );
 	
 	protected
@@ -104,7 +113,16 @@ I2PHelperAltNetHandlerTor
 	    	byte[]	host_bytes 	= (byte[])map.get( "h" );	    	
 	    	int		port 		= ((Number)map.get( "p" )).intValue();
 
-	    	String host = bytesToHostname( host_bytes );
+	    	HashWrapper key = new HashWrapper( host_bytes );
+	    	
+	    	String host = decode_cache.get( key );
+	    	
+	    	if ( host == null ){
+	    		
+	    		host = bytesToHostname( host_bytes );
+	    		
+	    		decode_cache.put( key, host, DECODE_CACHE_TTL );
+	    	}
 	
 	    	return( InetSocketAddress.createUnresolved( host, port ));
 	    	
@@ -114,6 +132,12 @@ I2PHelperAltNetHandlerTor
 		}
 	}
 	
+	protected String
+	getStatusString()
+	{
+		return( decode_cache.getStatusString());
+	}
+	
 	protected void
 	destroy()
 	{
@@ -128,7 +152,9 @@ I2PHelperAltNetHandlerTor
 		
 		private int	network;
 		
-		private LinkedList<Object[]>	address_history = new LinkedList<Object[]>();
+			// a seen time of -1 marks the local contact
+		
+		private I2PHelperHistoryRing<InetSocketAddress>	address_history = new I2PHelperHistoryRing<>( ADDRESS_HISTORY_MAX );
 			
 		private
 		DHTTransportAlternativeNetworkImpl(
@@ -158,20 +184,21 @@ I2PHelperAltNetHandlerTor
 		{
 			synchronized( address_history ){
 				
-				address_history.addFirst(new Object[]{  address, is_local?-1L:new Long( SystemTime.getMonotonousTime())});
+					// keep local contact around, if it's about to be overwritten re-add it in front
+					// of the new entry, displacing the next oldest instead
 				
-				if ( address_history.size() > ADDRESS_HISTORY_MAX ){
-					
-					Object[] entry = address_history.removeLast();
+				InetSocketAddress	local = null;
+				
+				if ( address_history.isFull() && address_history.getTime( ADDRESS_HISTORY_MAX - 1 ) == -1 ){
 					
-						// keep local contact around
+					local = address_history.get( ADDRESS_HISTORY_MAX - 1 );
+				}
+				
+				address_history.addFirst( address, is_local?-1L:SystemTime.getMonotonousTime());
+				
+				if ( local != null ){
 					
-					if (((Long)entry[1]) == -1 ){
-						
-						address_history.removeLast();
-						
-						address_history.addFirst( entry );
-					}
+					address_history.addFirst( local, -1L );
 				}
 			}
 		}
@@ -185,17 +212,14 @@ I2PHelperAltNetHandlerTor
 			
 			synchronized( address_history ){
 				
-				for ( Object[] entry: address_history ){
+				int	num = Math.min( max, address_history.size());
+				
+				for ( int i=0;i<num;i++){
 					
 						// important that we create a new contact here as the age of local contacts
 						// is maintained as roughly "now"
 					
-					result.add( new DHTTransportAlternativeContactImpl((InetSocketAddress)entry[0],(Long)entry[1]));
-					
-					if ( result.size() == max ){
-						
-						break;
-					}
+					result.add( new DHTTransportAlternativeContactImpl( address_history.get( i ), address_history.getTime( i )));
 				}
 			}
 			
@@ -122,6 +122,14 @@ I2PHelperDHT
 		byte[] 						ih, 
 		String						reason,
 		I2PHelperDHTListener		listener );
+
+		/**
+		 * Operations added to the batch are run together, keys that are close to each other
+		 * share the routing work of the first lookup in their neighbourhood
+		 */
+
+	public I2PHelperDHTBatch
+	createBatch();
 	
 	public Collection<Hash> 
 	getPeersAndNoAnnounce(
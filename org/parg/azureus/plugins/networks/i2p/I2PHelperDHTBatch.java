@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p;
+
+/**
+ * Collects gets and puts so they can be scheduled as a group. Nothing is sent until run()
+ * is called, listeners are informed exactly as for the equivalent I2PHelperDHT operations.
+ */
+
+public interface
+I2PHelperDHTBatch
+{
+	public void
+	get(
+		byte[] 						ih,
+		String						reason,
+		short						flags,
+		int 						max,
+		long						maxWait,
+		I2PHelperDHTListener		listener );
+
+	public void
+	put(
+		byte[] 						ih,
+		String						reason,
+		short						flags,
+		I2PHelperDHTListener		listener );
+
+	public int
+	size();
+
+	public void
+	run();
+}
@@ -38,10 +38,13 @@ import com.biglybt.core.util.TimerEventPeriodic;
 import com.biglybt.core.util.TorrentUtils;
 import com.biglybt.pif.PluginInterface;
 import com.biglybt.pif.download.Download;
+import com.biglybt.pif.download.DownloadAnnounceResult;
 import com.biglybt.pif.download.DownloadAttributeListener;
+import com.biglybt.pif.download.DownloadListener;
 import com.biglybt.pif.download.DownloadManager;
 import com.biglybt.pif.download.DownloadManagerListener;
 import com.biglybt.pif.download.DownloadScrapeResult;
+import com.biglybt.pif.download.DownloadTrackerListener;
 import com.biglybt.pif.peers.Peer;
 import com.biglybt.pif.peers.PeerManager;
 import com.biglybt.pif.peers.PeerStats;
@@ -64,7 +67,7 @@ import com.biglybt.plugin.net.buddy.BuddyPluginUtils;
 
 public class 
 I2PHelperNetworkMixer 
-	implements DownloadAttributeListener, DownloadManagerListener, I2PDHTTrackerPluginListener
+	implements DownloadAttributeListener, DownloadManagerListener, DownloadListener, DownloadTrackerListener, I2PDHTTrackerPluginListener
 {
 	private static final int MS_NONE				= 0;
 	private static final int MS_CHANGING			= 1;
@@ -115,6 +118,14 @@ I2PHelperNetworkMixer
 	
 	private AsyncDispatcher	dispatcher = new AsyncDispatcher( "i2pmixer", 5*1000 );
 	
+		// mix planning works from a snapshot per download, refreshed only when the download
+		// is reported as changed. A null value is a download that hasn't been snapshotted yet
+	
+	private final Map<Download,MixSnapshot>	mix_snapshots	= new HashMap<>();
+	private final Set<Download>				mix_stale		= new HashSet<>();
+	
+	private boolean		mix_plan_needed	= true;
+	
 	private boolean	destroyed;
 	
 	protected
@@ -190,6 +201,8 @@ I2PHelperNetworkMixer
 			}
 			
 			addSRCode( download );
+			
+			addMixListeners( download );
 		}
 		
 		recheck_timer = 
@@ -235,6 +248,11 @@ I2PHelperNetworkMixer
 	{
 		if ( mix_enabled ){
 			
+			synchronized( mix_snapshots ){
+				
+				mix_plan_needed = true;
+			}
+			
 			checkMixedDownloads();
 			
 		}else{
@@ -380,6 +398,8 @@ I2PHelperNetworkMixer
 			}
 		}
 		
+		addMixListeners( download );
+		
 		if ( existing_state != MS_MANUAL ){
 			
 			download.addAttributeListener( this, ta_networks, DownloadAttributeListener.WRITTEN );
@@ -395,11 +415,125 @@ I2PHelperNetworkMixer
 	downloadRemoved(
 		Download	download )
 	{
+		download.removeListener( this );
+		download.removeTrackerListener( this );
+		
+		synchronized( mix_snapshots ){
+			
+			mix_snapshots.remove( download );
+			mix_stale.remove( download );
+			
+			mix_plan_needed = true;
+		}
+		
 		checkMixedDownloads();
 		
 		removeSRCode( download );
 	}
 	
+	private void
+	addMixListeners(
+		Download	download )
+	{
+		synchronized( mix_snapshots ){
+			
+			mix_snapshots.put( download, null );
+			mix_stale.add( download );
+			
+			mix_plan_needed = true;
+		}
+		
+		download.addListener( this );
+		download.addTrackerListener( this, false );
+	}
+	
+		/**
+		 * Marks the download's snapshot as out of date so the next planning run refreshes it
+		 */
+	
+	private void
+	mixStateChanged(
+		Download	download )
+	{
+		synchronized( mix_snapshots ){
+			
+			if ( mix_snapshots.containsKey( download )){
+				
+				mix_stale.add( download );
+				
+				mix_plan_needed = true;
+			}
+		}
+	}
+	
+	@Override
+	public void
+	stateChanged(
+		Download		download,
+		int				old_state,
+		int				new_state )
+	{
+			// covers starting, stopping and completion
+		
+		mixStateChanged( download );
+		
+		checkMixedDownloads();
+	}
+	
+	@Override
+	public void
+	positionChanged(
+		Download		download, 
+		int 			oldPosition,
+		int 			newPosition )
+	{
+	}
+	
+	@Override
+	public void
+	scrapeResult(
+		DownloadScrapeResult	result )
+	{
+			// only the seed count matters for ordering, picked up at the next periodic check. the
+			// result is for a single tracker whereas snapshots hold the aggregated count so compare
+			// against that
+		
+		Download download = result.getDownload();
+		
+		MixSnapshot snapshot;
+		
+		synchronized( mix_snapshots ){
+			
+			snapshot = mix_snapshots.get( download );
+		}
+		
+		if ( snapshot == null || !snapshot.candidate ){
+			
+			return;
+		}
+		
+		DownloadScrapeResult aggregated = download.getAggregatedScrapeResult();
+		
+		int	seeds = aggregated==null?-1:aggregated.getSeedCount();
+		
+		synchronized( mix_snapshots ){
+			
+			if ( mix_snapshots.get( download ) == snapshot && snapshot.seeds != seeds ){
+				
+				mix_stale.add( download );
+				
+				mix_plan_needed = true;
+			}
+		}
+	}
+	
+	@Override
+	public void
+	announceResult(
+		DownloadAnnounceResult	result )
+	{
+	}
+	
 	private static final String seed_request_write_key = "Statistics: Announce: Requests";
 	
 	private Object					seed_request_write_lock = new Object();
@@ -605,7 +739,14 @@ I2PHelperNetworkMixer
 			removeEldestEntry(
 		   		Map.Entry<Download,Long> eldest ) 
 			{
-				return size() > MAX_SEED_REQUEST_DOWNLOADS;
+				if ( size() > MAX_SEED_REQUEST_DOWNLOADS ){
+					
+					mixStateChanged( eldest.getKey());
+					
+					return( true );
+				}
+				
+				return( false );
 			}
 		};
 		
@@ -640,6 +781,8 @@ I2PHelperNetworkMixer
 		if ( new_request ){
 		
 			plugin.log( "Netmix: seed request for " + download.getName());
+			
+			mixStateChanged( download );
 		}
 		
 		checkMixedDownloads();
@@ -992,132 +1135,190 @@ I2PHelperNetworkMixer
 			});
 	}
 	
-	private Comparator<Download> download_comparator =
-			new Comparator<Download>() 
+		/**
+		 * Orders by seed request first, newest first amongst those, then by decreasing seed count
+		 * with unscraped downloads last. Only looks at snapshot fields so sorting is cheap and
+		 * takes no locks
+		 */
+	
+	private static final Comparator<MixSnapshot> snapshot_comparator =
+			new Comparator<MixSnapshot>() 
 			{
 				@Override
 				public int
 				compare(
-					Download 	d1, 
-					Download 	d2 ) 
+					MixSnapshot 	s1, 
+					MixSnapshot 	s2 ) 
 				{
-					boolean	d1_sr = seed_request_downloads.containsKey( d1 );
-					boolean	d2_sr = seed_request_downloads.containsKey( d2 );
-					
-					if ( d1_sr || d2_sr ){
+					if ( s1.is_sr != s2.is_sr ){
 						
-						if ( d1_sr && d2_sr ){
-							
-							long l = d2.getCreationTime() - d1.getCreationTime();
-							
-							if ( l < 0 ){
-								return( -1 );
-							}else if ( l > 0 ){
-								return( 1 );
-							}else{
-								return(0);
-							}
-						}else if ( d1_sr ){
-							return( -1 );
-						}else{
-							return( 1 );
-						}
-					}
-					
-					DownloadScrapeResult s1 = d1.getAggregatedScrapeResult();
-					DownloadScrapeResult s2 = d2.getAggregatedScrapeResult();
-					
-					if ( s1 == s2 ){
-						
-						return( 0 );
-						
-					}else if ( s1 == null ){
-						
-						return( 1 );
-	
-					}else if ( s2 == null ){
-						
-						return( -1 );
+						return( s1.is_sr?-1:1 );
 						
-					}else{
+					}else if ( s1.is_sr ){
 						
-						return( s2.getSeedCount() - s1.getSeedCount());
+						return( Long.compare( s2.creation_time, s1.creation_time ));
 					}
+					
+					return( Integer.compare( s2.seeds, s1.seeds ));
 				}
 			};
-			
-	private void
-	checkMixedDownloadsSupport()
+	
+	private MixSnapshot
+	takeSnapshot(
+		Download		download )
 	{
-		DownloadManager dm = plugin_interface.getDownloadManager();
+		boolean	candidate = true;
 		
-		Download[]	downloads = dm.getDownloads();
+			// flags and the torrent can change (e.g. a metadata download completing) so this is
+			// re-evaluated each time
 		
-		List<Download>	complete_downloads		= new ArrayList<Download>( downloads.length );
-		List<Download>	incomplete_downloads 	= new ArrayList<Download>( downloads.length );
+		boolean	excluded = 	download.getFlag( Download.FLAG_LOW_NOISE ) || 
+							download.getFlag( Download.FLAG_METADATA_DOWNLOAD );
 		
-		for ( Download download: downloads ){
+		if ( !excluded ){
 			
-			if ( 	download.getFlag( Download.FLAG_LOW_NOISE ) || 
-					download.getFlag( Download.FLAG_METADATA_DOWNLOAD )){
+			Torrent torrent = download.getTorrent();
+			
+			excluded = torrent == null || TorrentUtils.isReallyPrivate( PluginCoreUtils.unwrap( torrent ));
+		}
+		
+		int		mix_state	= download.getIntAttribute( ta_mixstate );
+		
+		if ( excluded || mix_state == MS_CHANGING || mix_state == MS_MANUAL ){
+			
+			candidate = false;
+			
+		}else{
+			
+			int download_state = download.getState();
+			
+			if ( 	download_state == Download.ST_ERROR || 
+					download_state == Download.ST_STOPPING || 
+					download_state == Download.ST_STOPPED ){
+				
+				candidate = false;
+				
+			}else{
 				
-				continue;
+				DownloadManagerState ds = PluginCoreUtils.unwrap( download ).getDownloadState();
+		
+				candidate = ds.isNetworkEnabled( AENetworkClassifier.AT_PUBLIC );
 			}
+		}
+		
+		if ( !candidate ){
 			
-			Torrent torrent = download.getTorrent();
+			return( new MixSnapshot( download, false, mix_state, false, -1, false, 0 ));
+		}
+		
+		DownloadScrapeResult scrape = download.getAggregatedScrapeResult();
+		
+		boolean	is_sr;
+		
+		synchronized( seed_request_downloads ){
 			
-			if ( torrent == null ){
+			is_sr = seed_request_downloads.containsKey( download );
+		}
+		
+		return( new MixSnapshot( 
+					download, 
+					true, 
+					mix_state, 
+					download.isComplete(), 
+					scrape==null?-1:scrape.getSeedCount(), 
+					is_sr,
+					download.getCreationTime()));
+	}
+	
+	private void
+	checkMixedDownloadsSupport()
+	{
+		List<Download>	stale;
+		
+		synchronized( mix_snapshots ){
+			
+			if ( !mix_plan_needed ){
 				
-				continue;
+				return;
 			}
 			
-			if ( TorrentUtils.isReallyPrivate( PluginCoreUtils.unwrap( torrent ))){
+			mix_plan_needed = false;
+			
+			stale = new ArrayList<Download>( mix_stale );
+			
+			mix_stale.clear();
+		}
+		
+			// snapshots are refreshed outside of the lock as getting them involves calls into
+			// the download
+		
+		List<MixSnapshot>	refreshed = new ArrayList<MixSnapshot>( stale.size());
+		
+		for ( Download download: stale ){
+			
+			try{
+				refreshed.add( takeSnapshot( download ));
 				
-				continue;
+			}catch( Throwable e ){
+				
+					// download being removed, it'll be reported separately
 			}
+		}
+		
+		List<MixSnapshot>	complete_downloads;
+		List<MixSnapshot>	incomplete_downloads;
+		
+		synchronized( mix_snapshots ){
 			
-			DownloadManagerState ds = PluginCoreUtils.unwrap( download ).getDownloadState();
-
-			if ( !ds.isNetworkEnabled( AENetworkClassifier.AT_PUBLIC )){
+			for ( MixSnapshot snapshot: refreshed ){
 				
-				continue;
+				if ( mix_snapshots.containsKey( snapshot.download )){
+					
+					mix_snapshots.put( snapshot.download, snapshot );
+				}
 			}
 			
-			int	existing_state = download.getIntAttribute( ta_mixstate );
+			complete_downloads		= new ArrayList<MixSnapshot>();
+			incomplete_downloads 	= new ArrayList<MixSnapshot>();
 			
-			if ( existing_state == MS_CHANGING || existing_state == MS_MANUAL ){
+			for ( MixSnapshot snapshot: mix_snapshots.values()){
 				
-				continue;
+				if ( snapshot != null && snapshot.candidate ){
+					
+					if ( snapshot.complete ){
+						
+						complete_downloads.add( snapshot );
+						
+					}else{
+						
+						incomplete_downloads.add( snapshot );
+					}
+				}
 			}
-			
-			int download_state = download.getState();
+		}
 		
-			if ( 	download_state == Download.ST_ERROR || 
-					download_state == Download.ST_STOPPING || 
-					download_state == Download.ST_STOPPED ){
-				
-				continue;
-			}
+		boolean	retry = applyRules( complete_downloads, complete_limit );
+		
+		retry |= applyRules( incomplete_downloads, incomplete_limit );
+		
+		if ( retry ){
 			
-			boolean	complete = download.isComplete();
+				// some downloads couldn't be changed yet, look again next time round
 			
-			if ( complete ){
-				
-				complete_downloads.add( download );
-				
-			}else{
+			synchronized( mix_snapshots ){
 				
-				incomplete_downloads.add( download );
+				mix_plan_needed = true;
 			}
 		}
-		
-		applyRules( complete_downloads, complete_limit );
-		applyRules( incomplete_downloads, incomplete_limit );
 	}
 	
-	private void
+		/**
+		 * @return true if some changes were held back and the rules need applying again later
+		 */
+	
+	private boolean
 	applyRules(
-		List<Download>		downloads,
+		List<MixSnapshot>	downloads,
 		int					active_limit )
 	{	
 		if ( active_limit <= 0 ){
@@ -1125,21 +1326,14 @@ I2PHelperNetworkMixer
 			active_limit = Integer.MAX_VALUE;
 		}
 				
-		int	sr_count;
-		
-		synchronized( seed_request_downloads ){
-		
-			Collections.sort( downloads, download_comparator );
-		
-			sr_count = seed_request_downloads.size();
-		}
+		Collections.sort( downloads, snapshot_comparator );
 		
 		int sr_to_activate = 0;
 		
 			// downloads are sorted highest priority first
 		
-		List<Download>		to_activate 			= new ArrayList<Download>( downloads.size());
-		List<Download>		failed_to_deactivate	= new ArrayList<Download>();
+		List<MixSnapshot>	to_activate 			= new ArrayList<MixSnapshot>( downloads.size());
+		List<MixSnapshot>	failed_to_deactivate	= new ArrayList<MixSnapshot>();
 		
 		long	now = SystemTime.getMonotonousTime() ;
 		
@@ -1148,22 +1342,13 @@ I2PHelperNetworkMixer
 		
 		for ( int i=0;i<downloads.size();i++){
 			
-			Download download = downloads.get( i );
+			MixSnapshot snapshot = downloads.get( i );
 			
-			int	existing_state = download.getIntAttribute( ta_mixstate );
-
-			boolean	is_sr;
+			Download download = snapshot.download;
 			
-			if ( sr_count > 0 ){
-				
-				synchronized( seed_request_downloads ){
-					
-					is_sr = seed_request_downloads.containsKey( download );
-				}
-			}else{
-				
-				is_sr = false;
-			}
+			int	existing_state = snapshot.mix_state;
+
+			boolean	is_sr = snapshot.is_sr;
 			
 			if ( existing_state == MS_ACTIVE ){
 				
@@ -1226,7 +1411,7 @@ I2PHelperNetworkMixer
 						
 						if ( prevent_deactivation ){
 							
-							failed_to_deactivate.add( download );
+							failed_to_deactivate.add( snapshot );
 							
 						}else{
 							
@@ -1246,7 +1431,7 @@ I2PHelperNetworkMixer
 						}
 					}else{
 						
-						failed_to_deactivate.add( download );
+						failed_to_deactivate.add( snapshot );
 					}
 				}
 			}else{
@@ -1258,7 +1443,7 @@ I2PHelperNetworkMixer
 						sr_to_activate++;
 					}
 					
-					to_activate.add( download );
+					to_activate.add( snapshot );
 				}
 			}
 		}
@@ -1277,20 +1462,13 @@ I2PHelperNetworkMixer
 			
 			for ( int i=failed_to_deactivate.size()-1; i>=0; i-- ){
 				
-				Download download = failed_to_deactivate.get(i);
-				
-				boolean	is_sr;
-				
-				synchronized( seed_request_downloads ){
-					
-					is_sr = seed_request_downloads.containsKey( download );
-				}
+				MixSnapshot snapshot = failed_to_deactivate.get(i);
 				
-				if ( !is_sr ){
+				if ( !snapshot.is_sr ){
 					
-					plugin.log( "Netmix: force deactivating " + download.getName());
+					plugin.log( "Netmix: force deactivating " + snapshot.download.getName());
 					
-					setNetworkState( download, false );
+					setNetworkState( snapshot.download, false );
 					
 					num_to_activate++;
 					
@@ -1306,19 +1484,14 @@ I2PHelperNetworkMixer
 		
 		for ( int i=0;i<num_to_activate;i++){
 			
-			Download download = to_activate.get(i);
+			MixSnapshot snapshot = to_activate.get(i);
 			
-			boolean	is_sr;
+			plugin.log( "Netmix: activating " + snapshot.download.getName() + ", sr=" + snapshot.is_sr );
 			
-			synchronized( seed_request_downloads ){
-				
-				is_sr = seed_request_downloads.containsKey( download );
-			}
-			
-			plugin.log( "Netmix: activating " + download.getName() + ", sr=" + is_sr );
-			
-			setNetworkState( download, true );
+			setNetworkState( snapshot.download, true );
 		}
+		
+		return( !failed_to_deactivate.isEmpty());
 	}
 	
 	protected void
@@ -1376,6 +1549,8 @@ I2PHelperNetworkMixer
 			// user is manually configuring networks, don't touch from now on
 		
 		download.setIntAttribute( ta_mixstate, MS_MANUAL );
+		
+		mixStateChanged( download );
 	}
 	
 	private void
@@ -1409,6 +1584,38 @@ I2PHelperNetworkMixer
 		}finally{
 			
 			download.setIntAttribute( ta_mixstate, enabled?MS_ACTIVE:MS_NONE );
+			
+			mixStateChanged( download );
+		}
+	}
+	
+	private static final class
+	MixSnapshot
+	{
+		final Download		download;
+		final boolean		candidate;
+		final int			mix_state;
+		final boolean		complete;
+		final int			seeds;
+		final boolean		is_sr;
+		final long			creation_time;
+		
+		MixSnapshot(
+			Download		_download,
+			boolean			_candidate,
+			int				_mix_state,
+			boolean			_complete,
+			int				_seeds,
+			boolean			_is_sr,
+			long			_creation_time )
+		{
+			download		= _download;
+			candidate		= _candidate;
+			mix_state		= _mix_state;
+			complete		= _complete;
+			seeds			= _seeds;
+			is_sr			= _is_sr;
+			creation_time	= _creation_time;
 		}
 	}
 	
@@ -1441,6 +1648,9 @@ I2PHelperNetworkMixer
 		for ( Download download: dm.getDownloads()){
 			
 			download.removeAttributeListener( this, ta_networks, DownloadAttributeListener.WRITTEN );
+			
+			download.removeListener( this );
+			download.removeTrackerListener( this );
 		}
 	}
 }
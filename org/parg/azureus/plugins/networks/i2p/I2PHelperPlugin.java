@@ -148,6 +148,7 @@ import org.parg.azureus.plugins.networks.i2p.snarkdht.NodeInfo;
 import org.parg.azureus.plugins.networks.i2p.swt.I2PHelperView;
 import org.parg.azureus.plugins.networks.i2p.tracker.I2PDHTTrackerPlugin;
 import org.parg.azureus.plugins.networks.i2p.tracker.I2PHelperTracker;
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperBufferPool;
 import org.parg.azureus.plugins.networks.i2p.util.I2PHelperHostnameService;
 import org.parg.azureus.plugins.networks.i2p.vuzedht.DHTAZClient;
 import org.parg.azureus.plugins.networks.i2p.vuzedht.DHTTransportContactI2P;
@@ -426,6 +427,7 @@ I2PHelperPlugin
 	private IntParameter 			ext_port_param;
 	private IntParameter 			socks_port_param;
 	private BooleanParameter 		socks_allow_public_param;
+	private BooleanParameter 		socks_prewarm_param;
 	private InfoParameter 			port_info_param;
 	private InfoParameter 			http_proxy_info_param;
 	
@@ -969,6 +971,27 @@ I2PHelperPlugin
 			socks_allow_public_param = config_model.addBooleanParameter2( "azi2phelper.socks.allow.public", "azi2phelper.socks.allow.public", false );
 			socks_allow_public_param.setMinimumRequiredUserMode( Parameter.MODE_ADVANCED );
 
+			socks_prewarm_param = config_model.addBooleanParameter2( "azi2phelper.socks.prewarm", "azi2phelper.socks.prewarm", false );
+			socks_prewarm_param.setMinimumRequiredUserMode( Parameter.MODE_ADVANCED );
+			
+			socks_prewarm_param.addListener(
+					new ParameterListener() 
+					{
+						@Override
+						public void
+						parameterChanged(
+							Parameter param ) 
+						{
+							synchronized( I2PHelperPlugin.this ){
+								
+								if ( socks_proxy != null ){
+									
+									socks_proxy.setPrewarmStreams( socks_prewarm_param.getValue());
+								}
+							}
+						}
+					});
+			
 			int	int_port = int_port_param.getValue();
 			
 			boolean port_changed = false;
@@ -1036,7 +1059,7 @@ I2PHelperPlugin
 					config_model.createGroup( 
 						"azi2phelper.socks",
 						new Parameter[]{ 
-								socks_port_param, socks_allow_public_param,	always_socks
+								socks_port_param, socks_allow_public_param,	socks_prewarm_param, always_socks
 						});
 			
 				// HTTP proxy
@@ -1197,6 +1220,28 @@ I2PHelperPlugin
 			
 			cpu_throttle_factor = cpu_throttle.getValue();
 			
+			final BooleanParameter	forward_bounded_param	= config_model.addBooleanParameter2( "azi2phelper.forward.bounded.writes", "azi2phelper.forward.bounded.writes", false );
+			forward_bounded_param.setMinimumRequiredUserMode( Parameter.MODE_ADVANCED );
+			
+			forward_bounded_param.addListener(
+					new ParameterListener() 
+					{
+						@Override
+						public void
+						parameterChanged(
+							Parameter param ) 
+						{
+							I2PHelperSocketForwarder forwarder = socket_forwarder;
+							
+							if ( forwarder != null ){
+								
+								forwarder.setBoundedWrites( forward_bounded_param.getValue());
+							}
+						}
+					});
+			
+			socket_forwarder.setBoundedWrites( forward_bounded_param.getValue());
+			
 			final IntParameter 		floodfill_param 		= config_model.addIntParameter2( "azi2phelper.floodfill.control", "azi2phelper.floodfill.control", I2PHelperRouter.PARAM_FLOODFILL_CONTROL_VUZE, 0, 4 );
 			floodfill_param.setMinimumRequiredUserMode( Parameter.MODE_ADVANCED );
 
@@ -1280,7 +1325,7 @@ I2PHelperPlugin
 						socks_group,
 						http_proxy_group,
 						tor_group,
-						cpu_throttle, floodfill_param, 
+						cpu_throttle, forward_bounded_param, floodfill_param, 
 						ext_i2p_param, ext_i2p_host_param, ext_i2p_port_param, ext_i2p_http_proxy_port_param });
 			
 			
@@ -1382,6 +1427,7 @@ I2PHelperPlugin
 							
 							socks_port_param.setEnabled( plugin_enabled );
 							socks_allow_public_param.setEnabled( plugin_enabled );
+							socks_prewarm_param.setEnabled( plugin_enabled );
 							port_info_param.setEnabled( plugin_enabled );
 							use_upnp.setEnabled( enabled_not_ext );
 							always_socks.setEnabled( plugin_enabled);
@@ -2747,6 +2793,81 @@ I2PHelperPlugin
 		}
 	}
 	
+	public String
+	getStatisticsText()
+	{
+		StringBuilder	sb = new StringBuilder( 1024 );
+		
+		I2PHelperHostnameService hs = hostname_service;
+		
+		if ( hs != null ){
+			
+			sb.append( hs.getStatusString()).append( "\n" );
+		}
+		
+		I2PHelperSocketForwarder forwarder = socket_forwarder;
+		
+		if ( forwarder != null ){
+			
+			sb.append( forwarder.getStatusString()).append( "\n" );
+		}
+		
+		sb.append( I2PHelperBufferPool.getSingleton().getStatusString()).append( "\n" );
+		
+		I2PHelperAltNetHandlerI2P anh_i2p = alt_network_handler_i2p;
+		
+		if ( anh_i2p != null ){
+			
+			sb.append( anh_i2p.getStatusString()).append( "\n" );
+		}
+		
+		I2PHelperAltNetHandlerTor anh_tor = alt_network_handler_tor;
+		
+		if ( anh_tor != null ){
+			
+			sb.append( anh_tor.getStatusString()).append( "\n" );
+		}
+		
+		I2PHelperRouter r = router;
+		
+		if ( r != null ){
+			
+			I2PHelperRouterDHT[] dhts = r.getAllDHTs();
+			
+			for ( int i=0;dhts!=null&&i<dhts.length;i++){
+				
+				I2PHelperDHT dht = dhts[i].getDHT();
+				
+				if ( dht != null ){
+				
+					sb.append( "DHT " ).append( i ).append( ": " ).append( dht.getStats()).append( "\n" );
+				}
+			}
+			
+			sb.append( r.getSessionHealthText()).append( "\n" );
+		}
+		
+		if ( forwarder != null ){
+			
+			sb.append( forwarder.getFlowTable( 50 )).append( "\n" );
+		}
+		
+		return( sb.toString());
+	}
+	
+	public String
+	getFlowTable()
+	{
+		I2PHelperSocketForwarder forwarder = socket_forwarder;
+		
+		if ( forwarder == null ){
+			
+			return( "Forwarder not available" );
+		}
+		
+		return( forwarder.getFlowTable( Integer.MAX_VALUE ));
+	}
+	
 	@Override
 	public String
 	getMessageText(
@@ -3382,6 +3503,8 @@ I2PHelperPlugin
 						}
 					}
 				
+					socks_proxy.setPrewarmStreams( socks_prewarm_param.getValue());
+					
 					if ( explicit_port == 0 ){
 						
 						plugin_config.setPluginParameter( "azi2phelper.socks.port.last", socks_proxy.getPort());
@@ -3441,6 +3564,28 @@ I2PHelperPlugin
 						
 					router.logInfo();
 					
+				}else if ( cmd.equals( "stats" )){
+					
+					if ( plugin_maybe_null == null ){
+						
+						adapter.log( "Statistics not available" );
+						
+					}else{
+						
+						adapter.log( plugin_maybe_null.getStatisticsText());
+					}
+					
+				}else if ( cmd.equals( "flows" )){
+					
+					if ( plugin_maybe_null == null ){
+						
+						adapter.log( "Flows not available" );
+						
+					}else{
+						
+						adapter.log( plugin_maybe_null.getFlowTable());
+					}
+					
 				}else if ( cmd.equals( "lookup" )){
 					
 					if ( bits.length != 2 ){
@@ -4572,8 +4717,6 @@ I2PHelperPlugin
 				
 				bigly_socket.bind( null );
 				
-				final int proxy_port = bigly_socket.getLocalPort();
-				
 				String local_ip;
 				
 				if ( dht == null ){
@@ -4587,80 +4730,21 @@ I2PHelperPlugin
 					local_ip = dht.getB32Address();
 				}
 				
-					// we need to pass the peer_ip to the core so that it doesn't just see '127.0.0.1'
-				
-				final AEProxyAddressMapper.PortMapping mapping = 
-						AEProxyFactory.getAddressMapper().registerPortMapping( 
-							proxy_port, 
-							i2p_socket.getLocalPort(),
-							local_ip,
-							6881,
-							remote_ip,
-							null );
-				
-				final Integer dht_index = dht==null?null:dht.getDHTIndex();
-				
-				if ( dht_index != null ){
-					
-					synchronized( local_port_map ){
-						
-						local_port_map.put( proxy_port, dht_index );
-					}
-				}
-				
-				// System.out.println( "local port=" + local_port );
+				LoopbackBridge bridge = 
+					new LoopbackBridge( 
+						bigly_socket.getLocalPort(),
+						i2p_socket.getLocalPort(),
+						local_ip,
+						6881,
+						remote_ip,
+						dht==null?null:dht.getDHTIndex());
 				
 				boolean	ok = false;
 				
 				try{
-					InetAddress bind = NetworkAdmin.getSingleton().getSingleHomedServiceBindAddress();
+					bridge.connect( bigly_socket, target_port );
 					
-					if ( bind == null || bind.isAnyLocalAddress()){
-						
-						bind = InetAddress.getByName( "127.0.0.1" );
-					}
-					
-					bigly_socket.connect( new InetSocketAddress( bind, target_port));
-				
-					bigly_socket.setTcpNoDelay( true );
-					
-					Runnable	on_complete = 
-						new Runnable()
-						{
-							private int done_count;
-							
-							@Override
-							public void
-							run()
-							{
-								synchronized( this ){
-									
-									done_count++;
-									
-									if ( done_count < 2 ){
-										
-										return;
-									}
-								}
-								
-								mapping.unregister();
-								
-								if ( dht_index != null ){
-									
-									synchronized( local_port_map ){
-										
-										Integer di = local_port_map.get( proxy_port );
-										
-										if ( di != null &&  di == dht_index ){
-										
-											local_port_map.remove( proxy_port );
-										}
-									}
-								}
-							}
-						};
-						
-					socket_forwarder.forward( i2p_socket, bigly_socket, on_complete );
+					socket_forwarder.forward( i2p_socket, bigly_socket, bridge );
 					
 					ok = true;
 					
@@ -4668,20 +4752,7 @@ I2PHelperPlugin
 					
 					if ( !ok ){
 						
-						mapping.unregister();
-						
-						if ( dht_index != null ){
-							
-							synchronized( local_port_map ){
-															
-								Integer di = local_port_map.get( proxy_port );
-								
-								if ( di != null &&  di == dht_index ){
-								
-									local_port_map.remove( proxy_port );
-								}
-							}
-						}
+						bridge.unregister();
 					}
 				}
 			}
@@ -4750,78 +4821,25 @@ I2PHelperPlugin
 								
 			bigly_socket.bind( null );
 			
-			final int proxy_port = bigly_socket.getLocalPort();
-			
 			String local_ip		= getTorEndpoint( dht_index ).getHost();
 		
 			String remote_ip	= "remote." + next_remote_onion_id.incrementAndGet() + ".onion";	// we don't know
 			
-				// we need to pass the peer_ip to the core so that it doesn't just see '127.0.0.1'
-			
-			AEProxyAddressMapper.PortMapping mapping = 
-					AEProxyFactory.getAddressMapper().registerPortMapping( 
-						proxy_port, 
-						tor_socket.getLocalPort(),
-						local_ip,
-						getTorEndpoint( dht_index ).getPort(),
-						remote_ip,
-						null );
-				
-			synchronized( local_port_map ){
-				
-				local_port_map.put( proxy_port, dht_index );
-			}
-			
-			// System.out.println( "local port=" + local_port );
+			LoopbackBridge bridge = 
+				new LoopbackBridge( 
+					bigly_socket.getLocalPort(),
+					tor_socket.getLocalPort(),
+					local_ip,
+					getTorEndpoint( dht_index ).getPort(),
+					remote_ip,
+					dht_index );
 			
 			boolean	ok = false;
 			
 			try{
-				InetAddress bind = NetworkAdmin.getSingleton().getSingleHomedServiceBindAddress();
-				
-				if ( bind == null || bind.isAnyLocalAddress()){
-					
-					bind = InetAddress.getByName( "127.0.0.1" );
-				}
+				bridge.connect( bigly_socket, target_port );
 				
-				bigly_socket.connect( new InetSocketAddress( bind, target_port));
-			
-				bigly_socket.setTcpNoDelay( true );
-				
-				Runnable	on_complete = 
-					new Runnable()
-					{
-						private int done_count;
-						
-						@Override
-						public void
-						run()
-						{
-							synchronized( this ){
-								
-								done_count++;
-								
-								if ( done_count < 2 ){
-									
-									return;
-								}
-							}
-							
-							mapping.unregister();
-							
-							synchronized( local_port_map ){
-								
-								Integer di = local_port_map.get( proxy_port );
-								
-								if ( di != null &&  di == dht_index ){	
-									
-									local_port_map.remove( proxy_port );
-								}
-							}
-						}
-					};
-					
-				socket_forwarder.forward( tor_socket, bigly_socket, on_complete );
+				socket_forwarder.forward( tor_socket, bigly_socket, bridge );
 									
 				ok = true;
 				
@@ -4829,17 +4847,7 @@ I2PHelperPlugin
 				
 				if ( !ok ){
 					
-					mapping.unregister();
-					
-					synchronized( local_port_map ){
-												
-						Integer di = local_port_map.get( proxy_port );
-						
-						if ( di != null &&  di == dht_index ){
-							
-							local_port_map.remove( proxy_port );
-						}
-					}
+					bridge.unregister();
 				}
 			}
 		}catch( Throwable e ){
@@ -4887,6 +4895,119 @@ I2PHelperPlugin
 		}
 	}
 	
+		/**
+		 * Inbound I2P and Tor streams reach the core over a loopback connection to its TCP listen
+		 * port. The port mapping lets the core see the real remote address rather than 127.0.0.1,
+		 * this is run by the forwarder as each direction completes and tidies up once both have
+		 */
+	
+	private class
+	LoopbackBridge
+		implements Runnable
+	{
+		private final int								proxy_port;
+		private final Integer							dht_index;
+		private final AEProxyAddressMapper.PortMapping	mapping;
+		
+		private int			done_count;
+		private boolean		unregistered;
+		
+		private
+		LoopbackBridge(
+			int			_proxy_port,
+			int			source_port,
+			String		local_ip,
+			int			local_port,
+			String		remote_ip,
+			Integer		_dht_index )
+		{
+			proxy_port	= _proxy_port;
+			dht_index	= _dht_index;
+			
+			mapping = 
+				AEProxyFactory.getAddressMapper().registerPortMapping( 
+					proxy_port, 
+					source_port,
+					local_ip,
+					local_port,
+					remote_ip,
+					null );
+			
+			if ( dht_index != null ){
+				
+				synchronized( local_port_map ){
+					
+					local_port_map.put( proxy_port, dht_index );
+				}
+			}
+		}
+		
+		private void
+		connect(
+			Socket		bigly_socket,
+			int			target_port )
+		
+			throws IOException
+		{
+			InetAddress bind = NetworkAdmin.getSingleton().getSingleHomedServiceBindAddress();
+			
+			if ( bind == null || bind.isAnyLocalAddress()){
+				
+				bind = InetAddress.getByName( "127.0.0.1" );
+			}
+			
+			bigly_socket.connect( new InetSocketAddress( bind, target_port));
+		
+			bigly_socket.setTcpNoDelay( true );
+		}
+		
+		@Override
+		public void
+		run()
+		{
+			synchronized( this ){
+				
+				done_count++;
+				
+				if ( done_count < 2 ){
+					
+					return;
+				}
+			}
+			
+			unregister();
+		}
+		
+		private void
+		unregister()
+		{
+			synchronized( this ){
+				
+				if ( unregistered ){
+					
+					return;
+				}
+				
+				unregistered = true;
+			}
+			
+			mapping.unregister();
+			
+			if ( dht_index != null ){
+				
+				synchronized( local_port_map ){
+					
+					Integer di = local_port_map.get( proxy_port );
+					
+					if ( di != null && di.equals( dht_index )){
+					
+						local_port_map.remove( proxy_port );
+					}
+				}
+			}
+		}
+	}
+	
 	private I2PHelperTracker
 	getTracker(
 		long		timeout )
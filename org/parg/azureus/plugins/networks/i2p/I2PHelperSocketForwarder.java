@@ -26,17 +26,23 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.biglybt.core.networkmanager.VirtualChannelSelector;
 import com.biglybt.core.util.AERunnable;
 import com.biglybt.core.util.AESemaphore;
+import com.biglybt.core.util.Base32;
 import com.biglybt.core.util.AEThread2;
 import com.biglybt.core.util.Debug;
+import com.biglybt.core.util.DisplayFormatters;
 import com.biglybt.core.util.SimpleTimer;
 import com.biglybt.core.util.SystemTime;
 import com.biglybt.core.util.ThreadPool;
 import com.biglybt.core.util.TimerEvent;
 import com.biglybt.core.util.TimerEventPerformer;
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperBufferPool;
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperHistogram;
 
 import net.i2p.client.streaming.I2PSocket;
 import net.i2p.client.streaming.impl.MessageInputStream;
@@ -53,6 +59,44 @@ I2PHelperSocketForwarder
 	
 	private static ThreadPool			async_write_pool 	= new ThreadPool( "I2PSocket forward write", 256, true );
 
+		// bounded mode: a small pool drains per-connection write queues, reads from the bigly side
+		// are paused when a connection's queue fills up. writes still block so a connection that
+		// moves no data in either direction between two timeout checks while a write is blocked
+		// is dropped to free its writer. off by default as aggregate throughput is capped at
+		// BOUNDED_WRITE_THREADS peers' worth, see bench/ForwarderWriteBenchmark
+	
+	private static final int			BOUNDED_WRITE_THREADS		= 8;
+	private static final int			BOUNDED_WRITE_QUEUE_LIMIT	= 64*1024;
+	private static final int			BOUNDED_WRITE_BATCH			= 64*1024;
+	
+	private static final int			BOUNDED_WRITE_QUEUE_BUFFERS	= 16;
+	
+	private static ThreadPool			bounded_write_pool 	= new ThreadPool( "I2PSocket forward bounded write", BOUNDED_WRITE_THREADS, true );
+	
+		// relay buffers are only borrowed while data is in flight
+	
+	private static final int			I2P_BUFFER_SIZE		= 16*1024;
+	private static final int			TOR_BUFFER_SIZE		= 32*1024;
+	
+		// max buffers filled from an I2P stream per read pass
+	
+	private static final int			I2P_READ_RING_SIZE	= 4;
+	
+	private static final I2PHelperBufferPool	buffer_pool = I2PHelperBufferPool.getSingleton();
+	
+	private volatile boolean	bounded_writes	= false;
+	
+	private final AtomicInteger	i2p_writes_active	= new AtomicInteger();
+	private volatile int		i2p_writes_peak;
+	private final AtomicLong	i2p_bytes_written	= new AtomicLong();
+
+	private final AtomicLong	total_bytes_in		= new AtomicLong();	// remote -> bigly
+	private final AtomicLong	total_bytes_out		= new AtomicLong();	// bigly -> remote
+	
+	private final I2PHelperHistogram	i2p_write_time_hist	= new I2PHelperHistogram( "I2P write time", "ms" );
+	private final I2PHelperHistogram	flow_duration_hist	= new I2PHelperHistogram( "Flow duration", "secs" );
+	private final I2PHelperHistogram	flow_rate_hist		= new I2PHelperHistogram( "Flow rate", "KB/sec" );
+
 	private VirtualChannelSelector	read_selector;
 	private VirtualChannelSelector	write_selector;
 
@@ -68,6 +112,176 @@ I2PHelperSocketForwarder
 	{		
 	}
 	
+	protected void
+	setBoundedWrites(
+		boolean		b )
+	{
+			// applies to subsequently forwarded connections
+		
+		bounded_writes = b;
+	}
+	
+	protected String
+	getStatusString()
+	{
+		int	num;
+		
+		synchronized( this ){
+			
+			num = activities.size();
+		}
+		
+		return( "Forwarder: mode=" + ( bounded_writes?("bounded[" + BOUNDED_WRITE_THREADS + "]"):"thread-per-write" ) +
+				", connections=" + num +
+				", I2P writers active=" + i2p_writes_active.get() + " (peak " + i2p_writes_peak + ")" +
+				", I2P bytes written=" + i2p_bytes_written.get() +
+				", total in=" + DisplayFormatters.formatByteCountToKiBEtc( total_bytes_in.get()) +
+				", total out=" + DisplayFormatters.formatByteCountToKiBEtc( total_bytes_out.get()) + "\n" +
+				"    " + i2p_write_time_hist.getStatusString() + "\n" +
+				"    " + flow_duration_hist.getStatusString() + "\n" +
+				"    " + flow_rate_hist.getStatusString());
+	}
+	
+		/**
+		 * One line per active flow, busiest first
+		 */
+	
+	protected String
+	getFlowTable(
+		int		max_flows )
+	{
+		List<ForwardingActivity>	flows;
+		
+		synchronized( this ){
+			
+			flows = new ArrayList<>( activities );
+		}
+		
+			// totals keep changing while we sort, take a copy so the comparator is consistent
+		
+		Map<ForwardingActivity,Long>	totals = new IdentityHashMap<>( flows.size()*2 );
+		
+		for ( ForwardingActivity a: flows ){
+			
+			totals.put( a, a.getFlowStats().getTotalBytes());
+		}
+		
+		Collections.sort(
+			flows,
+			new Comparator<ForwardingActivity>()
+			{
+				@Override
+				public int
+				compare(
+					ForwardingActivity o1,
+					ForwardingActivity o2 )
+				{
+					return( Long.compare( totals.get( o2 ), totals.get( o1 )));
+				}
+			});
+		
+		long	now = SystemTime.getMonotonousTime();
+		
+		StringBuilder sb = new StringBuilder( 1024 );
+		
+		sb.append( "Flows: " ).append( flows.size());
+		
+		int	num = 0;
+		
+		for ( ForwardingActivity a: flows ){
+			
+			if ( num++ == max_flows ){
+				
+				sb.append( "\n    ..." );
+				
+				break;
+			}
+			
+			FlowStats	stats = a.getFlowStats();
+			
+			long	age = Math.max( 1, now - stats.start_time );
+			
+			long	in	= stats.bytes_in.get();
+			long	out	= stats.bytes_out.get();
+			
+			sb.append( "\n    " ).append( a.getName());
+			sb.append( ": age=" ).append( age/1000 ).append( "s" );
+			sb.append( ", idle=" ).append(( now - a.getLastActivity())/1000 ).append( "s" );
+			sb.append( ", in=" ).append( DisplayFormatters.formatByteCountToKiBEtc( in ));
+			sb.append( " (" ).append( DisplayFormatters.formatByteCountToKiBEtcPerSec( in*1000/age )).append( ")" );
+			sb.append( ", out=" ).append( DisplayFormatters.formatByteCountToKiBEtc( out ));
+			sb.append( " (" ).append( DisplayFormatters.formatByteCountToKiBEtcPerSec( out*1000/age )).append( ")" );
+			sb.append( ", blocked=" ).append( stats.write_blocked.get()/1000000 ).append( "ms" );
+			sb.append( ", deferred=" ).append( stats.deferred_reads.get());
+			sb.append( ", queue=" ).append( a.getQueueDepth());
+		}
+		
+		return( sb.toString());
+	}
+	
+	private long
+	i2pWriteStarts()
+	{
+		int	active = i2p_writes_active.incrementAndGet();
+		
+		if ( active > i2p_writes_peak ){
+			
+			i2p_writes_peak = active;
+		}
+		
+		return( System.nanoTime());
+	}
+	
+	private void
+	i2pWriteEnds(
+		FlowStats	stats,
+		long		start,
+		int			bytes )
+	{
+		long	elapsed = System.nanoTime() - start;
+		
+		i2p_writes_active.decrementAndGet();
+		
+		stats.write_blocked.addAndGet( elapsed );
+		
+		i2p_write_time_hist.record( elapsed/1000000 );
+		
+		if ( bytes > 0 ){
+			
+			i2p_bytes_written.addAndGet( bytes );
+			
+			stats.bytes_out.addAndGet( bytes );
+			
+			total_bytes_out.addAndGet( bytes );
+		}
+	}
+	
+	private void
+	bytesIn(
+		FlowStats	stats,
+		long		bytes )
+	{
+		if ( bytes > 0 ){
+			
+			stats.bytes_in.addAndGet( bytes );
+			
+			total_bytes_in.addAndGet( bytes );
+		}
+	}
+	
+	private void
+	bytesOut(
+		FlowStats	stats,
+		long		bytes )
+	{
+		if ( bytes > 0 ){
+			
+			stats.bytes_out.addAndGet( bytes );
+			
+			total_bytes_out.addAndGet( bytes );
+		}
+	}
+	
 	protected void
 	forward(
 		I2PSocket	i2p_socket,
@@ -206,6 +420,14 @@ I2PHelperSocketForwarder
 	destroyed(
 		ForwardingActivity		a )
 	{
+		FlowStats	stats = a.getFlowStats();
+		
+		long	age = Math.max( 1, SystemTime.getMonotonousTime() - stats.start_time );
+		
+		flow_duration_hist.record( age/1000 );
+		
+		flow_rate_hist.record( stats.getTotalBytes()*1000/age/1024 );
+		
 		synchronized( this ){
 
 			if ( !destroyed ){
@@ -347,6 +569,38 @@ I2PHelperSocketForwarder
 		
 		public void
 		destroy();
+		
+		public String
+		getName();
+		
+		public FlowStats
+		getFlowStats();
+		
+		public long
+		getLastActivity();
+		
+		public int
+		getQueueDepth();
+	}
+	
+	static class
+	FlowStats
+	{
+		final long			start_time		= SystemTime.getMonotonousTime();
+		
+		final AtomicLong	bytes_in		= new AtomicLong();		// remote -> bigly
+		final AtomicLong	bytes_out		= new AtomicLong();		// bigly -> remote
+		final AtomicLong	write_blocked	= new AtomicLong();		// nanos spent in blocking writes
+		
+			// reads that had to wait for the opposite direction to drain
+		
+		final AtomicInteger	deferred_reads	= new AtomicInteger();
+		
+		long
+		getTotalBytes()
+		{
+			return( bytes_in.get() + bytes_out.get());
+		}
 	}
 	
 	class
@@ -367,19 +621,35 @@ I2PHelperSocketForwarder
 		private MessageInputStream 	i2p_input_stream;
 		private OutputStream		i2p_output_stream;
 		
-		private byte[]					i2p_input_buffer = new byte[16*1024];
-		private volatile ByteBuffer		bigly_output_buffer;;
+			// data read from I2P and waiting to be written to bigly, count is non-zero whilst a
+			// batch is outstanding
+		
+		private final ByteBuffer[]		bigly_output_buffers	= new ByteBuffer[I2P_READ_RING_SIZE];
+		private volatile int			bigly_output_count;
 
-		private byte[]					i2p_output_buffer = new byte[16*1024];
+		private byte[]					i2p_output_buffer;		// backs bigly_input_buffer
 		private volatile ByteBuffer		bigly_input_buffer;
 
 		private boolean		i2p_read_active;
 		private boolean		i2p_read_deferred;
 		private boolean 	i2p_read_dead;
 		
+		final private boolean		bounded;
+		
+		private LinkedList<ByteBuffer>	i2p_write_queue = new LinkedList<>();
+		private int					i2p_write_queued;
+		private boolean				i2p_write_scheduled;
+		private boolean				bigly_read_paused;
+		
+		private volatile long		i2p_write_start;		// 0 if no bounded write in progress
+		
+		private long				stall_check_bytes	= -1;	// bytes moved at the last timeout check that saw a blocked write
+		
 		private Object		lock = new Object();
 		
-		private long		last_activity	= SystemTime.getMonotonousTime();
+		private volatile long		last_activity	= SystemTime.getMonotonousTime();
+		
+		final private FlowStats		stats = new FlowStats();
 		
 		private boolean		failed;
 		private boolean		destroyed;
@@ -393,6 +663,8 @@ I2PHelperSocketForwarder
 			i2p_socket		= _i2p_socket;
 			bigly_socket 	= _bigly_socket;
 			on_complete		= _on_complete;
+			
+			bounded			= bounded_writes;
 		}
 		
 		public void
@@ -491,10 +763,12 @@ I2PHelperSocketForwarder
 					return;
 				}
 				
-				if ( i2p_read_active || bigly_output_buffer != null ){
+				if ( i2p_read_active || bigly_output_count != 0 ){
 					
 					i2p_read_deferred = true;
 					
+					stats.deferred_reads.incrementAndGet();
+					
 					return;
 				}
 				
@@ -518,12 +792,72 @@ I2PHelperSocketForwarder
 		{
 			boolean	went_async = false;
 
+			byte[]	buffer = null;
+			
 			try{											
 				while( !i2p_socket.isClosed()){
 				
-					int	len = i2p_input_stream.read( i2p_input_buffer );
+						// drain whatever the stream has available into the ring so that a
+						// single gathering write can push it all to the bigly side
+					
+					if ( bigly_output_count != 0 ){
+						
+						Debug.out( "bigly_output_buffers must be empty" );
+						
+						throw( new IOException( "Inconsistent" ));
+					}
+					
+					int	num = 0;
+					
+					while( num < I2P_READ_RING_SIZE ){
+						
+						if ( buffer == null ){
+							
+							buffer = buffer_pool.getArray( I2P_BUFFER_SIZE );
+						}
+						
+						int	len = i2p_input_stream.read( buffer, 0, I2P_BUFFER_SIZE );
+						
+						if ( len == 0 ){
+							
+							break;
+						}
+						
+						if ( len < 0 ){
+							
+							if ( num == 0 ){
+								
+								throw( new IOException( "Connection closed" ));
+							}
+							
+								// deliver what we have, end of stream will be seen on the next read
+							
+							break;
+						}
+						
+						synchronized( lock ){
+							
+							if ( destroyed ){
+								
+								throw( new IOException( "Connection closed" ));
+							}
+							
+							bigly_output_buffers[num++] = ByteBuffer.wrap( buffer, 0, len );
+							
+							bigly_output_count = num;
+							
+							buffer = null;
+						}
+						
+						if ( len < I2P_BUFFER_SIZE ){
+							
+								// short read, stream most likely drained
+							
+							break;
+						}
+					}
 					
-					if ( len == 0 ){
+					if ( num == 0 ){
 						
 						synchronized( lock ){
 							
@@ -540,23 +874,9 @@ I2PHelperSocketForwarder
 						continue;
 					}
 					
-					if ( len < 0 ){
-						
-						throw( new IOException( "Connection closed" ));
-					}
-																					
-					if ( bigly_output_buffer != null ){
-						
-						Debug.out("bigly_output_buffer must be null" );
-						
-						throw( new IOException( "Inconsistent" ));
-					}
-														
-					bigly_output_buffer = ByteBuffer.wrap( i2p_input_buffer, 0, len );
-					
 					writeToBigly();
 					
-					if ( bigly_output_buffer != null ){
+					if ( bigly_output_count != 0 ){
 						
 						went_async = true;
 						
@@ -599,6 +919,11 @@ I2PHelperSocketForwarder
 				
 			}finally{
 			
+				if ( buffer != null ){
+					
+					buffer_pool.returnArray( buffer );
+				}
+				
 				synchronized( lock ){
 					
 					i2p_read_active = false;
@@ -623,10 +948,19 @@ I2PHelperSocketForwarder
 		writeToBigly()
 		
 			throws IOException
-		{						
-			int written = bigly_channel.write( bigly_output_buffer );
+		{
+			int	num = bigly_output_count;
+			
+			if ( num == 0 ){
+				
+				return( false );
+			}
+			
+			long written = bigly_channel.write( bigly_output_buffers, 0, num );
+			
+			bytesIn( stats, written );
 																
-			if ( bigly_output_buffer.hasRemaining()){
+			if ( bigly_output_buffers[num-1].hasRemaining()){
 			
 				if ( write_selector_registered ){
 					
@@ -642,7 +976,19 @@ I2PHelperSocketForwarder
 				
 				synchronized( lock ){
 			
-					bigly_output_buffer	= null;
+					for ( int i=0;i<num;i++){
+						
+							// once destroyed the buffers have already been accounted for
+						
+						if ( !destroyed ){
+						
+							buffer_pool.returnArray( bigly_output_buffers[i].array());
+						}
+						
+						bigly_output_buffers[i] = null;
+					}
+					
+					bigly_output_count	= 0;
 					
 					readFromI2P();
 				}
@@ -656,6 +1002,11 @@ I2PHelperSocketForwarder
 		
 			throws IOException
 		{
+			if ( bounded ){
+				
+				return( readFromBiglyBounded());
+			}
+			
 			if ( bigly_input_buffer != null ){
 				
 				Debug.out( "bigly_input_buffer must be null" );
@@ -663,13 +1014,36 @@ I2PHelperSocketForwarder
 				throw( new IOException( "Inconsistent" ));
 			}
 			
-			bigly_input_buffer = ByteBuffer.wrap( i2p_output_buffer );
+			synchronized( lock ){
+				
+				if ( destroyed ){
+					
+					return( false );
+				}
+				
+				i2p_output_buffer	= buffer_pool.getArray( I2P_BUFFER_SIZE );
+				
+				bigly_input_buffer	= ByteBuffer.wrap( i2p_output_buffer, 0, I2P_BUFFER_SIZE );
+			}
 			
-  			int read = bigly_channel.read( bigly_input_buffer );
+  			int read;
+  			
+  			try{
+  				read = bigly_channel.read( bigly_input_buffer );
+  				
+  			}catch( IOException e ){
+  				
+  				releaseOutputBuffer();
+  				
+  				throw( e );
+  			}
   			
+			if ( read <= 0 ){
+				
+				releaseOutputBuffer();
+			}
+			
 			if ( read == 0 ){
-
-				bigly_input_buffer = null;
 				
 				if ( !read_selector_registered ){
 						
@@ -681,6 +1055,8 @@ I2PHelperSocketForwarder
 				
 				read_selector.pauseSelects( bigly_channel );
 				
+				final byte[] data = bigly_input_buffer.array();
+				
 				async_write_pool.run(
 					new AERunnable()
 					{
@@ -690,8 +1066,10 @@ I2PHelperSocketForwarder
 						{	
 							boolean	ok = false;
 							
+							long	start = i2pWriteStarts();
+							
 							try{
-								i2p_output_stream.write( i2p_output_buffer, 0, read );
+								i2p_output_stream.write( data, 0, read );
 								
 								last_activity	= SystemTime.getMonotonousTime();
 								
@@ -705,7 +1083,9 @@ I2PHelperSocketForwarder
 								
 							}finally{
 								
-								bigly_input_buffer = null;
+								i2pWriteEnds( stats, start, ok?read:0 );
+								
+								releaseOutputBuffer();
 								
 								if ( ok ){
 									
@@ -722,6 +1102,239 @@ I2PHelperSocketForwarder
 			return( read > 0 );
 		}
 		
+		private void
+		releaseOutputBuffer()
+		{
+			synchronized( lock ){
+				
+				if ( i2p_output_buffer != null ){
+					
+					buffer_pool.returnArray( i2p_output_buffer );
+					
+					i2p_output_buffer = null;
+				}
+				
+				bigly_input_buffer = null;
+			}
+		}
+		
+		private boolean
+		readFromBiglyBounded()
+		
+			throws IOException
+		{
+			byte[]	buffer = buffer_pool.getArray( I2P_BUFFER_SIZE );
+			
+			int read;
+			
+			try{
+				read = bigly_channel.read( ByteBuffer.wrap( buffer, 0, I2P_BUFFER_SIZE ));
+	  			
+			}catch( IOException e ){
+				
+				buffer_pool.returnArray( buffer );
+				
+				throw( e );
+			}
+			
+  			if ( read < 0 ){
+  				
+  				buffer_pool.returnArray( buffer );
+  				
+  				throw( new IOException( "End of stream" ));
+  			}
+  			
+			if ( !read_selector_registered ){
+				
+				read_selector_registered = true;
+				
+				read_selector.register( bigly_channel, bigly_listener, null  );
+			}
+			
+			if ( read == 0 ){
+				
+				buffer_pool.returnArray( buffer );
+				
+				return( false );
+			}
+			
+			boolean	schedule = false;
+			
+			synchronized( lock ){
+				
+				if ( destroyed ){
+					
+					buffer_pool.returnArray( buffer );
+					
+					return( false );
+				}
+				
+					// the pooled buffer itself is queued and handed back once written
+				
+				i2p_write_queue.add( ByteBuffer.wrap( buffer, 0, read ));
+				
+				i2p_write_queued += read;
+				
+				if ( 	( 	i2p_write_queued >= BOUNDED_WRITE_QUEUE_LIMIT || 
+							i2p_write_queue.size() >= BOUNDED_WRITE_QUEUE_BUFFERS ) && 
+						!bigly_read_paused ){
+					
+					bigly_read_paused = true;
+					
+					read_selector.pauseSelects( bigly_channel );
+				}
+				
+				if ( !i2p_write_scheduled ){
+					
+					i2p_write_scheduled = true;
+					
+					schedule = true;
+				}
+			}
+			
+			if ( schedule ){
+				
+				scheduleI2PWrite();
+			}
+			
+			return( true );
+		}
+		
+		private void
+		scheduleI2PWrite()
+		{
+			bounded_write_pool.run(
+				new AERunnable()
+				{
+					@Override
+					public void
+					runSupport()
+					{	
+						writeToI2PBounded();
+					}
+				});
+		}
+		
+		private void
+		writeToI2PBounded()
+		{
+				// drain up to a batch's worth and then requeue so that one busy connection
+				// can't monopolise a writer
+			
+			int	batch = 0;
+			
+			try{
+				while( true ){
+					
+					ByteBuffer	chunk;
+					
+					synchronized( lock ){
+						
+						if ( destroyed || i2p_write_queue.isEmpty()){
+							
+							i2p_write_scheduled = false;
+							
+							return;
+						}
+						
+						if ( batch >= BOUNDED_WRITE_BATCH ){
+							
+							break;
+						}
+						
+						chunk = i2p_write_queue.removeFirst();
+					}
+					
+					boolean	ok = false;
+					
+					long	start = i2pWriteStarts();
+					
+					int	len = chunk.limit();
+					
+					i2p_write_start = SystemTime.getMonotonousTime();
+					
+					try{
+						i2p_output_stream.write( chunk.array(), 0, len );
+						
+						ok = true;
+						
+					}finally{
+						
+						i2p_write_start = 0;
+						
+						i2pWriteEnds( stats, start, ok?len:0 );
+						
+						buffer_pool.returnArray( chunk.array());
+					}
+					
+					last_activity	= SystemTime.getMonotonousTime();
+					
+					batch += len;
+					
+					synchronized( lock ){
+						
+						i2p_write_queued -= len;
+						
+						if ( 	bigly_read_paused && 
+								i2p_write_queued < BOUNDED_WRITE_QUEUE_LIMIT/2 &&
+								i2p_write_queue.size() < BOUNDED_WRITE_QUEUE_BUFFERS/2 ){
+							
+							bigly_read_paused = false;
+							
+							read_selector.resumeSelects( bigly_channel );
+						}
+					}
+				}
+			}catch( Throwable e ){
+				
+				synchronized( lock ){
+					
+					i2p_write_scheduled = false;
+				}
+				
+				failed( e );
+				
+				return;
+			}
+			
+			scheduleI2PWrite();
+		}
+		
+		public String
+		getName()
+		{
+			try{
+				return( "I2P:" + Base32.encode( i2p_socket.getPeerDestination().calculateHash().getData()).substring( 0, 16 ));
+				
+			}catch( Throwable e ){
+				
+				return( "I2P:?" );
+			}
+		}
+		
+		public FlowStats
+		getFlowStats()
+		{
+			return( stats );
+		}
+		
+		public long
+		getLastActivity()
+		{
+			return( last_activity );
+		}
+		
+		public int
+		getQueueDepth()
+		{
+				// buffers waiting to be written in either direction
+			
+			synchronized( lock ){
+				
+				return( i2p_write_queue.size() + bigly_output_count + ( bigly_input_buffer==null?0:1 ));
+			}
+		}
+		
 		public boolean
 		timeout()
 		{
@@ -733,11 +1346,33 @@ I2PHelperSocketForwarder
 			}catch( Throwable e ){
 			}
 			
-			if ( SystemTime.getMonotonousTime() - last_activity > 2*60*1000 ){
+			long	now = SystemTime.getMonotonousTime();
+			
+			if ( now - last_activity > 2*60*1000 ){
+				
+				return( true );
+			}
+			
+				// a slow peer still makes progress, only give up on one that has moved nothing since
+				// the last check. closing the socket on destroy fails the blocked write and releases
+				// the writer
+			
+			if ( i2p_write_start == 0 ){
+				
+				stall_check_bytes = -1;
+				
+				return( false );
+			}
+			
+			long	moved = stats.bytes_in.get() + stats.bytes_out.get();
+			
+			if ( moved == stall_check_bytes ){
 				
 				return( true );
 			}
 			
+			stall_check_bytes = moved;
+			
 			return( false );
 		}
 		
@@ -771,6 +1406,30 @@ I2PHelperSocketForwarder
 				}
 				
 				destroyed = true;
+				
+					// buffers backing in-progress reads/writes may still be referenced so just
+					// account for them, queued ones are unused and can be recycled
+				
+				for ( int i=0;i<bigly_output_count;i++){
+					
+					buffer_pool.discardArray( bigly_output_buffers[i].array());
+				}
+				
+				if ( i2p_output_buffer != null ){
+					
+					buffer_pool.discardArray( i2p_output_buffer );
+					
+					i2p_output_buffer = null;
+				}
+				
+				for ( ByteBuffer bb: i2p_write_queue ){
+					
+					buffer_pool.returnArray( bb.array());
+				}
+				
+				i2p_write_queue.clear();
+				
+				i2p_write_queued = 0;
 			}
 			
 			// System.out.println( "Forwarder end: " + i2p_socket.getPeerDestination());
@@ -847,7 +1506,9 @@ I2PHelperSocketForwarder
 		
 		private Object		lock = new Object();
 		
-		private long		last_activity	= SystemTime.getMonotonousTime();
+		private volatile long		last_activity	= SystemTime.getMonotonousTime();
+		
+		final private FlowStats		stats = new FlowStats();
 		
 		private boolean		failed;
 		private boolean		destroyed;
@@ -986,8 +1647,12 @@ I2PHelperSocketForwarder
 					
  			//System.out.println( "bigly-write: " + written );
 
+			bytesIn( stats, written );
+			
 			if ( bigly_output_buffer.hasRemaining()){
 			
+				stats.deferred_reads.incrementAndGet();
+				
 				if ( bigly_write_selector_registered ){
 					
 					write_selector.resumeSelects( bigly_channel );
@@ -1002,6 +1667,8 @@ I2PHelperSocketForwarder
 				
 				synchronized( lock ){
 			
+					releaseBuffer( bigly_output_buffer );
+					
 					bigly_output_buffer	= null;
 					
 					readFromTor();
@@ -1023,16 +1690,32 @@ I2PHelperSocketForwarder
 				throw( new IOException( "Inconsistent" ));
 			}
 			
-			tor_output_buffer = ByteBuffer.allocate( 32*1024 );
+			synchronized( lock ){
+				
+				if ( destroyed ){
+					
+					return( false );
+				}
+				
+				tor_output_buffer = allocateBuffer();
+			}
 			
   			int read = bigly_channel.read( tor_output_buffer );
   			
  			//System.out.println( "bigly-read: " + read );
 
+			if ( read <= 0 ){
+				
+				synchronized( lock ){
+					
+					releaseBuffer( tor_output_buffer );
+				
+					tor_output_buffer = null;
+				}
+			}
+			
 			if ( read == 0 ){
 
-				tor_output_buffer = null;
-				
 				if ( bigly_read_selector_registered ){
 					
 					read_selector.resumeSelects( bigly_channel );
@@ -1067,8 +1750,12 @@ I2PHelperSocketForwarder
 					
  			//System.out.println( "tor-write: " + written );
  			
+			bytesOut( stats, written );
+			
 			if ( tor_output_buffer.hasRemaining()){
 			
+				stats.deferred_reads.incrementAndGet();
+				
 				if ( tor_write_selector_registered ){
 					
 					write_selector.resumeSelects( tor_channel );
@@ -1083,6 +1770,8 @@ I2PHelperSocketForwarder
 				
 				synchronized( lock ){
 			
+					releaseBuffer( tor_output_buffer );
+					
 					tor_output_buffer	= null;
 					
 					readFromBigly();
@@ -1104,16 +1793,32 @@ I2PHelperSocketForwarder
 				throw( new IOException( "Inconsistent" ));
 			}
 			
-			bigly_output_buffer = ByteBuffer.allocate( 32*1024 );
+			synchronized( lock ){
+				
+				if ( destroyed ){
+					
+					return( false );
+				}
+				
+				bigly_output_buffer = allocateBuffer();
+			}
 			
   			int read = tor_channel.read( bigly_output_buffer );
   			
   			//System.out.println( "tor-read: " + read );
   			
+			if ( read <= 0 ){
+				
+				synchronized( lock ){
+					
+					releaseBuffer( bigly_output_buffer );
+				
+					bigly_output_buffer = null;
+				}
+			}
+			
 			if ( read == 0 ){
 
-				bigly_output_buffer = null;
-				
 				if ( tor_read_selector_registered ){
 					
 					read_selector.resumeSelects( tor_channel );
@@ -1140,6 +1845,49 @@ I2PHelperSocketForwarder
 			return( read > 0 );
 		}
 		
+		private ByteBuffer
+		allocateBuffer()
+		{
+				// lock held and not destroyed so that destroy sees the buffer and accounts for it
+			
+			return( ByteBuffer.wrap( buffer_pool.getArray( TOR_BUFFER_SIZE ), 0, TOR_BUFFER_SIZE ));
+		}
+		
+		private void
+		releaseBuffer(
+			ByteBuffer		buffer )
+		{
+				// lock held, once destroyed any outstanding buffers have already been accounted for
+			
+			if ( buffer != null && !destroyed ){
+				
+				buffer_pool.returnArray( buffer.array());
+			}
+		}
+		
+		public String
+		getName()
+		{
+			return( "Tor:" + tor_socket.getPort() );
+		}
+		
+		public FlowStats
+		getFlowStats()
+		{
+			return( stats );
+		}
+		
+		public long
+		getLastActivity()
+		{
+			return( last_activity );
+		}
+		
+		public int
+		getQueueDepth()
+		{
+			return(( bigly_output_buffer==null?0:1 ) + ( tor_output_buffer==null?0:1 ));
+		}
 		
 		public boolean
 		timeout()
@@ -1190,6 +1938,16 @@ I2PHelperSocketForwarder
 				}
 				
 				destroyed = true;
+				
+				if ( bigly_output_buffer != null ){
+					
+					buffer_pool.discardArray( bigly_output_buffer.array());
+				}
+				
+				if ( tor_output_buffer != null ){
+					
+					buffer_pool.discardArray( tor_output_buffer.array());
+				}
 			}
 			
 			// System.out.println( "Forwarder end: " + i2p_socket.getPeerDestination());
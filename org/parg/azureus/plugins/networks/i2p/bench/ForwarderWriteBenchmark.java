@@ -0,0 +1,602 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Development benchmark, not part of the plugin jar
+ */
+
+public class
+ForwarderWriteBenchmark
+{
+		// as I2PHelperSocketForwarder
+
+	private static final int	CHUNK_SIZE				= 16*1024;
+	private static final int	WRITE_THREADS			= 256;
+	private static final int	BOUNDED_WRITE_THREADS	= 8;
+	private static final int	BOUNDED_QUEUE_LIMIT		= 64*1024;
+	private static final int	BOUNDED_QUEUE_BUFFERS	= 16;
+	private static final int	BOUNDED_BATCH			= 64*1024;
+
+	private static final int	MAX_RUN_TIME			= 60*1000;
+
+		/**
+		 * Compares the forwarder's thread-per-write and bounded writer strategies for the bigly
+		 * to I2P direction. Real I2P sockets can't be set up here so each connection writes to a
+		 * blocking stream throttled to a fixed rate, as an I2P stream blocks once its window is
+		 * full. Each strategy reproduces the forwarder's queueing and back-pressure with the same
+		 * constants.
+		 *
+		 * Fast connections each send a fixed amount, slow ones keep sending until the fast ones are
+		 * done or MAX_RUN_TIME is reached. Reports the aggregate fast throughput and the peak number
+		 * of threads blocked in writes. Only needs the JDK, args are [fast] [fast KB/s]
+		 * [MB per fast] [slow KB/s] [slow counts...]
+		 */
+
+	public static void
+	main(
+		String[]		args )
+	{
+		try{
+			int	fast		= args.length>0?Integer.parseInt( args[0] ):64;
+			int	fast_rate	= args.length>1?Integer.parseInt( args[1] ):256;
+			int	fast_mb		= args.length>2?Integer.parseInt( args[2] ):1;
+			int	slow_rate	= args.length>3?Integer.parseInt( args[3] ):2;
+
+			int[]	slow_counts;
+
+			if ( args.length > 4 ){
+
+				slow_counts = new int[args.length-4];
+
+				for ( int i=4;i<args.length;i++){
+
+					slow_counts[i-4] = Integer.parseInt( args[i] );
+				}
+			}else{
+
+				slow_counts = new int[]{ 0, 4, 8, 16 };
+			}
+
+			System.out.println( fast + " fast connections at " + fast_rate + "KB/s sending " + fast_mb + "MB each, slow connections at " + slow_rate + "KB/s" );
+
+			for ( int slow: slow_counts ){
+
+				for ( boolean bounded: new boolean[]{ false, true }){
+
+					Result	result = run( bounded, fast, fast_rate*1024, fast_mb*1024*1024, slow, slow_rate*1024 );
+
+					System.out.println(
+						"    slow=" + slow + ", " + ( bounded?"bounded[" + BOUNDED_WRITE_THREADS + "]   ":"thread-per-write" ) +
+						": fast throughput=" + result.throughput/1024 + "KB/s, elapsed=" + result.elapsed + "ms, peak writers=" + result.peak_writers );
+				}
+			}
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+		}
+	}
+
+	private static Result
+	run(
+		boolean		bounded,
+		int			fast,
+		int			fast_rate,
+		int			fast_bytes,
+		int			slow,
+		int			slow_rate )
+
+		throws Exception
+	{
+		Strategy	strategy = bounded?new BoundedStrategy():new ThreadPerWriteStrategy();
+
+		List<Connection>	connections = new ArrayList<>();
+
+		for ( int i=0;i<fast+slow;i++){
+
+			connections.add( new Connection( new ThrottledStream( i<fast?fast_rate:slow_rate ), strategy ));
+		}
+
+		CountDownLatch	fast_done = new CountDownLatch( fast );
+
+		List<Thread>	producers = new ArrayList<>();
+
+		long	start = System.currentTimeMillis();
+
+		for ( int i=0;i<connections.size();i++){
+
+			final Connection	connection	= connections.get( i );
+			final boolean		is_fast		= i < fast;
+
+				// stands in for the selector reading from the bigly socket
+
+			Thread producer =
+				new Thread( "producer " + i )
+				{
+					@Override
+					public void
+					run()
+					{
+						try{
+							long	sent = 0;
+
+							while( !is_fast || sent < fast_bytes ){
+
+								connection.offer( new byte[CHUNK_SIZE] );
+
+								sent += CHUNK_SIZE;
+							}
+
+							connection.waitDrained();
+
+						}catch( Throwable e ){
+
+						}finally{
+
+							if ( is_fast ){
+
+								fast_done.countDown();
+							}
+						}
+					}
+				};
+
+			producer.setDaemon( true );
+
+			producer.start();
+
+			producers.add( producer );
+		}
+
+		fast_done.await( MAX_RUN_TIME, TimeUnit.MILLISECONDS );
+
+		long	elapsed = System.currentTimeMillis() - start;
+
+		long	fast_written = 0;
+
+		for ( int i=0;i<fast;i++){
+
+			fast_written += connections.get( i ).written.get();
+		}
+
+		for ( Connection c: connections ){
+
+			c.close();
+		}
+
+		for ( Thread t: producers ){
+
+			t.join( 5000 );
+		}
+
+		strategy.destroy();
+
+		Result	result = new Result();
+
+		result.elapsed		= elapsed;
+		result.throughput	= fast_written*1000/Math.max( 1, elapsed );
+		result.peak_writers	= strategy.getPeakWriters();
+
+		return( result );
+	}
+
+	private static class
+	Result
+	{
+		long	elapsed;
+		long	throughput;
+		int		peak_writers;
+	}
+
+	private static class
+	ThrottledStream
+		extends OutputStream
+	{
+		private final int	rate;
+
+		private volatile boolean	closed;
+
+		private
+		ThrottledStream(
+			int		_rate )
+		{
+			rate	= _rate;
+		}
+
+		@Override
+		public void
+		write(
+			int		b )
+
+			throws IOException
+		{
+			write( new byte[]{ (byte)b }, 0, 1 );
+		}
+
+		@Override
+		public void
+		write(
+			byte[]	b,
+			int		off,
+			int		len )
+
+			throws IOException
+		{
+				// blocks for as long as the peer takes to accept the data, closing fails it as
+				// closing an I2P socket does
+
+			long	end = System.nanoTime() + len*1000000000L/rate;
+
+			while( true ){
+
+				if ( closed ){
+
+					throw( new IOException( "closed" ));
+				}
+
+				long	rem = end - System.nanoTime();
+
+				if ( rem <= 0 ){
+
+					return;
+				}
+
+				try{
+					Thread.sleep( Math.min( 100, Math.max( 1, rem/1000000 )));
+
+				}catch( InterruptedException e ){
+
+					throw( new IOException( "interrupted" ));
+				}
+			}
+		}
+
+		@Override
+		public void
+		close()
+		{
+			closed = true;
+		}
+	}
+
+	private static abstract class
+	Strategy
+	{
+		private final AtomicInteger	writers = new AtomicInteger();
+
+		private volatile int		peak_writers;
+
+		protected void
+		write(
+			Connection	connection,
+			byte[]		data,
+			int			len )
+
+			throws IOException
+		{
+			int	active = writers.incrementAndGet();
+
+			if ( active > peak_writers ){
+
+				peak_writers = active;
+			}
+
+			try{
+				connection.stream.write( data, 0, len );
+
+				connection.written.addAndGet( len );
+
+			}finally{
+
+				writers.decrementAndGet();
+			}
+		}
+
+		protected int
+		getPeakWriters()
+		{
+			return( peak_writers );
+		}
+
+		protected abstract void
+		offer(
+			Connection	connection,
+			byte[]		data )
+
+			throws Exception;
+
+		protected abstract void
+		destroy();
+	}
+
+		/**
+		 * Reads from bigly pause until the single outstanding write completes, each write takes a
+		 * pool thread for as long as it blocks
+		 */
+
+	private static class
+	ThreadPerWriteStrategy
+		extends Strategy
+	{
+		private final ExecutorService	pool =
+			new ThreadPoolExecutor( WRITE_THREADS, WRITE_THREADS, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+		@Override
+		protected void
+		offer(
+			final Connection	connection,
+			final byte[]		data )
+
+			throws Exception
+		{
+			synchronized( connection ){
+
+				while( connection.queued > 0 && !connection.closed ){
+
+					connection.wait();
+				}
+
+				if ( connection.closed ){
+
+					throw( new IOException( "closed" ));
+				}
+
+				connection.queued = data.length;
+			}
+
+			pool.execute(
+				new Runnable()
+				{
+					@Override
+					public void
+					run()
+					{
+						try{
+							write( connection, data, data.length );
+
+						}catch( Throwable e ){
+
+						}finally{
+
+							synchronized( connection ){
+
+								connection.queued = 0;
+
+								connection.notifyAll();
+							}
+						}
+					}
+				});
+		}
+
+		@Override
+		protected void
+		destroy()
+		{
+			pool.shutdownNow();
+		}
+	}
+
+		/**
+		 * Per-connection queues drained by a small pool, reads from bigly pause while a queue is
+		 * full and each drain is limited to a batch before requeueing
+		 */
+
+	private static class
+	BoundedStrategy
+		extends Strategy
+	{
+		private final ExecutorService	pool =
+			new ThreadPoolExecutor( BOUNDED_WRITE_THREADS, BOUNDED_WRITE_THREADS, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+		@Override
+		protected void
+		offer(
+			Connection	connection,
+			byte[]		data )
+
+			throws Exception
+		{
+			boolean	schedule = false;
+
+			synchronized( connection ){
+
+				while( 	( 	connection.queued >= BOUNDED_QUEUE_LIMIT ||
+							connection.queue.size() >= BOUNDED_QUEUE_BUFFERS ) &&
+						!connection.closed ){
+
+					connection.wait();
+				}
+
+				if ( connection.closed ){
+
+					throw( new IOException( "closed" ));
+				}
+
+				connection.queue.add( data );
+
+				connection.queued += data.length;
+
+				if ( !connection.scheduled ){
+
+					connection.scheduled = true;
+
+					schedule = true;
+				}
+			}
+
+			if ( schedule ){
+
+				schedule( connection );
+			}
+		}
+
+		private void
+		schedule(
+			final Connection	connection )
+		{
+			pool.execute(
+				new Runnable()
+				{
+					@Override
+					public void
+					run()
+					{
+						drain( connection );
+					}
+				});
+		}
+
+		private void
+		drain(
+			Connection	connection )
+		{
+			int	batch = 0;
+
+			try{
+				while( true ){
+
+					byte[]	chunk;
+
+					synchronized( connection ){
+
+						if ( connection.closed || connection.queue.isEmpty()){
+
+							connection.scheduled = false;
+
+							connection.notifyAll();
+
+							return;
+						}
+
+						if ( batch >= BOUNDED_BATCH ){
+
+							break;
+						}
+
+						chunk = connection.queue.removeFirst();
+					}
+
+					write( connection, chunk, chunk.length );
+
+					batch += chunk.length;
+
+					synchronized( connection ){
+
+						connection.queued -= chunk.length;
+
+						connection.notifyAll();
+					}
+				}
+			}catch( Throwable e ){
+
+				synchronized( connection ){
+
+					connection.scheduled = false;
+
+					connection.notifyAll();
+				}
+
+				return;
+			}
+
+			schedule( connection );
+		}
+
+		@Override
+		protected void
+		destroy()
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	private static class
+	Connection
+	{
+		private final ThrottledStream	stream;
+		private final Strategy			strategy;
+
+		private final LinkedList<byte[]>	queue = new LinkedList<>();
+
+		private final AtomicLong	written = new AtomicLong();
+
+		private int			queued;
+		private boolean		scheduled;
+		private boolean		closed;
+
+		private
+		Connection(
+			ThrottledStream		_stream,
+			Strategy			_strategy )
+		{
+			stream		= _stream;
+			strategy	= _strategy;
+		}
+
+		private void
+		offer(
+			byte[]		data )
+
+			throws Exception
+		{
+			strategy.offer( this, data );
+		}
+
+		private void
+		waitDrained()
+
+			throws InterruptedException
+		{
+			synchronized( this ){
+
+				while( ( queued > 0 || scheduled ) && !closed ){
+
+					wait();
+				}
+			}
+		}
+
+		private void
+		close()
+		{
+			synchronized( this ){
+
+				closed = true;
+
+				notifyAll();
+			}
+
+			stream.close();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.biglybt.core.util.BDecoder;
+import com.biglybt.core.util.BEncoder;
+
+import org.parg.azureus.plugins.networks.i2p.vuzedht.DHTTransportI2PKRPCCodec;
+import org.parg.azureus.plugins.networks.i2p.vuzedht.DHTUtilsI2P;
+
+/**
+ * Development benchmark, not part of the plugin jar
+ */
+
+public class
+KRPCCodecBenchmark
+{
+	private static final String[]	QUERY_METHODS = { "ping", "find_node", "get_peers", "announce_peer" };
+
+		/**
+		 * Encode and decode of typical queries and replies, BEncoder/BDecoder versus
+		 * DHTTransportI2PKRPCCodec. Run with the plugin and core jars on the classpath, arg is
+		 * [iterations]. Allocation figures rely on the HotSpot thread MXBean.
+		 */
+
+	public static void
+	main(
+		String[]		args )
+	{
+		try{
+			int	iterations = args.length==0?500000:Integer.parseInt( args[0] );
+
+			Random	random = new Random( 0 );
+
+			List<Map<String,Object>>	queries = new ArrayList<>();
+			List<Map<String,Object>>	replies = new ArrayList<>();
+
+			for ( String method: QUERY_METHODS ){
+
+				Map<String,Object>	map = new HashMap<>();
+				Map<String,Object>	a	= new HashMap<>();
+
+				byte[] id	= new byte[32];
+				byte[] t	= new byte[8];
+
+				random.nextBytes( id );
+				random.nextBytes( t );
+
+				a.put( "id", id );
+				a.put( "_v", "AZ" + DHTUtilsI2P.PROTOCOL_VERSION_ALT_CONTACTS );
+
+				if ( method.equals( "find_node" )){
+
+					a.put( "target", id.clone());
+
+				}else if ( !method.equals( "ping" )){
+
+					a.put( "info_hash", id.clone());
+					a.put( "token", t.clone());
+					a.put( "seed", 1 );
+				}
+
+				map.put( "a", a );
+				map.put( "q", method );
+				map.put( "t", t );
+				map.put( "y", "q" );
+
+				queries.add( map );
+
+				Map<String,Object>	reply	= new HashMap<>();
+				Map<String,Object>	r		= new HashMap<>();
+
+				r.put( "id", id.clone());
+
+				if ( !method.equals( "ping" )){
+
+					byte[]	nodes = new byte[8*(32+32+2)];
+
+					random.nextBytes( nodes );
+
+					r.put( "nodes", nodes );
+				}
+
+				reply.put( "r", r );
+				reply.put( "t", t.clone());
+				reply.put( "y", "r" );
+
+				replies.add( reply );
+			}
+
+			for ( int pass=0;pass<2;pass++){
+
+					// first pass is warmup
+
+				boolean	report = pass == 1;
+
+				run( "queries", queries, iterations, report );
+				run( "replies", replies, iterations, report );
+			}
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+		}
+	}
+
+	private static void
+	run(
+		String						name,
+		List<Map<String,Object>>	messages,
+		int							iterations,
+		boolean						report )
+
+		throws Exception
+	{
+		long	start_alloc	= getAllocatedBytes();
+		long	start		= System.nanoTime();
+
+		for ( int i=0;i<iterations;i++){
+
+			Map<String,Object>	map = messages.get( i%messages.size());
+
+			byte[] encoded = BEncoder.encode( map );
+
+			BDecoder.decode( encoded );
+		}
+
+		long	old_nanos	= System.nanoTime() - start;
+		long	old_alloc	= getAllocatedBytes() - start_alloc;
+
+		start_alloc	= getAllocatedBytes();
+		start		= System.nanoTime();
+
+		for ( int i=0;i<iterations;i++){
+
+			Map<String,Object>	map = messages.get( i%messages.size());
+
+			DHTTransportI2PKRPCCodec.Encoder encoder = DHTTransportI2PKRPCCodec.encode( map );
+
+				// decode needs an exact array, as it does when received from the session
+
+			DHTTransportI2PKRPCCodec.decode( encoder.toByteArray());
+		}
+
+		long	new_nanos	= System.nanoTime() - start;
+		long	new_alloc	= getAllocatedBytes() - start_alloc;
+
+		if ( report ){
+
+			System.out.println( name );
+			System.out.println( "    BEncoder/BDecoder: " + ( old_nanos/iterations ) + "ns/msg, " + ( old_alloc/iterations ) + " bytes/msg" );
+			System.out.println( "    KRPC codec:        " + ( new_nanos/iterations ) + "ns/msg, " + ( new_alloc/iterations ) + " bytes/msg" );
+		}
+	}
+
+	private static long
+	getAllocatedBytes()
+	{
+		try{
+			return(((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes( Thread.currentThread().getId()));
+
+		}catch( Throwable e ){
+
+			return( 0 );
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import net.i2p.data.Hash;
+
+import org.parg.azureus.plugins.networks.i2p.snarkdht.CompactNodeInfos;
+import org.parg.azureus.plugins.networks.i2p.snarkdht.NID;
+import org.parg.azureus.plugins.networks.i2p.snarkdht.NodeInfo;
+
+/**
+ * Development benchmark, not part of the plugin jar
+ */
+
+public class
+NIDKernelBenchmark
+{
+		/**
+		 * Closest-N selection over a large contact set, NodeInfo objects sorted by a comparator
+		 * versus CompactNodeInfos/NIDKernel over the compact buffer. Run with the plugin and I2P
+		 * jars on the classpath, args are [contacts] [n] [iterations]. Allocation figures rely on
+		 * the HotSpot thread MXBean.
+		 */
+
+	public static void
+	main(
+		String[]		args )
+	{
+		try{
+			int	contacts	= args.length>0?Integer.parseInt( args[0] ):100000;
+			int	n			= args.length>1?Integer.parseInt( args[1] ):8;
+			int	iterations	= args.length>2?Integer.parseInt( args[2] ):20;
+
+			int	port_offset	= NID.HASH_LENGTH + Hash.HASH_LENGTH;
+
+			Random	random = new Random( 0 );
+
+			byte[]	buffer = new byte[ contacts*NodeInfo.LENGTH ];
+
+			for ( int i=0;i<contacts;i++){
+
+				int	pos = i*NodeInfo.LENGTH;
+
+				byte[]	hash = new byte[Hash.HASH_LENGTH];
+
+				random.nextBytes( hash );
+
+				int	port = 1 + random.nextInt( 65533 );
+
+					// secure NID rules, see NodeInfo.generateNID
+
+				byte[]	nid = new byte[NID.HASH_LENGTH];
+
+				random.nextBytes( nid );
+
+				System.arraycopy( hash, 0, nid, 0, 6 );
+
+				nid[4] ^= (byte)( port >> 8 );
+				nid[5] ^= (byte)port;
+
+				System.arraycopy( nid, 0, buffer, pos, NID.HASH_LENGTH );
+				System.arraycopy( hash, 0, buffer, pos + NID.HASH_LENGTH, Hash.HASH_LENGTH );
+
+				buffer[pos+port_offset]		= (byte)( port >> 8 );
+				buffer[pos+port_offset+1]	= (byte)port;
+			}
+
+			byte[][]	targets = new byte[iterations][NID.HASH_LENGTH];
+
+			for ( byte[] target: targets ){
+
+				random.nextBytes( target );
+			}
+
+			for ( int pass=0;pass<2;pass++){
+
+					// first pass is warmup
+
+				boolean	report = pass == 1;
+
+				long	start_alloc	= getAllocatedBytes();
+				long	start		= System.nanoTime();
+
+				List<List<NodeInfo>>	old_results = new ArrayList<>( iterations );
+
+				for ( final byte[] target: targets ){
+
+					List<NodeInfo>	nodes = new ArrayList<>( contacts );
+
+					for ( int i=0;i<contacts;i++){
+
+						nodes.add( new NodeInfo( buffer, i*NodeInfo.LENGTH ));
+					}
+
+					Collections.sort(
+						nodes,
+						new Comparator<NodeInfo>()
+						{
+							@Override
+							public int
+							compare(
+								NodeInfo		n1,
+								NodeInfo		n2 )
+							{
+								byte[]	d1 = n1.getNID().getData();
+								byte[]	d2 = n2.getNID().getData();
+
+								for ( int i=0;i<d1.length;i++){
+
+									int	diff = (( d1[i] ^ target[i] )&0xff ) - (( d2[i] ^ target[i] )&0xff );
+
+									if ( diff != 0 ){
+
+										return( diff );
+									}
+								}
+
+								return( 0 );
+							}
+						});
+
+					old_results.add( new ArrayList<>( nodes.subList( 0, n )));
+				}
+
+				long	old_nanos	= System.nanoTime() - start;
+				long	old_alloc	= getAllocatedBytes() - start_alloc;
+
+				start_alloc	= getAllocatedBytes();
+				start		= System.nanoTime();
+
+				List<List<NodeInfo>>	new_results = new ArrayList<>( iterations );
+
+				for ( byte[] target: targets ){
+
+					CompactNodeInfos	infos = new CompactNodeInfos( buffer );
+
+					new_results.add( infos.getClosestNodeInfos( target, n ));
+				}
+
+				long	new_nanos	= System.nanoTime() - start;
+				long	new_alloc	= getAllocatedBytes() - start_alloc;
+
+				if ( !old_results.equals( new_results )){
+
+					System.out.println( "Result mismatch" );
+				}
+
+				if ( report ){
+
+					System.out.println( "Closest " + n + " of " + contacts );
+					System.out.println( "NodeInfo sort: " + ( old_nanos/iterations/1000 ) + "us/op, " + ( old_alloc/iterations ) + " bytes/op" );
+					System.out.println( "NID kernel:    " + ( new_nanos/iterations/1000 ) + "us/op, " + ( new_alloc/iterations ) + " bytes/op" );
+				}
+			}
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+		}
+	}
+
+	private static long
+	getAllocatedBytes()
+	{
+		try{
+			return(((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes( Thread.currentThread().getId()));
+
+		}catch( Throwable e ){
+
+			return( 0 );
+		}
+	}
+}
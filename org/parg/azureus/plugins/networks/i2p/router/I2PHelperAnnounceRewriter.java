@@ -0,0 +1,764 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.router;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.biglybt.core.util.Constants;
+
+/**
+ * Rewrites the HTTP request at the start of a SOCKS stream going out over I2P. Tracker announces
+ * have their query replaced with the I2P form (our destination as the ip, fixed port, compact),
+ * the Host header is switched to the peer's b32 address, the Referer is dropped and the
+ * User-Agent replaced.
+ *
+ * Data is fed in as read from the local socket. Bytes are scanned once as they arrive: the
+ * method is recognised from the first few so non-HTTP streams are passed straight through,
+ * and line ends are noted on the way to the end of the headers. Headers split over several
+ * reads are held until complete; when they arrive in one read they are rewritten in place
+ * from the read buffer. Everything after the headers is passed through unchanged.
+ *
+ * Not thread safe, the relay feeds one buffer at a time.
+ */
+
+class
+I2PHelperAnnounceRewriter
+{
+	private static final int	MAX_HEADER_SIZE		= 16*1024;
+
+	private static final byte[][]	METHODS = {
+		ascii( "GET " ), ascii( "HEAD " ), ascii( "POST " )
+	};
+
+	private static final byte[]		HTTP	= ascii( "HTTP" );
+	private static final byte[]		CRLF	= ascii( "\r\n" );
+
+	private static final byte[]		HDR_REFERER		= ascii( "referer" );
+	private static final byte[]		HDR_HOST		= ascii( "host" );
+	private static final byte[]		HDR_USER_AGENT	= ascii( "user-agent" );
+
+	private static final byte[]		HOST_HEADER			= ascii( "Host: " );
+	private static final byte[]		USER_AGENT_HEADER	= ascii( "User-Agent: " + Constants.APP_NAME );
+
+	private static final int	P_INFO_HASH		= 0;
+	private static final int	P_PEER_ID		= 1;
+	private static final int	P_UPLOADED		= 2;
+	private static final int	P_DOWNLOADED	= 3;
+	private static final int	P_LEFT			= 4;
+	private static final int	P_EVENT			= 5;
+	private static final int	P_NUMWANT		= 6;
+
+	private static final byte[][]	PARAMS = {
+		ascii( "info_hash" ), ascii( "peer_id" ), ascii( "uploaded" ), ascii( "downloaded" ),
+		ascii( "left" ), ascii( "event" ), ascii( "numwant" )
+	};
+
+	private static final byte[]		PORT_PARAM		= ascii( "&port=6881" );
+	private static final byte[]		IP_PARAM		= ascii( "&ip=" );
+	private static final byte[]		IP_SUFFIX		= ascii( ".i2p" );
+	private static final byte[]		COMPACT_PARAM	= ascii( "&compact=1" );
+
+	private static final int	ST_METHOD	= 0;
+	private static final int	ST_HEADERS	= 1;
+	private static final int	ST_DONE		= 2;
+
+	private static final int	SCAN_MORE		= -1;
+	private static final int	SCAN_NOT_HTTP	= -2;
+
+	private final Adapter		adapter;
+
+	private int			state	= ST_METHOD;
+
+	private int			method_mask	= ( 1 << METHODS.length ) - 1;
+
+		// number of bytes of \r\n\r\n matched so far
+
+	private int			crlf_match;
+
+		// header bytes carried over from earlier reads
+
+	private byte[]		header;
+	private int			header_len;
+
+		// offsets of the \r ending each line, relative to the start of the request
+
+	private int[]		line_ends	= new int[16];
+	private int			num_lines;
+
+	private byte[]		out;
+	private int			out_len;
+
+	I2PHelperAnnounceRewriter(
+		Adapter		_adapter )
+	{
+		adapter	= _adapter;
+	}
+
+		/**
+		 * Passes the data on to the stream, rewritten if it completes the request headers
+		 * @return false once the headers have been dealt with and data can be written directly
+		 */
+
+	boolean
+	write(
+		byte[]			data,
+		int				offset,
+		int				len,
+		OutputStream	os )
+
+		throws IOException
+	{
+		if ( state == ST_DONE ){
+
+			os.write( data, offset, len );
+
+			return( false );
+		}
+
+		int	end = scan( data, offset, len );
+
+		if ( end == SCAN_MORE ){
+
+			if ( header_len + len <= MAX_HEADER_SIZE ){
+
+				append( data, offset, len );
+
+				return( true );
+			}
+
+				// not something we're interested in, let it through as is
+
+			end = SCAN_NOT_HTTP;
+		}
+
+		if ( end == SCAN_NOT_HTTP ){
+
+			if ( header_len > 0 ){
+
+				os.write( header, 0, header_len );
+			}
+
+			os.write( data, offset, len );
+
+		}else{
+
+			if ( header_len == 0 ){
+
+				rewrite( data, offset, end - offset, os );
+
+			}else{
+
+				append( data, offset, end - offset );
+
+				rewrite( header, 0, header_len, os );
+			}
+
+			int	rem = offset + len - end;
+
+			if ( rem > 0 ){
+
+				os.write( data, end, rem );
+			}
+		}
+
+		state		= ST_DONE;
+
+		header		= null;
+		line_ends	= null;
+		out			= null;
+
+		return( false );
+	}
+
+		/**
+		 * Single pass over the new bytes, continuing the method and header end matching from
+		 * the previous read
+		 * @return index into data just past the end of the headers, or SCAN_MORE/SCAN_NOT_HTTP
+		 */
+
+	private int
+	scan(
+		byte[]		data,
+		int			offset,
+		int			len )
+	{
+		int	base	= header_len - offset;
+		int	end		= offset + len;
+
+		for ( int i=offset;i<end;i++){
+
+			byte	b = data[i];
+
+			int		pos	= base + i;
+
+			if ( state == ST_METHOD ){
+
+				byte	ub = b>='a'&&b<='z'?(byte)( b - 32 ):b;
+
+				for ( int m=0;m<METHODS.length;m++){
+
+					if (( method_mask & ( 1 << m )) != 0 ){
+
+						byte[]	method = METHODS[m];
+
+						if ( method[pos] != ub ){
+
+							method_mask &= ~( 1 << m );
+
+						}else if ( pos == method.length - 1 ){
+
+							state = ST_HEADERS;
+						}
+					}
+				}
+
+				if ( method_mask == 0 ){
+
+					return( SCAN_NOT_HTTP );
+				}
+			}
+
+			if ( b == '\r' ){
+
+				crlf_match = crlf_match==2?3:1;
+
+			}else if ( b == '\n' ){
+
+				if ( crlf_match == 1 ){
+
+					if ( num_lines == line_ends.length ){
+
+						line_ends = Arrays.copyOf( line_ends, num_lines*2 );
+					}
+
+					line_ends[num_lines++] = pos - 1;
+
+					crlf_match = 2;
+
+				}else if ( crlf_match == 3 ){
+
+					return( i + 1 );
+
+				}else{
+
+					crlf_match = 0;
+				}
+			}else{
+
+				crlf_match = 0;
+			}
+		}
+
+		return( SCAN_MORE );
+	}
+
+	private void
+	append(
+		byte[]		data,
+		int			offset,
+		int			len )
+	{
+		if ( header == null ){
+
+			header = new byte[ Math.min( MAX_HEADER_SIZE, Math.max( 1024, len*2 ))];
+
+		}else if ( header_len + len > header.length ){
+
+			header = Arrays.copyOf( header, Math.min( MAX_HEADER_SIZE, Math.max( header_len + len, header.length*2 )));
+		}
+
+		System.arraycopy( data, offset, header, header_len, len );
+
+		header_len += len;
+	}
+
+	private void
+	rewrite(
+		byte[]			buf,
+		int				base,
+		int				len,
+		OutputStream	os )
+
+		throws IOException
+	{
+		int	line_end = line_ends[0];
+
+		int	pos1 = indexOf( buf, base, 0, line_end, (byte)' ' );
+		int	pos2 = lastIndexOf( buf, base, 0, line_end, (byte)' ' );
+
+		if ( 	pos2 <= pos1 ||
+				!startsWithIgnoreCase( buf, base + pos2 + 1, base + line_end, HTTP )){
+
+			os.write( buf, base, len );
+
+			return;
+		}
+
+		out		= new byte[ len + 1024 ];
+		out_len	= 0;
+
+		if ( !rewriteAnnounce( buf, base, pos1, pos2, line_end )){
+
+			put( buf, base, line_end );
+		}
+
+		put( CRLF );
+
+		for ( int i=1;i<num_lines;i++){
+
+			int	start	= line_ends[i-1] + 2;
+			int	end		= line_ends[i];
+
+			int	colon = indexOf( buf, base, start, end, (byte)':' );
+
+			if ( colon == -1 ){
+
+				put( buf, base + start, end - start );
+
+			}else if ( equalsIgnoreCase( buf, base + start, base + colon, HDR_REFERER )){
+
+				continue;
+
+			}else if ( equalsIgnoreCase( buf, base + start, base + colon, HDR_HOST )){
+
+				put( HOST_HEADER );
+
+				put( adapter.getPeerHost());
+
+					// keep any port from the original
+
+				int	port_sep = indexOf( buf, base, colon + 1, end, (byte)':' );
+
+				if ( port_sep != -1 ){
+
+					int	port = 0;
+
+					for ( int j=port_sep+1;j<end;j++){
+
+						int	digit = buf[base+j] - '0';
+
+						if ( digit < 0 || digit > 9 ){
+
+							break;
+						}
+
+						port = port*10 + digit;
+					}
+
+					if ( port > 0 ){
+
+						put( ":" + port );
+					}
+				}
+			}else if ( equalsIgnoreCase( buf, base + start, base + colon, HDR_USER_AGENT )){
+
+				put( USER_AGENT_HEADER );
+
+			}else{
+
+				put( buf, base + start, end - start );
+			}
+
+			put( CRLF );
+		}
+
+		put( CRLF );
+
+		os.write( out, 0, out_len );
+	}
+
+		/**
+		 * Writes the announce form of the request line if the query has the announce parameters
+		 * @return false if it isn't an announce
+		 */
+
+	private boolean
+	rewriteAnnounce(
+		byte[]		buf,
+		int			base,
+		int			pos1,
+		int			pos2,
+		int			line_end )
+
+		throws IOException
+	{
+		int	query = indexOf( buf, base, pos1 + 1, pos2, (byte)'?' );
+
+		if ( query == -1 ){
+
+			return( false );
+		}
+
+			// value start and end per known parameter, later occurrences win
+
+		int[]	values = new int[ PARAMS.length*2 ];
+
+		Arrays.fill( values, -1 );
+
+		int	start = query + 1;
+
+		while( start < pos2 ){
+
+			int	end = indexOf( buf, base, start, pos2, (byte)'&' );
+
+			if ( end == -1 ){
+
+				end = pos2;
+			}
+
+			int	eq = indexOf( buf, base, start, end, (byte)'=' );
+
+			if ( eq != -1 ){
+
+				for ( int p=0;p<PARAMS.length;p++){
+
+					if ( equals( buf, base + start, base + eq, PARAMS[p] )){
+
+						values[p*2]		= eq + 1;
+						values[p*2+1]	= end;
+
+						break;
+					}
+				}
+			}
+
+			start = end + 1;
+		}
+
+		if ( 	values[P_INFO_HASH*2] == -1 ||
+				values[P_PEER_ID*2] == -1 ||
+				values[P_UPLOADED*2] == -1 ){
+
+			return( false );
+		}
+
+		byte[]	my_dest;
+
+		try{
+			my_dest = adapter.getMyDestinationBase64();
+
+		}catch( Throwable e ){
+
+			throw( new IOException( "Local destination unavailable", e ));
+		}
+
+		put( buf, base, query + 1 );
+
+		putParam( buf, base, values, P_INFO_HASH, false );
+		putParam( buf, base, values, P_PEER_ID, true );
+
+		put( PORT_PARAM );
+		put( IP_PARAM );
+		put( my_dest );
+		put( IP_SUFFIX );
+
+		putParam( buf, base, values, P_UPLOADED, true );
+		putParam( buf, base, values, P_DOWNLOADED, true );
+		putParam( buf, base, values, P_LEFT, true );
+
+		put( COMPACT_PARAM );
+
+		putParam( buf, base, values, P_EVENT, true );
+		putParam( buf, base, values, P_NUMWANT, true );
+
+			// lastly patch in any existing url params
+
+		byte[]	hash = decodeHash( buf, base + values[P_INFO_HASH*2], base + values[P_INFO_HASH*2+1] );
+
+		if ( hash != null ){
+
+			String	extra = adapter.getAnnounceURLQuery( hash );
+
+			if ( extra != null && extra.length() > 0 ){
+
+				put( "&" );
+				put( extra );
+			}
+		}
+
+		put( buf, base + pos2, line_end - pos2 );
+
+		return( true );
+	}
+
+	private void
+	putParam(
+		byte[]		buf,
+		int			base,
+		int[]		values,
+		int			param,
+		boolean		separator )
+	{
+		int	start = values[param*2];
+
+		if ( start == -1 ){
+
+			return;
+		}
+
+		if ( separator ){
+
+			put( "&" );
+		}
+
+		put( PARAMS[param] );
+		put( "=" );
+		put( buf, base + start, values[param*2+1] - start );
+	}
+
+		/**
+		 * URL decoding of the info_hash value as ISO-8859-1 bytes
+		 * @return null if it isn't validly encoded
+		 */
+
+	private static byte[]
+	decodeHash(
+		byte[]		buf,
+		int			start,
+		int			end )
+	{
+		byte[]	result = new byte[ end - start ];
+
+		int	len = 0;
+
+		for ( int i=start;i<end;i++){
+
+			byte	b = buf[i];
+
+			if ( b == '%' ){
+
+				if ( i + 2 >= end ){
+
+					return( null );
+				}
+
+				int	hi = Character.digit( buf[i+1], 16 );
+				int	lo = Character.digit( buf[i+2], 16 );
+
+				if ( hi == -1 || lo == -1 ){
+
+					return( null );
+				}
+
+				result[len++] = (byte)(( hi << 4 ) | lo );
+
+				i += 2;
+
+			}else if ( b == '+' ){
+
+				result[len++] = ' ';
+
+			}else{
+
+				result[len++] = b;
+			}
+		}
+
+		return( len==result.length?result:Arrays.copyOf( result, len ));
+	}
+
+	private void
+	put(
+		byte[]		bytes )
+	{
+		put( bytes, 0, bytes.length );
+	}
+
+	private void
+	put(
+		byte[]		bytes,
+		int			offset,
+		int			len )
+	{
+		ensureSpace( len );
+
+		System.arraycopy( bytes, offset, out, out_len, len );
+
+		out_len += len;
+	}
+
+		/**
+		 * ISO-8859-1 without going through an encoder
+		 */
+
+	private void
+	put(
+		String		str )
+	{
+		int	len = str.length();
+
+		ensureSpace( len );
+
+		for ( int i=0;i<len;i++){
+
+			out[out_len++] = (byte)str.charAt( i );
+		}
+	}
+
+	private void
+	ensureSpace(
+		int		len )
+	{
+		if ( out_len + len > out.length ){
+
+			out = Arrays.copyOf( out, Math.max( out_len + len, out.length*2 ));
+		}
+	}
+
+	private static int
+	indexOf(
+		byte[]		buf,
+		int			base,
+		int			from,
+		int			to,
+		byte		b )
+	{
+		for ( int i=from;i<to;i++){
+
+			if ( buf[base+i] == b ){
+
+				return( i );
+			}
+		}
+
+		return( -1 );
+	}
+
+	private static int
+	lastIndexOf(
+		byte[]		buf,
+		int			base,
+		int			from,
+		int			to,
+		byte		b )
+	{
+		for ( int i=to-1;i>=from;i--){
+
+			if ( buf[base+i] == b ){
+
+				return( i );
+			}
+		}
+
+		return( -1 );
+	}
+
+	private static boolean
+	equals(
+		byte[]		buf,
+		int			start,
+		int			end,
+		byte[]		str )
+	{
+		if ( end - start != str.length ){
+
+			return( false );
+		}
+
+		for ( int i=0;i<str.length;i++){
+
+			if ( buf[start+i] != str[i] ){
+
+				return( false );
+			}
+		}
+
+		return( true );
+	}
+
+		/**
+		 * @param lower	lower case ASCII
+		 */
+
+	private static boolean
+	equalsIgnoreCase(
+		byte[]		buf,
+		int			start,
+		int			end,
+		byte[]		lower )
+	{
+		while( end > start && buf[end-1] == ' ' ){
+
+			end--;
+		}
+
+		return( end - start == lower.length && startsWithIgnoreCase( buf, start, end, lower ));
+	}
+
+	private static boolean
+	startsWithIgnoreCase(
+		byte[]		buf,
+		int			start,
+		int			end,
+		byte[]		str )
+	{
+		if ( end - start < str.length ){
+
+			return( false );
+		}
+
+		for ( int i=0;i<str.length;i++){
+
+				// only used with letters and '-', case folding by bit 0x20 is safe for those
+
+			if (( buf[start+i] | 0x20 ) != ( str[i] | 0x20 )){
+
+				return( false );
+			}
+		}
+
+		return( true );
+	}
+
+	private static byte[]
+	ascii(
+		String		str )
+	{
+		return( str.getBytes( StandardCharsets.US_ASCII ));
+	}
+
+	interface
+	Adapter
+	{
+		public byte[]
+		getMyDestinationBase64()
+
+			throws Exception;
+
+			/**
+			 * @return the b32 host name of the far end of the stream
+			 */
+
+		public String
+		getPeerHost()
+
+			throws IOException;
+
+			/**
+			 * @return query from the torrent's own announce URL for this tracker, if any
+			 */
+
+		public String
+		getAnnounceURLQuery(
+			byte[]		info_hash );
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.router;
+
+import net.i2p.data.Destination;
+
+/**
+ * Receives datagrams dispatched by I2PSMHolder. Calls are made from the holder's worker
+ * threads, not the session's reader, so may be concurrent. Datagrams from the same source
+ * are delivered in order.
+ */
+
+public interface
+I2PHelperDatagramListener
+{
+		/**
+		 * @param from			verified sender for repliable datagrams, null for raw
+		 * @param raw_length	size of the datagram as received, before any signature was removed
+		 * @param payload		the payload with any signature removed
+		 */
+
+	public void
+	datagramReceived(
+		Destination		from,
+		int				from_port,
+		int				to_port,
+		int				raw_length,
+		byte[]			payload );
+}
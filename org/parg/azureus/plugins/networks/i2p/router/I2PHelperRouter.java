@@ -199,6 +199,8 @@ I2PHelperRouter
 	private final I2PHelperRouterDHT[]			dhts;
 	private final I2PHelperRouterDHT[]			dhts_secondaries;
 	
+	private final boolean[]						socks_init_pending;		// sync on self
+	
 	private Map<String,ServerInstance>		servers = new HashMap<String, ServerInstance>();
 	
 	private AESemaphore			init_sem	= new AESemaphore( "I2PRouterInit" );
@@ -226,6 +228,7 @@ I2PHelperRouter
 		
 		dhts 				= new I2PHelperRouterDHT[_dht_count ];
 		dhts_secondaries 	= new I2PHelperRouterDHT[_dht_count ];
+		socks_init_pending	= new boolean[_dht_count ];
 
 		for ( int i=0;i<dhts.length;i++){
 		
@@ -976,22 +979,85 @@ I2PHelperRouter
 		return( dhts[index] );
 	}
 	
+	private I2PHelperRouterDHT
+	getDHTForSocks(
+		Map<String,Object>		options )
+	{
+		int index = selectDHTIndex( options==null?null:(String[])options.get( "peer_networks" ));
+		
+		I2PHelperRouterDHT secondary = dhts_secondaries[ index ];
+		
+		return( secondary==null?dhts[index]:secondary );
+	}
+	
+		/**
+		 * Doesn't block or trigger initialisation
+		 * @return null if not (yet) available
+		 */
+	
 	protected I2PSMHolder
 	getSocketManagerForSocks(
 		Map<String,Object>		options )
 	{
-		I2PHelperRouterDHT dht =  selectDHT( options );
-		
-		int index = dht.getDHTIndex();
+		return( getDHTForSocks( options ).getSocksSocketManager());
+	}
+	
+		/**
+		 * Runs the listener once the socket manager for these options is available or has failed to
+		 * initialise, starting initialisation if required. The listener may run immediately on the
+		 * caller's thread.
+		 */
+	
+	protected void
+	addSocketManagerForSocksListener(
+		Map<String,Object>		options,
+		Runnable				listener )
+	{
+		I2PHelperRouterDHT dht = getDHTForSocks( options );
 		
-		I2PHelperRouterDHT secondary = dhts_secondaries[ index ];
+		if ( !dht.isEnabled()){
+			
+			listener.run();
+			
+			return;
+		}
 		
-		if ( secondary != null ){
+		if ( !dht.isDHTStarted()){
 			
-			dht = secondary;
+				// initialisation blocks until the socket manager is up, only have one thread
+				// doing it per DHT however many requests arrive meanwhile
+			
+			int index = dht.getDHTIndex();
+			
+			boolean	start;
+			
+			synchronized( socks_init_pending ){
+				
+				start = !socks_init_pending[index];
+				
+				socks_init_pending[index] = true;
+			}
+			
+			if ( start ){
+				
+				AEThread2.createAndStartDaemon(
+					"I2PHelperRouter:initDHT",
+					()->{
+						try{
+							initialiseDHT( index );
+							
+						}finally{
+							
+							synchronized( socks_init_pending ){
+								
+								socks_init_pending[index] = false;
+							}
+						}
+					});
+			}
 		}
 		
-		return( dht.getSocksSocketManager());
+		dht.addSocketManagerListener( listener );
 	}
 	
 	public I2PHelperRouterDHT
@@ -1058,27 +1124,41 @@ I2PHelperRouter
 		}
 		*/
 		
-		if ( dhts.length < 2 ){
+		int index = selectDHTIndex( peer_networks );
+		
+		if ( index == DHT_MIX ){
 			
 			return( dhts[DHT_MIX] );
 		}
+				
+		I2PHelperRouterDHT dht = initialiseDHT( index );
+			
+		return( dht );
+	}
+	
+	private int
+	selectDHTIndex(
+		String[]		peer_networks )
+	{
+		if ( dhts.length < 2 ){
+			
+			return( DHT_MIX );
+		}
 		
 		if ( peer_networks == null || peer_networks.length == 0 ){
 			
-			return( dhts[DHT_MIX] );
+			return( DHT_MIX );
 		}
 		
 		for ( String net: peer_networks ){
 			
 			if ( net == AENetworkClassifier.AT_PUBLIC ){
 				
-				return( dhts[DHT_MIX] );
+				return( DHT_MIX );
 			}
 		}
-				
-		I2PHelperRouterDHT dht = initialiseDHT( DHT_NON_MIX );
-			
-		return( dht );
+		
+		return( DHT_NON_MIX );
 	}
 	
 	public I2PHelperRouterDHT
@@ -1119,6 +1199,53 @@ I2PHelperRouter
 		return( dhts );
 	}
 	
+		/**
+		 * One line per session manager: uptime, reconnects and probe round trip
+		 */
+	
+	public String
+	getSessionHealthText()
+	{
+		List<I2PSMHolder>	holders = new ArrayList<>();
+		
+		for ( I2PHelperRouterDHT[] list: new I2PHelperRouterDHT[][]{ dhts, dhts_secondaries }){
+			
+			for ( I2PHelperRouterDHT dht: list ){
+				
+				I2PSMHolder	holder = dht==null?null:dht.getSocksSocketManager();
+				
+				if ( holder != null ){
+					
+					holders.add( holder );
+				}
+			}
+		}
+		
+		synchronized( this ){
+			
+			for ( ServerInstance server: servers.values()){
+				
+				I2PSMHolder	holder = server.getSMHolder();
+				
+				if ( holder != null ){
+					
+					holders.add( holder );
+				}
+			}
+		}
+		
+		StringBuilder	sb = new StringBuilder( 256 );
+		
+		sb.append( "Sessions:" );
+		
+		for ( I2PSMHolder holder: holders ){
+			
+			sb.append( "\n    " ).append( holder.getHealthString());
+		}
+		
+		return( sb.toString());
+	}
+	
 	public Destination
 	lookupDestination(
 		byte[]		hash )
@@ -26,6 +26,8 @@ package org.parg.azureus.plugins.networks.i2p.router;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
 
@@ -75,6 +77,8 @@ I2PHelperRouterDHT
 
 	private AESemaphore			init_sem = new AESemaphore( "I2PHelperRouterDHT" );
 	
+	private final List<Runnable>	sm_listeners = new ArrayList<>();
+	
 	protected
 	I2PHelperRouterDHT(
 		I2PHelperRouter			_router,
@@ -363,6 +367,8 @@ I2PHelperRouterDHT
 					
 					log( "Socket manager startup complete - elapsed=" + (SystemTime.getMonotonousTime() - start ));
 					
+					fireSocketManagerListeners();
+					
 					Destination my_dest = sm_holder.getMyDestination();
 					
 					String	full_dest 	= my_dest.toBase64() + ".i2p";
@@ -523,6 +529,8 @@ I2PHelperRouterDHT
 		}finally{
 			
 			init_sem.releaseForever();
+			
+			fireSocketManagerListeners();
 		}
 		
 		if ( initialized ){
@@ -559,6 +567,52 @@ I2PHelperRouterDHT
 		return( sm_holder );
 	}
 	
+		/**
+		 * Runs the listener once the socket manager is available or initialisation has finished
+		 * without one, immediately if either has already happened
+		 */
+	
+	public void
+	addSocketManagerListener(
+		Runnable		listener )
+	{
+		synchronized( sm_listeners ){
+			
+			if ( sm_holder == null && !destroyed && !init_sem.isReleasedForever()){
+				
+				sm_listeners.add( listener );
+				
+				return;
+			}
+		}
+		
+		listener.run();
+	}
+	
+	private void
+	fireSocketManagerListeners()
+	{
+		List<Runnable>	to_fire;
+		
+		synchronized( sm_listeners ){
+			
+			to_fire = new ArrayList<>( sm_listeners );
+			
+			sm_listeners.clear();
+		}
+		
+		for ( Runnable l: to_fire ){
+			
+			try{
+				l.run();
+				
+			}catch( Throwable e ){
+				
+				Debug.out( e );
+			}
+		}
+	}
+	
 		/**
 		 * May return null
 		 * @return
@@ -777,5 +831,7 @@ I2PHelperRouterDHT
 				init_sem.releaseForever();
 			}
 		}
+		
+		fireSocketManagerListeners();
 	}
 }
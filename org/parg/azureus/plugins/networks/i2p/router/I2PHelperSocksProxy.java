@@ -31,11 +31,9 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.net.URLDecoder;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
@@ -52,6 +50,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.i2p.client.I2PSession;
 import net.i2p.client.I2PSessionMuxedListener;
@@ -74,13 +74,14 @@ import com.biglybt.core.util.Debug;
 import com.biglybt.core.util.SimpleTimer;
 import com.biglybt.core.util.SystemTime;
 import com.biglybt.core.util.ThreadPool;
-import com.biglybt.net.udp.uc.PRUDPPacket;
-import com.biglybt.net.udp.uc.PRUDPPacketReply;
+import com.biglybt.core.util.TimerEvent;
 import com.biglybt.pif.PluginInterface;
 import com.biglybt.pif.download.Download;
 import com.biglybt.pif.torrent.Torrent;
 import com.biglybt.pif.torrent.TorrentAnnounceURLListSet;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperAdapter;
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperBufferPool;
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperIntTable;
 
 import com.biglybt.core.proxy.AEProxyConnection;
 import com.biglybt.core.proxy.AEProxyException;
@@ -107,6 +108,13 @@ I2PHelperSocksProxy
 	
 	private ThreadPool<AERunnable>	connect_pool = new ThreadPool<>( "I2PHelperSocksProxyConnect", 32 );
 
+		// connect threads are only taken once the socket manager is ready, requests arriving
+		// before then wait on the router's readiness callback instead
+	
+	private static final int		SM_WAIT_TIMEOUT	= 60*1000;
+	
+	private final I2PHelperSocksStreamPool	stream_pool = new I2PHelperSocksStreamPool( connect_pool );
+
 	{
 		try{
 			local_address = InetAddress.getByName( "127.0.0.1" );
@@ -176,6 +184,17 @@ I2PHelperSocksProxy
 		return( proxy.getPort());
 	}
 	
+		/**
+		 * Keep spare streams open to frequently used destinations
+		 */
+	
+	public void
+	setPrewarmStreams(
+		boolean		b )
+	{
+		stream_pool.setEnabled( b && !destroyed );
+	}
+	
 	public String
 	getIntermediateHost(
 		String					host,
@@ -305,31 +324,88 @@ I2PHelperSocksProxy
 	
 		throws Exception
 	{
-		long	start = SystemTime.getMonotonousTime();
+		if ( destroyed ){
+			
+			throw( new Exception( "SOCKS proxy destroyed" ));
+		}
 		
-		while( SystemTime.getMonotonousTime() - start < 60*1000 ){
+		I2PSMHolder sm = router.getSocketManagerForSocks( options );
+		
+		if ( sm == null ){
 			
-			if ( destroyed ){
-				
-				throw( new Exception( "SOCKS proxy destroyed" ));
-			}
+			throw( new Exception( "Timeout waiting for socket manager" ));
+		}
+		
+		return( sm );
+	}
+	
+		/**
+		 * Runs the task on the connect pool once the socket manager for the options is ready, or
+		 * has failed or not appeared within SM_WAIT_TIMEOUT in which case getSocketManager will
+		 * throw
+		 */
+	
+	private void
+	runWhenSocketManagerReady(
+		Map<String,Object>		options,
+		AERunnable				task )
+	{
+		AtomicBoolean					dispatched	= new AtomicBoolean();
+		AtomicReference<TimerEvent>		timeout		= new AtomicReference<>();
+		
+		Runnable dispatcher = 
+			()->{
+				if ( dispatched.compareAndSet( false, true )){
+					
+					TimerEvent event = timeout.get();
+					
+					if ( event != null ){
+						
+						event.cancel();
+					}
+					
+					connect_pool.run( task );
+				}
+			};
 			
-			I2PSMHolder sm = router.getSocketManagerForSocks( options );
+		if ( destroyed || router.getSocketManagerForSocks( options ) != null ){
 			
-			if ( sm != null ){
-				
-				return( sm );
-			}
+			dispatcher.run();
 			
-			try{
-				Thread.sleep(1000);
-				
-			}catch( Throwable e ){
-				
-			}
+			return;
 		}
 		
-		throw( new Exception( "Timeout waiting for socket manager" ));
+		timeout.set( 
+			SimpleTimer.addEvent(
+				"I2PHelperSocksProxy:smwait",
+				SystemTime.getOffsetTime( SM_WAIT_TIMEOUT ),
+				(ev)->{
+					dispatcher.run();
+				}));
+		
+		router.addSocketManagerForSocksListener( options, dispatcher );
+	}
+	
+	static I2PSocketOptions
+	buildStreamOptions(
+		I2PSMHolder		sm_holder,
+		int				port )
+	
+		throws Exception
+	{
+		Properties overrides = new Properties();
+		
+		overrides.setProperty( "i2p.streaming.connectDelay", "250" );
+		
+        I2PSocketOptions socket_opts = sm_holder.buildOptions( overrides );
+        
+        socket_opts.setPort( port );
+        
+        socket_opts.setConnectTimeout( 120*1000 );
+        socket_opts.setReadTimeout( 120*1000 );
+        socket_opts.setWriteTimeout( 120*1000 );
+        
+        return( socket_opts );
 	}
 	
 	private I2PSocket
@@ -352,29 +428,28 @@ I2PHelperSocksProxy
 				throw( new Exception( "Session is closed" ));
 			}
 			
-			Destination remote_dest = sm_holder.lookupAddress( address, adapter );
+			I2PSocket socket = stream_pool.take( address, port, sm_holder );
 			
-			if ( remote_dest.getHash().equals( sm_holder.getMyDestination().getHash())){
+			if ( socket == null ){
 				
-				logit = false;
+				Destination remote_dest = sm_holder.lookupAddress( address, adapter );
 				
-				throw( new Exception( "Attempting to connect to ourselves" ));
+				if ( remote_dest.getHash().equals( sm_holder.getMyDestination().getHash())){
+					
+					logit = false;
+					
+					throw( new Exception( "Attempting to connect to ourselves" ));
+				}
+				
+				socket = sm_holder.connect( remote_dest, buildStreamOptions( sm_holder, port ));
+				
+				stream_pool.used( address, port, sm_holder, remote_dest );
+				
+			}else{
+				
+				stream_pool.used( address, port, sm_holder, socket.getPeerDestination());
 			}
 			
-			Properties overrides = new Properties();
-			
-			overrides.setProperty( "i2p.streaming.connectDelay", "250" );
-			
-            I2PSocketOptions socket_opts = sm_holder.buildOptions( overrides );
-            
-            socket_opts.setPort( port );
-            
-            socket_opts.setConnectTimeout( 120*1000 );
-            socket_opts.setReadTimeout( 120*1000 );
-            socket_opts.setWriteTimeout( 120*1000 );
-            
-			I2PSocket socket = sm_holder.connect( remote_dest, socket_opts );
-						
 			adapter.outgoingConnection( socket );
 			
 			return( socket );
@@ -453,6 +528,8 @@ I2PHelperSocksProxy
 			}
 		}
 		
+		stream_pool.destroy();
+		
 		for ( SOCKSProxyConnection c: to_close ){
 			
 			try{
@@ -478,14 +555,11 @@ I2PHelperSocksProxy
 	SMHolderWrapper
 		implements I2PSessionMuxedListener
 	{
-			// fake address to ensure packet deserialisation treated as I2P address format
-		
-		private static final InetSocketAddress FAKE_I2P_ADDRESS = InetSocketAddress.createUnresolved( "fake.biglybt.tracker.i2p", 6969 );
+		private static final long	TRANSACTION_TIMEOUT	= 2*60*1000;
 		
 		private I2PSMHolder		sm_holder;
 		
-		private Map<Integer,Object[]>	transactions 	= new HashMap<>();
-		private long					last_tidy		= SystemTime.getMonotonousTime();
+		private final I2PHelperIntTable<MessageReceiver>	transactions = new I2PHelperIntTable<>();
 		
 		private 
 		SMHolderWrapper(
@@ -501,41 +575,21 @@ I2PHelperSocksProxy
 			int					transaction_id,
 			MessageReceiver		receiver )
 		{
-			synchronized( transactions ){
-				
-				if ( transactions.containsKey(transaction_id)){
-					
-					return( false );
-					
-				}else{
-					
-					transactions.put( transaction_id, new Object[]{ SystemTime.getMonotonousTime(), receiver });
-				}
-			}
-			
-			tidy();
-			
-			return( true );
+			return( transactions.putIfAbsent( transaction_id, receiver, SystemTime.getMonotonousTime() + TRANSACTION_TIMEOUT ));
 		}
 			
 		boolean
 		hasTransaction(
 			int		transaction_id )
 		{
-			synchronized( transactions ){
-				
-				return( transactions.containsKey( transaction_id ));
-			}
+			return( transactions.containsKey( transaction_id ));
 		}
 		
 		void
 		removeTransaction(
 			int		transaction_id )
 		{
-			synchronized( transactions ){
-				
-				transactions.remove( transaction_id );
-			}
+			transactions.remove( transaction_id );
 		}
 		
 		boolean
@@ -557,56 +611,25 @@ I2PHelperSocksProxy
 			try{	
 				byte[] payload = session.receiveMessage(msgId);
 	        
-				if ( payload != null ){
-					
-					DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
-					
-					PRUDPPacket reply_packet  = 
-							PRUDPPacketReply.deserialiseReply(null, FAKE_I2P_ADDRESS, dis );
+					// replies start with the action and transaction id, the rest is left to the
+					// client as it deserialises the reply anyway
+				
+				if ( payload != null && payload.length >= 8 ){
 					
-					int transaction_id = reply_packet.getTransactionId();
-
-					Object[] entry;
+					int transaction_id = 
+						(( payload[4]&0xff ) << 24 ) | (( payload[5]&0xff ) << 16 ) |
+						(( payload[6]&0xff ) << 8 )  |  ( payload[7]&0xff );
 					
-					synchronized( transactions ){
-						
-						entry = transactions.remove( transaction_id );
-					}
+					MessageReceiver receiver = transactions.remove( transaction_id );
 					
-					if ( entry != null ){
+					if ( receiver != null ){
 						
-						((MessageReceiver)entry[1]).receiveMessage( transaction_id, payload );
+						receiver.receiveMessage( transaction_id, payload );
 					}
 				}
 			}catch( Throwable e ){
 				
 			}
-			
-			tidy();
-		}
-		
-		private void
-		tidy()
-		{
-			long now = SystemTime.getMonotonousTime();
-			
-			if ( now - last_tidy > 30*1000 ){
-				
-				last_tidy = now;
-				
-				synchronized( transactions ){
-					
-					Iterator<Object[]> it = transactions.values().iterator();
-					
-					while( it.hasNext()){
-						
-						if ( now - (Long)it.next()[0] > 2*60*1000 ){
-							
-							it.remove();
-						}
-					}
-				}
-			}
 		}
 		
 		@Override
@@ -953,7 +976,8 @@ I2PHelperSocksProxy
 			{
 				address	= _address;
 				
-				connect_pool.run(
+				runWhenSocketManagerReady(
+					options,
 					new AERunnable()
 					{
 						@Override
@@ -1396,7 +1420,8 @@ I2PHelperSocksProxy
 				String 					externalised_address,
 				AESocksProxyAddress		_address )
 			{
-				connect_pool.run(
+				runWhenSocketManagerReady(
+						options,
 						new AERunnable()
 						{
 							@Override
@@ -1458,6 +1483,75 @@ I2PHelperSocksProxy
 				}
 			}
 			
+				/**
+				 * @return the query part of the torrent's announce URL for the tracker being
+				 * connected to, as it needs to be passed on with the rewritten announce
+				 */
+			
+			private String
+			getAnnounceURLQuery(
+				byte[]		hash )
+			{
+				PluginInterface pi = adapter.getPluginInterface();
+						
+				if ( pi == null ){
+					
+					return( null );
+				}
+				
+				try{
+					Download dl = pi.getDownloadManager().getDownload( hash );
+					
+					Torrent t = dl==null?null:dl.getTorrent();
+					
+					if ( t == null ){
+						
+						return( null );
+					}
+					
+					List<URL>	urls = new ArrayList<URL>();
+				
+					urls.add( t.getAnnounceURL());
+				
+					for ( TorrentAnnounceURLListSet set: t.getAnnounceURLList().getSets()){
+						
+						urls.addAll( Arrays.asList(set.getURLs()));
+					}
+					
+					for ( URL u: urls ){
+						
+						if ( u == null ){
+							
+							continue;
+						}
+						
+						if ( u.getHost().equals( original_unresolved )){
+							
+							int	u_port = u.getPort();
+							
+							if ( u_port == -1 ){
+								
+								u_port = 80;
+							}
+							
+							if ( u_port == original_port || u_port == 80 && original_port == -1 ){
+								
+								String query = u.getQuery();
+								
+								if ( query != null && query.length() > 0 ){
+									
+									return( query );
+								}
+							}
+						}
+					}
+				}catch( Throwable e ){
+					
+				}
+				
+				return( null );
+			}
+			
 			@Override
 			public void
 			close()
@@ -1519,12 +1613,22 @@ I2PHelperSocksProxy
 				long					outward_bytes	= 0;
 				long					inward_bytes	= 0;
 					
-				byte[]		i2p_input_buffer = new byte[RELAY_BUFFER_SIZE];
+					// relay buffers are borrowed from the shared pool only while data is in flight
+				
+				I2PHelperBufferPool	buffer_pool = I2PHelperBufferPool.getSingleton();
+				
+				byte[]		i2p_input_buffer;		// backs target_buffer
 				boolean		i2p_read_active;
 				boolean		i2p_read_deferred;
 				
 				boolean 	i2p_read_dead;
+				
+				boolean		relay_closed;
 	
+					// dropped once the request headers, if any, have gone through
+				
+				volatile I2PHelperAnnounceRewriter	announce_rewriter;
+				
 				Object lock = new Object();
 				
 				protected
@@ -1537,9 +1641,47 @@ I2PHelperSocksProxy
 	
 					connection	= _connection;
 					
-					source_channel	= connection.getSourceChannel();
+					announce_rewriter = 
+						new I2PHelperAnnounceRewriter(
+							new I2PHelperAnnounceRewriter.Adapter()
+							{
+								@Override
+								public byte[]
+								getMyDestinationBase64()
+								
+									throws Exception
+								{
+									return( getSocketManager( options ).getMyDestinationBase64());
+								}
+								
+								@Override
+								public String
+								getPeerHost()
+								
+									throws IOException
+								{
+									I2PSocket s = socket;
+									
+									Destination peer_dest = s==null?null:s.getPeerDestination();
+									
+									if ( peer_dest == null ){
+										
+										throw( new IOException( "Socked closed" ));
+									}
+									
+									return( Base32.encode( peer_dest.calculateHash().getData()) + ".b32.i2p" );
+								}
+								
+								@Override
+								public String
+								getAnnounceURLQuery(
+									byte[]		info_hash )
+								{
+									return( TCPImpl.this.getAnnounceURLQuery( info_hash ));
+								}
+							});
 					
-					source_buffer	= ByteBuffer.allocate( RELAY_BUFFER_SIZE );
+					source_channel	= connection.getSourceChannel();
 					
 					input_stream 	= (MessageInputStream)socket.getInputStream();
 					output_stream 	= socket.getOutputStream();
@@ -1610,6 +1752,8 @@ I2PHelperSocksProxy
 							{	
 								boolean	went_async = false;
 	
+								byte[]	buffer = null;
+								
 								try{											
 									while( !connection.isClosed()){
 									
@@ -1618,7 +1762,12 @@ I2PHelperSocksProxy
 		
 											long	start = System.currentTimeMillis();
 											
-											int	len = input_stream.read( i2p_input_buffer );
+											if ( buffer == null ){
+												
+												buffer = buffer_pool.getArray( RELAY_BUFFER_SIZE );
+											}
+											
+											int	len = input_stream.read( buffer );
 											
 											if ( len == 0 ){
 												
@@ -1651,7 +1800,19 @@ I2PHelperSocksProxy
 											
 											// System.out.println( new String( buffer, 0, len ));
 											
-											target_buffer = ByteBuffer.wrap( i2p_input_buffer, 0, len );
+											synchronized( lock ){
+												
+												if ( relay_closed ){
+													
+													throw( new IOException( "Connection closed" ));
+												}
+												
+												i2p_input_buffer	= buffer;
+												
+												buffer	= null;
+											
+												target_buffer = ByteBuffer.wrap( i2p_input_buffer, 0, len );
+											}
 											
 											read();
 												
@@ -1711,6 +1872,11 @@ I2PHelperSocksProxy
 									}
 								}finally{
 								
+									if ( buffer != null ){
+										
+										buffer_pool.returnArray( buffer );
+									}
+									
 									synchronized( lock ){
 										
 										i2p_read_active = false;
@@ -1735,6 +1901,28 @@ I2PHelperSocksProxy
 				protected void
 				close()
 				{	
+					synchronized( lock ){
+						
+						if ( !relay_closed ){
+							
+							relay_closed = true;
+							
+								// may still be referenced by in-progress operations so don't recycle
+							
+							if ( i2p_input_buffer != null ){
+								
+								buffer_pool.discardArray( i2p_input_buffer );
+								
+								i2p_input_buffer = null;
+							}
+							
+							if ( source_buffer != null ){
+								
+								buffer_pool.discardArray( source_buffer.array());
+							}
+						}
+					}
+					
 					// System.out.println( "Relay end: " + socket.getPeerDestination());
 					
 					trace( "I2PCon: " + getStateName() + " close" );
@@ -1765,7 +1953,42 @@ I2PHelperSocksProxy
 						
 					}else{
 					
-						target_buffer	= null;
+						synchronized( lock ){
+							
+							target_buffer	= null;
+							
+							releaseInputBuffer();
+						}
+					}
+				}
+				
+				private void
+				releaseInputBuffer()
+				{
+						// lock held
+					
+					if ( i2p_input_buffer != null ){
+						
+						buffer_pool.returnArray( i2p_input_buffer );
+						
+						i2p_input_buffer = null;
+					}
+				}
+				
+				private void
+				releaseSourceBuffer()
+				{
+					synchronized( lock ){
+						
+						if ( source_buffer != null ){
+							
+							if ( !relay_closed ){
+								
+								buffer_pool.returnArray( source_buffer.array());
+							}
+							
+							source_buffer = null;
+						}
 					}
 				}
 				
@@ -1776,17 +1999,44 @@ I2PHelperSocksProxy
 				
 					throws IOException
 				{
-					if ( source_buffer.position() != 0 ){
+					synchronized( lock ){
+						
+						if ( relay_closed ){
+							
+							throw( new IOException( "Connection closed" ));
+						}
+						
+						if ( source_buffer == null ){
+							
+							source_buffer = ByteBuffer.wrap( buffer_pool.getArray( RELAY_BUFFER_SIZE ), 0, RELAY_BUFFER_SIZE );
+							
+						}else if ( source_buffer.position() != 0 ){
 						
-						Debug.out( "I2PluginConnection: source buffer position invalid" );
+							Debug.out( "I2PluginConnection: source buffer position invalid" );
+						}
 					}
 					
 						// data read from source
 					
 					connection.setTimeStamp();
 																	
-					final int	len = sc.read( source_buffer );
+					final int	len;
+					
+					try{
+						len = sc.read( source_buffer );
+						
+					}catch( IOException e ){
+						
+						releaseSourceBuffer();
+						
+						throw( e );
+					}
 			
+					if ( len <= 0 ){
+						
+						releaseSourceBuffer();
+					}
+					
 					if ( len == 0 ){
 						
 						return( false );
@@ -1850,285 +2100,24 @@ I2PHelperSocksProxy
 	
 												 */
 											
-												// gonna be lazy here and assume that if this is an HTTP request then the
-												// headers are present in the initial buffer read
+												// request headers are rewritten on the way through, see I2PHelperAnnounceRewriter
+											
+											byte[] 	array = source_buffer.array();
 											
-											byte[] 	array 			= source_buffer.array();
-											int		array_offset	= 0;
+											I2PHelperAnnounceRewriter rewriter = announce_rewriter;
 											
-											if ( outward_bytes == 0 ){
-																					
-												for ( int i=0;i<len-3;i++){
+											if ( rewriter != null ){
+											
+												if ( !rewriter.write( array, 0, len, output_stream )){
 													
-													if ( 	array[i] 	== '\r' &&
-															array[i+1]	== '\n' &&
-															array[i+2]	== '\r' &&
-															array[i+3]	== '\n' ){
-														
-														String str = new String( array, 0, i+2, "ISO8859-1" );
-	
-														if ( LOG_CONTENT ){
-															System.out.println( str );
-														}
-														
-														String[] lines = str.split( "\r\n" );
-														
-														boolean is_http = false;
-														
-														List<String>	headers = new ArrayList<String>();
-														
-														for ( int j=0;j<lines.length;j++){
-														
-															String line = lines[j].trim();
-															
-															if ( j == 0 ){
-																
-																int pos1 = line.indexOf(' ');
-																int pos2 = line.lastIndexOf( ' ' );
-																
-																if ( pos1 != -1 && pos2 != -1 ){
-																	
-																	String method = line.substring( 0,  pos1 ).toUpperCase(Locale.US);
-																	
-																	if ( method.equals( "GET" ) || method.equals( "HEAD" ) || method.equals( "POST")){
-																		
-																		String protocol = line.substring( pos2 + 1 ).toUpperCase( Locale.US );
-																		
-																		if ( protocol.startsWith( "HTTP" )){
-																			
-																			is_http = true;
-																		}
-																	}
-																}
-															
-																if ( !is_http ){
-																	
-																	break;
-																	
-																}else{
-																	
-																	String url_part = line.substring( pos1+1, pos2 ).trim();
-																	
-																	int	pos = url_part.indexOf( '?' );
-																	
-																	if ( pos != -1 ){
-																																			
-																		String[]	args = url_part.substring( pos+1 ).split( "&" );
-																		
-																		Map<String,String> arg_map = new HashMap<String,String>();
-																		
-																		for ( String arg: args ){
-																			
-																			String[] bits = arg.split( "=", 2 );
-																			
-																			if ( bits.length == 2 ){
-																				String 	lhs = bits[0];
-																				String	rhs = bits[1];
-																				
-																				arg_map.put( lhs, rhs );
-																			}
-																		}
-																		
-																		if ( 	arg_map.containsKey( "info_hash" ) &&
-																				arg_map.containsKey( "peer_id" ) &&
-																				arg_map.containsKey( "uploaded" )){
-																			
-																			StringBuffer sb = new StringBuffer( 1024 );
-																			
-																			sb.append( line.substring( 0, pos + 1 + pos1 + 1 ));
-																			
-																			sb.append( "info_hash=" + arg_map.get( "info_hash" ));
-																			sb.append( "&peer_id=" + arg_map.get( "peer_id" ));
-																			sb.append( "&port=6881" );
-																			sb.append( "&ip=" + getSocketManager( options ).getMyDestination().toBase64() + ".i2p" );
-																			sb.append( "&uploaded=" + arg_map.get( "uploaded" ));
-																			sb.append( "&downloaded=" + arg_map.get( "downloaded" ));
-																			sb.append( "&left=" + arg_map.get( "left" ));
-																			sb.append( "&compact=1" );
-																			
-																			String event = arg_map.get( "event" );
-																			
-																			if ( event != null ){
-																				sb.append( "&event=" + event );
-																			}
-																			
-																			String num_want = arg_map.get( "numwant" );
-																			
-																			if ( num_want != null ){
-																				sb.append( "&numwant=" + num_want );
-																			}else{
-																				//if ( event != null )
-																			}
-																			
-																				// lastly patch in any existing url params
-																			
-																			PluginInterface pi = adapter.getPluginInterface();
-																					
-																			if ( pi != null ){
-																				
-																				try{
-																					byte[] hash = URLDecoder.decode(arg_map.get( "info_hash" ), "ISO-8859-1").getBytes( "ISO-8859-1" );
-																					
-																					Download dl = pi.getDownloadManager().getDownload( hash );
-																					
-																					if ( dl != null ){
-																					
-																						Torrent t = dl.getTorrent();
-																						
-																						if ( t != null ){
-																						
-																							List<URL>	urls = new ArrayList<URL>();
-																						
-																							urls.add( t.getAnnounceURL());
-																						
-																							for ( TorrentAnnounceURLListSet set: t.getAnnounceURLList().getSets()){
-																								
-																								urls.addAll( Arrays.asList(set.getURLs()));
-																							}
-																							
-																							for ( URL u: urls ){
-																								
-																								if ( u == null ){
-																									
-																									continue;
-																								}
-																								
-																								if ( u.getHost().equals( original_unresolved )){
-																									
-																									int	u_port = u.getPort();
-																									
-																									if ( u_port == -1 ){
-																										
-																										u_port = 80;
-																									}
-																									
-																									if ( u_port == original_port || u_port == 80 && original_port == -1 ){
-																										
-																										String query = u.getQuery();
-																										
-																										if ( query != null && query.length() > 0 ){
-																											
-																											sb.append( "&" + query );
-																											
-																											break;
-																										}
-																									}
-																								}
-																							}
-																						}
-																					}																				
-																				}catch( Throwable e ){
-																					
-																				}
-																			}
-																			
-																			sb.append( line.substring( pos2 ));
-																			
-																			line = sb.toString();
-																			
-																			// System.out.println( line );
-																		}
-																	}
-														
-																	headers.add( line );
-																}
-															}else{
-															
-																String[] bits = line.split( ":", 2 );
-																
-																if ( bits.length != 2 ){
-																	
-																	headers.add( line );
-																	
-																}else{
-																
-																	String	kw = bits[0].toUpperCase( Locale.US );
-																	
-																	if ( kw.equals( "REFERER" )){
-																		
-																		// skip it
-																		
-																	}else if ( kw.equals( "HOST" )){
-																		
-																		I2PSocket s = socket;
-																		
-																		Destination peer_dest = s==null?null:s.getPeerDestination();
-																		
-																		if ( peer_dest == null ){
-																			
-																			throw( new IOException( "Socked closed" ));
-																		}
-																		
-																		String target_host = bits[1];
-																		
-																		int port = 0;
-																		
-																		int	pos = target_host.indexOf( ':' );
-																		
-																		if ( pos != -1 ){
-																			
-																			port = Integer.parseInt( target_host.substring( pos+1 ));
-																		}
-																		
-																		String host_header =  "Host: " + Base32.encode( peer_dest.calculateHash().getData()) + ".b32.i2p";
-							
-																		if ( port > 0 ){
-																			
-																			host_header += ":" + port;
-																		}
-																		
-																		headers.add( host_header );
-																	
-																	}else if ( kw.equals( "USER-AGENT" )){
-		
-																		headers.add( "User-Agent: " + Constants.APP_NAME );
-	
-																	}else{
-																		
-																		headers.add( line );
-																	}
-																}
-															}
-														}
-														
-														if ( is_http ){
-															
-															StringBuilder sb = new StringBuilder( len+128 );
-															
-															for ( String header: headers ){
-																
-																sb.append( header );
-																sb.append( "\r\n" );
-															}
-															
-															sb.append( "\r\n" );
-															
-															String oh = sb.toString();
-															
-															//System.out.println( oh );
-															
-															byte[] output_headers = oh.getBytes( "ISO8859-1" );
-															
-															output_stream.write( output_headers );
-														
-															array_offset = i+4;
-														}
-														
-														break;
-													}																				
+													announce_rewriter = null;
 												}
-											}
+											}else{
 											
-											int	rem = len - array_offset;
-											
-											if ( rem > 0 ){
-	
-												output_stream.write( array, array_offset, rem );
+												output_stream.write( array, 0, len );
 											}
 											
-											source_buffer.position( 0 );
-											
-											source_buffer.limit( source_buffer.capacity());
+											releaseSourceBuffer();
 											
 											output_stream.flush();
 											
@@ -2181,6 +2170,8 @@ I2PHelperSocksProxy
 								
 								target_buffer = null;
 								
+								releaseInputBuffer();
+								
 								readFromI2P();
 							}
 						}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.router;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.biglybt.core.util.AERunnable;
+import com.biglybt.core.util.AEThread2;
+import com.biglybt.core.util.SimpleTimer;
+import com.biglybt.core.util.SystemTime;
+import com.biglybt.core.util.ThreadPool;
+import com.biglybt.core.util.TimerEventPeriodic;
+
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.data.Destination;
+
+/**
+ * Optional spare streams for destinations the SOCKS proxy connects to repeatedly, trackers
+ * mostly. Once an address:port has been used HOT_THRESHOLD times within HOT_WINDOW a stream to
+ * it is opened in the background after each use so the next request can skip stream setup.
+ * Spares are only kept briefly as the far end may drop idle streams.
+ */
+
+class
+I2PHelperSocksStreamPool
+{
+	private static final int	HOT_THRESHOLD	= 3;
+	private static final long	HOT_WINDOW		= 10*60*1000;
+
+	private static final long	SPARE_MAX_AGE	= 20*1000;
+	private static final int	MAX_SPARES		= 8;
+	private static final int	MAX_TARGETS		= 64;
+
+	private final ThreadPool<AERunnable>	connect_pool;
+
+	private final Map<String,Target>	targets =
+		new LinkedHashMap<String,Target>( MAX_TARGETS, 0.75f, true )
+		{
+			@Override
+			protected boolean
+			removeEldestEntry(
+				Map.Entry<String,Target>	eldest )
+			{
+				if ( size() > MAX_TARGETS ){
+
+					eldest.getValue().discardSpare();
+
+					return( true );
+				}
+
+				return( false );
+			}
+		};
+
+	private int			spares_pending;
+
+	private boolean		enabled;
+
+	private TimerEventPeriodic	timer;
+
+	I2PHelperSocksStreamPool(
+		ThreadPool<AERunnable>		_connect_pool )
+	{
+		connect_pool	= _connect_pool;
+	}
+
+	void
+	setEnabled(
+		boolean		b )
+	{
+		synchronized( targets ){
+
+			if ( b == enabled ){
+
+				return;
+			}
+
+			enabled = b;
+
+			if ( enabled ){
+
+				timer = SimpleTimer.addPeriodicEvent(
+							"I2PHelperSocksStreamPool",
+							SPARE_MAX_AGE/2,
+							(ev)->{
+								expire();
+							});
+			}else{
+
+				if ( timer != null ){
+
+					timer.cancel();
+
+					timer = null;
+				}
+
+				for ( Target t: targets.values()){
+
+					t.discardSpare();
+				}
+
+				targets.clear();
+			}
+		}
+	}
+
+		/**
+		 * @return a live spare stream for the address, if there is one
+		 */
+
+	I2PSocket
+	take(
+		String			address,
+		int				port,
+		I2PSMHolder		sm_holder )
+	{
+		I2PSocket	socket;
+
+		synchronized( targets ){
+
+			if ( !enabled ){
+
+				return( null );
+			}
+
+			Target t = targets.get( address + ":" + port );
+
+			if ( t == null || t.spare == null ){
+
+				return( null );
+			}
+
+			socket = t.spare;
+
+			t.spare = null;
+
+			if ( 	t.sm_holder != sm_holder ||
+					SystemTime.getMonotonousTime() - t.spare_time > SPARE_MAX_AGE ){
+
+				close( socket );
+
+				return( null );
+			}
+		}
+
+		if ( socket.isClosed()){
+
+			return( null );
+		}
+
+		return( socket );
+	}
+
+		/**
+		 * Records a completed connect and opens a spare if the address has become hot
+		 */
+
+	void
+	used(
+		String			address,
+		int				port,
+		I2PSMHolder		sm_holder,
+		Destination		dest )
+	{
+		String	key = address + ":" + port;
+
+		final Target	target;
+
+		synchronized( targets ){
+
+			if ( !enabled ){
+
+				return;
+			}
+
+			long	now = SystemTime.getMonotonousTime();
+
+			Target t = targets.get( key );
+
+			if ( t == null || t.sm_holder != sm_holder ){
+
+				if ( t != null ){
+
+					t.discardSpare();
+				}
+
+				t = new Target( port, sm_holder, dest, now );
+
+				targets.put( key, t );
+			}
+
+			if ( now - t.window_start > HOT_WINDOW ){
+
+				t.window_start	= now;
+				t.uses			= 0;
+			}
+
+			t.uses++;
+
+			if ( 	t.uses < HOT_THRESHOLD ||
+					t.spare != null ||
+					t.opening ||
+					spares_pending + countSpares() >= MAX_SPARES ){
+
+				return;
+			}
+
+			t.opening = true;
+
+			spares_pending++;
+
+			target = t;
+		}
+
+		connect_pool.run(
+			new AERunnable()
+			{
+				@Override
+				public void
+				runSupport()
+				{
+					I2PSocket	socket = null;
+
+					try{
+						socket = target.sm_holder.connect( target.dest, I2PHelperSocksProxy.buildStreamOptions( target.sm_holder, target.port ));
+
+					}catch( Throwable e ){
+					}
+
+					synchronized( targets ){
+
+						target.opening = false;
+
+						spares_pending--;
+
+						if ( socket != null && enabled && targets.get( key ) == target && target.spare == null ){
+
+							target.spare		= socket;
+							target.spare_time	= SystemTime.getMonotonousTime();
+
+							socket = null;
+						}
+					}
+
+					if ( socket != null ){
+
+						close( socket );
+					}
+				}
+			});
+	}
+
+	private int
+	countSpares()
+	{
+		int	num = 0;
+
+		for ( Target t: targets.values()){
+
+			if ( t.spare != null ){
+
+				num++;
+			}
+		}
+
+		return( num );
+	}
+
+	private void
+	expire()
+	{
+		long	now = SystemTime.getMonotonousTime();
+
+		List<I2PSocket>	to_close = new ArrayList<>();
+
+		synchronized( targets ){
+
+			Iterator<Target> it = targets.values().iterator();
+
+			while( it.hasNext()){
+
+				Target t = it.next();
+
+				if ( t.spare != null && now - t.spare_time > SPARE_MAX_AGE ){
+
+					to_close.add( t.spare );
+
+					t.spare = null;
+				}
+
+				if ( t.spare == null && !t.opening && now - t.window_start > HOT_WINDOW ){
+
+					it.remove();
+				}
+			}
+		}
+
+		for ( I2PSocket s: to_close ){
+
+			close( s );
+		}
+	}
+
+	void
+	destroy()
+	{
+		setEnabled( false );
+	}
+
+	private static void
+	close(
+		I2PSocket	socket )
+	{
+			// can block, same as the proxy's own socket closing
+
+		AEThread2.createAndStartDaemon(
+			"I2P SocketCloser",
+			()->{
+				try{
+					socket.close();
+
+				}catch( Throwable e ){
+				}
+			});
+	}
+
+	private static class
+	Target
+	{
+		private final int			port;
+		private final I2PSMHolder	sm_holder;
+		private final Destination	dest;
+
+		private long		window_start;
+		private int			uses;
+
+		private I2PSocket	spare;
+		private long		spare_time;
+		private boolean		opening;
+
+		private
+		Target(
+			int				_port,
+			I2PSMHolder		_sm_holder,
+			Destination		_dest,
+			long			_now )
+		{
+			port			= _port;
+			sm_holder		= _sm_holder;
+			dest			= _dest;
+			window_start	= _now;
+		}
+
+		private void
+		discardSpare()
+		{
+			if ( spare != null ){
+
+				close( spare );
+
+				spare = null;
+			}
+		}
+	}
+}
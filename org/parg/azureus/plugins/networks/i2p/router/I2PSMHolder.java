@@ -20,14 +20,22 @@ package org.parg.azureus.plugins.networks.i2p.router;
 
 import java.io.File;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.parg.azureus.plugins.networks.i2p.I2PHelperAdapter;
 
 import com.biglybt.core.util.AENetworkClassifier;
+import com.biglybt.core.util.AERunnable;
 import com.biglybt.core.util.AEThread2;
+import com.biglybt.core.util.AsyncDispatcher;
+import com.biglybt.core.util.Debug;
+import com.biglybt.core.util.RandomUtils;
 import com.biglybt.core.util.SimpleTimer;
 import com.biglybt.core.util.SystemTime;
+import com.biglybt.core.util.TimeFormatter;
 import com.biglybt.core.util.TimerEventPeriodic;
 
 import net.i2p.I2PAppContext;
@@ -36,7 +44,9 @@ import net.i2p.client.I2PSessionMuxedListener;
 import net.i2p.client.SendMessageOptions;
 import net.i2p.client.datagram.Datagram2;
 import net.i2p.client.datagram.Datagram3;
+import net.i2p.client.datagram.I2PDatagramDissector;
 import net.i2p.client.datagram.I2PDatagramMaker;
+import net.i2p.client.datagram.I2PInvalidDatagramException;
 import net.i2p.client.naming.NamingService;
 import net.i2p.client.streaming.I2PServerSocket;
 import net.i2p.client.streaming.I2PSocket;
@@ -84,10 +94,68 @@ I2PSMHolder
 	
 	private TimerEventPeriodic		timer_event;
 	
+		// reconnect attempts start fast and back off so brief router hiccups recover quickly
+	
+	private static final int	RECONNECT_DELAY_MIN		= 1000;
+	private static final int	RECONNECT_DELAY_MAX		= 30*1000;
+	
+		// datagrams sent while reconnecting are held and replayed on the new session
+	
+	private static final int	SEND_QUEUE_MAX_MESSAGES		= 512;
+	private static final int	SEND_QUEUE_MAX_BYTES		= 1024*1024;
+	private static final int	SEND_QUEUE_MAX_AGE			= 30*1000;
+	
+	private LinkedList<QueuedMessage>	send_queue = new LinkedList<>();
+	private int							send_queue_bytes;
+	
 	private boolean reconnecting;
 	
+		// session health, closure is picked up from the session's disconnected callback with
+		// a periodic self-addressed probe to catch sessions that stop working without closing
+	
+	private static final int	HEALTH_CHECK_PERIOD		= 30*1000;
+	private static final int	PROBE_PORT				= 1;
+	private static final int	PROBE_MAX_MISSES		= 3;
+	
+	private final SessionMonitor	session_monitor = new SessionMonitor();
+	
+	private volatile long	probe_nonce;
+	private volatile long	probe_sent;
+	private volatile long	probe_rtt	= -1;
+	private volatile int	probe_misses;
+	
+	private long	session_start;
+	private long	session_lost;
+	
+	private int		reconnect_count;
+	private long	reconnect_last;
+	private long	reconnect_total;
+	private long	reconnect_max;
+	
+		// datagram listeners indexed by port, [port>>>8][port&0xff], replaced on update
+	
+	private volatile DatagramRegistration[][]	datagram_ports = new DatagramRegistration[256][];
+	
+	private final DatagramDispatcher	datagram_dispatcher = new DatagramDispatcher();
+	
+		// verification and delivery run on these rather than the session's single reader thread.
+		// signed datagrams map to a lane by sender so each sender's stay in order, raw ones (the
+		// replies) carry no sender and need no ordering so are spread across all lanes
+	
+	private static final int	DATAGRAM_LANES				= Math.max( 1, Math.min( 4, Runtime.getRuntime().availableProcessors()));
+	private static final int	DATAGRAM_LANE_QUEUE_MAX		= 1024;
+	
+	private final AsyncDispatcher[]	datagram_lanes = new AsyncDispatcher[ DATAGRAM_LANES ];
+	
+	private final AtomicInteger		raw_datagram_lane	= new AtomicInteger();
+	private final AtomicLong		datagrams_dropped	= new AtomicLong();
+	
 	private volatile boolean	destroyed;
 	
+		// the session's destination is replaced on reconnect so the encoding is cached against it
+	
+	private volatile EncodedDestination		my_dest_encoded;
+	
 	public 
 	I2PSMHolder(
 		I2PHelperRouter		_router )
@@ -96,6 +164,11 @@ I2PSMHolder
 	{
 		router	= _router;
 		
+		for ( int i=0;i<datagram_lanes.length;i++){
+			
+			datagram_lanes[i] = new AsyncDispatcher( "I2PSMHolder:datagrams", 10*1000 );
+		}
+		
 		socket_manager = createSocketManager( false );
 			
 		if ( socket_manager == null ){
@@ -125,12 +198,21 @@ I2PSMHolder
 			}
 		}
 		
+		session_start = SystemTime.getMonotonousTime();
+		
+		synchronized( this ){
+			
+			muxer_listeners.add( new Object[]{ session_monitor, I2PSession.PROTO_DATAGRAM_RAW, PROBE_PORT });
+		
+			session.addMuxedSessionListener( session_monitor, I2PSession.PROTO_DATAGRAM_RAW, PROBE_PORT );
+		}
+		
 		timer_event = 
 			SimpleTimer.addPeriodicEvent(
 				"I2P Session Checker",
-				30*1000,
+				HEALTH_CHECK_PERIOD,
 				(e)->{
-					isSessionClosedSupport();
+					checkHealth();
 				});
 	}
 	
@@ -156,106 +238,252 @@ I2PSMHolder
 		
 		if ( closed ){
 			
-			synchronized( this ){
+			startReconnect( "I2P session closed" );
+		}
+		
+		if ( closed && throw_if_closed ){
+		
+			throw( new Exception( "Session is closed" ));
+		}
+		
+		return( closed );
+	}
+	
+	private void
+	startReconnect(
+		String		reason )
+	{
+		synchronized( this ){
+			
+			if ( destroyed || router.isDestroyed() || reconnecting ){
 				
-				if ( ! ( destroyed || router.isDestroyed())){
+				return;
+			}
+				
+			reconnecting = true;
+			
+			session_lost = SystemTime.getMonotonousTime();
+			
+			probe_sent		= 0;
+			probe_misses	= 0;
+			
+			logMessage( reason + ", reconnecting..." );
+		}
+		
+		AEThread2.createAndStartDaemon(
+			"I2PSocketManager - reconnect",
+			()->{								
+				try{
+					try{
+						socket_manager.destroySocketManager();
+						
+					}catch( Throwable e ){
+					}
+
+					int	delay = RECONNECT_DELAY_MIN;
 					
-					if ( !reconnecting ){
+					while( true ){
 						
-						reconnecting = true;
+						if ( destroyed ){
+							
+							break;
+						}
 						
-						logMessage( "I2P session closed, reconnecting..." );
-												
-						AEThread2.createAndStartDaemon(
-							"I2PSocketManager - reconnect",
-							()->{								
-								try{
-									try{
-										socket_manager.destroySocketManager();
-										
-									}catch( Throwable e ){
-									}
-
-									while( true ){
-										
-										if ( destroyed ){
-											
-											break;
-										}
-										
-										I2PSocketManager rep_sm = null;
-										
-										try{
-											rep_sm = createSocketManager( true );
-											
-												// System.out.println( "Created socket manager for " + getName());
-											
-											I2PSession	rep_session = getSession( rep_sm );
-											
-											if ( rep_session != null ){
-												
-													// System.out.println( "Got session for " + getName());
-												
-												synchronized( I2PSMHolder.this ){
-													
-													if ( updated_options != null ){
-													
-														rep_session.updateOptions( updated_options );
-													}
-													
-													for ( Object[] entry: muxer_listeners ){
-														
-														rep_session.addMuxedSessionListener( (I2PSessionMuxedListener)entry[0], (Integer)entry[1], (Integer)entry[2] );
-													}
-													
-													socket_manager		= rep_sm;
-													session				= rep_session;
-													server_socket		= null;
-													
-													rep_sm = null;
-												}
-												
-												logMessage( "I2P session reconnected" );
-												
-												break;
-											}
-										}catch( Throwable e ){
-											
-											if ( rep_sm != null ){
-												
-												rep_sm.destroySocketManager();
-											}
-										}
-										
-										try{
-											Thread.sleep( 30*1000 );
-											
-										}catch( Throwable e ){
-											
-											e.printStackTrace();
-											
-											break;
-										}
+						I2PSocketManager rep_sm = null;
+						
+						List<QueuedMessage>	to_replay = null;
+						
+						try{
+							rep_sm = createSocketManager( true );
+							
+								// System.out.println( "Created socket manager for " + getName());
+							
+							I2PSession	rep_session = getSession( rep_sm );
+							
+							if ( rep_session != null ){
+								
+									// System.out.println( "Got session for " + getName());
+								
+								long	latency;
+								
+								synchronized( I2PSMHolder.this ){
+									
+									if ( updated_options != null ){
+									
+										rep_session.updateOptions( updated_options );
 									}
-								}finally{
 									
-									synchronized( I2PSMHolder.this ){
+									for ( Object[] entry: muxer_listeners ){
 										
-										reconnecting = false;
+										rep_session.addMuxedSessionListener( (I2PSessionMuxedListener)entry[0], (Integer)entry[1], (Integer)entry[2] );
 									}
+									
+									socket_manager		= rep_sm;
+									session				= rep_session;
+									server_socket		= null;
+									
+									rep_sm = null;
+									
+										// anything queued from here on is sent directly
+									
+									to_replay	= send_queue;
+									
+									send_queue 			= new LinkedList<>();
+									send_queue_bytes	= 0;
+									
+									long	now = SystemTime.getMonotonousTime();
+									
+									latency = now - session_lost;
+									
+									session_start	= now;
+									
+									reconnect_count++;
+									
+									reconnect_last	= latency;
+									reconnect_total	+= latency;
+									reconnect_max	= Math.max( reconnect_max, latency );
 								}
-							});
+								
+								logMessage( "I2P session reconnected after " + latency + "ms" );
+								
+								replay( rep_session, to_replay );
+								
+								break;
+							}
+						}catch( Throwable e ){
+							
+							if ( rep_sm != null ){
+								
+								rep_sm.destroySocketManager();
+							}
+						}
+						
+							// jitter so holders that lost their sessions together don't retry in step
+						
+						try{
+							Thread.sleep( delay/2 + RandomUtils.nextInt( delay/2 + 1 ));
+							
+						}catch( Throwable e ){
+							
+								// interrupted, give up
+							
+							break;
+						}
+						
+						delay = Math.min( delay*2, RECONNECT_DELAY_MAX );
+					}
+				}finally{
+					
+					synchronized( I2PSMHolder.this ){
+						
+						reconnecting = false;
+						
+						send_queue.clear();
+						
+						send_queue_bytes = 0;
 					}
 				}
+			});
+	}
+	
+		/**
+		 * Run periodically. A datagram carrying a random nonce is sent to our own destination,
+		 * several unanswered in a row mean the session is dead even though it doesn't report
+		 * itself as closed
+		 */
+	
+	private void
+	checkHealth()
+	{
+		if ( isSessionClosedSupport()){
+			
+			return;
+		}
+		
+		I2PSession	s = session;
+		
+		if ( s == null || !isReady()){
+			
+			return;
+		}
+		
+		if ( probe_sent > 0 ){
+			
+			if ( ++probe_misses >= PROBE_MAX_MISSES ){
+				
+				startReconnect( "I2P session not responding to probes" );
+				
+				return;
 			}
 		}
 		
-		if ( closed && throw_if_closed ){
+		long	nonce = RandomUtils.nextLong();
 		
-			throw( new Exception( "Session is closed" ));
+		byte[]	payload = new byte[8];
+		
+		for ( int i=0;i<8;i++){
+			
+			payload[i] = (byte)( nonce >>> ( 56 - i*8 ));
 		}
 		
-		return( closed );
+		probe_nonce	= nonce;
+		probe_sent	= SystemTime.getMonotonousTime();
+		
+		try{
+			s.sendMessage( s.getMyDestination(), payload, I2PSession.PROTO_DATAGRAM_RAW, PROBE_PORT, PROBE_PORT );
+			
+		}catch( Throwable e ){
+			
+				// counts as a miss next time round
+		}
+	}
+	
+		/**
+		 * Uptime and reconnect history for display
+		 */
+	
+	public String
+	getHealthString()
+	{
+		synchronized( this ){
+			
+			long	now = SystemTime.getMonotonousTime();
+			
+			String	state;
+			
+			if ( destroyed ){
+				
+				state = "destroyed";
+				
+			}else if ( reconnecting ){
+				
+				state = "reconnecting for " + TimeFormatter.formatColon(( now - session_lost )/1000 );
+				
+			}else{
+				
+				state = "up " + TimeFormatter.formatColon(( now - session_start )/1000 );
+			}
+			
+			String	str = getName() + ": " + state + ", reconnects=" + reconnect_count;
+			
+			if ( reconnect_count > 0 ){
+				
+				str += " (last=" + reconnect_last + "ms, avg=" + ( reconnect_total/reconnect_count ) + "ms, max=" + reconnect_max + "ms)";
+			}
+			
+			long	rtt = probe_rtt;
+			
+			str += ", probe=" + ( rtt<0?"n/a":( rtt + "ms" ));
+			
+			if ( probe_misses > 0 ){
+				
+				str += " (missed " + probe_misses + ")";
+			}
+			
+			str += ", datagrams dropped=" + datagrams_dropped.get();
+			
+			return( str );
+		}
 	}
 	
 	public boolean
@@ -264,6 +492,125 @@ I2PSMHolder
 		return( isSessionClosedSupport());
 	}
 	
+		/**
+		 * @return true if the session is closed but being re-established, datagrams sent in the
+		 * meantime are queued
+		 */
+	
+	public boolean
+	isSessionRecovering()
+	{
+		synchronized( this ){
+			
+			return( reconnecting && !destroyed );
+		}
+	}
+	
+	private boolean
+	queueMessage(
+		Destination			dest,
+		byte[]				payload,
+		int					offset,
+		int					size,
+		int					proto,
+		int					fromPort,
+		int					toPort,
+		SendMessageOptions	options )
+	{
+		long	now = SystemTime.getMonotonousTime();
+		
+		long	max_age = SEND_QUEUE_MAX_AGE;
+		
+		if ( options != null && options.getDate() > 0 ){
+			
+				// respect the sender's own expiry if shorter
+			
+			max_age = Math.min( max_age, options.getDate() - SystemTime.getCurrentTime());
+			
+			if ( max_age <= 0 ){
+				
+				return( false );
+			}
+		}
+		
+		synchronized( this ){
+			
+			if ( !reconnecting || destroyed ){
+				
+				return( false );
+			}
+			
+			Iterator<QueuedMessage>	it = send_queue.iterator();
+			
+			while( it.hasNext()){
+				
+				QueuedMessage	qm = it.next();
+				
+				if ( qm.expiry <= now ){
+					
+					it.remove();
+					
+					send_queue_bytes -= qm.payload.length;
+				}
+			}
+			
+			if ( 	send_queue.size() >= SEND_QUEUE_MAX_MESSAGES ||
+					send_queue_bytes + size > SEND_QUEUE_MAX_BYTES ){
+				
+				return( false );
+			}
+			
+			byte[]	copy = Arrays.copyOfRange( payload, offset, offset + size );
+			
+			send_queue.add( new QueuedMessage( dest, copy, proto, fromPort, toPort, options, now + max_age ));
+			
+			send_queue_bytes += size;
+			
+			return( true );
+		}
+	}
+	
+	private void
+	replay(
+		I2PSession				rep_session,
+		List<QueuedMessage>		messages )
+	{
+		long	now = SystemTime.getMonotonousTime();
+		
+		int	sent	= 0;
+		int	expired	= 0;
+		int	failed	= 0;
+		
+		for ( QueuedMessage qm: messages ){
+			
+			if ( qm.expiry <= now ){
+				
+				expired++;
+				
+				continue;
+			}
+			
+			try{
+				if ( rep_session.sendMessage( qm.dest, qm.payload, 0, qm.payload.length, qm.proto, qm.from_port, qm.to_port, qm.options )){
+					
+					sent++;
+					
+				}else{
+					
+					failed++;
+				}
+			}catch( Throwable e ){
+				
+				failed++;
+			}
+		}
+		
+		if ( !messages.isEmpty()){
+			
+			logMessage( "Replayed queued messages: sent=" + sent + ", expired=" + expired + ", failed=" + failed );
+		}
+	}
+	
 	public Destination
 	getMyDestination()
 	
@@ -272,6 +619,29 @@ I2PSMHolder
 		return( session.getMyDestination());
 	}
 	
+		/**
+		 * @return the local destination in base64 as ASCII bytes, shared so must not be modified
+		 */
+	
+	public byte[]
+	getMyDestinationBase64()
+	
+		throws Exception
+	{
+		Destination dest = session.getMyDestination();
+		
+		EncodedDestination encoded = my_dest_encoded;
+		
+		if ( encoded == null || encoded.dest != dest ){
+			
+			encoded = new EncodedDestination( dest );
+			
+			my_dest_encoded = encoded;
+		}
+		
+		return( encoded.base64 );
+	}
+	
 	public void
 	writePublicKey(
 		File		file )
@@ -461,7 +831,10 @@ I2PSMHolder
 	makeI2PDatagram(
 		byte[]	payload )
 	{		
-		if ( isSessionClosedSupport()){
+			// signing only needs the session's keys, these survive a reconnect as the same key
+			// file is used, so carry on if the message will be queued
+		
+		if ( isSessionClosedSupport() && !isSessionRecovering()){
 
 			return( null );
 			
@@ -483,7 +856,7 @@ I2PSMHolder
 	
 		throws Exception
 	{		
-		if ( isSessionClosedSupport()){
+		if ( isSessionClosedSupport() && !isSessionRecovering()){
 
 			return( null );
 			
@@ -517,7 +890,15 @@ I2PSMHolder
 	
 		throws Exception
 	{
-		isSessionClosedSupport( true );
+		if ( isSessionClosedSupport()){
+			
+			if ( queueMessage( dest, payload, offset, size, proto, fromPort, toPort, options )){
+				
+				return( true );
+			}
+			
+			throw( new Exception( "Session is closed" ));
+		}
 
 		return( session.sendMessage( dest, payload, offset, size, proto, fromPort, toPort, options ));
 	}
@@ -576,6 +957,83 @@ I2PSMHolder
 			session.addMuxedSessionListener( l, proto, port );
 		}
 	}
+	
+		/**
+		 * Registers for datagrams arriving on a port. Repliable (PROTO_DATAGRAM) datagrams are
+		 * verified before delivery, the listener is called on a worker thread
+		 */
+	
+	public void
+	addDatagramListener(
+		I2PHelperDatagramListener	l,
+		int							proto,
+		int							port )
+	{
+		synchronized( this ){
+			
+			DatagramRegistration[][]	ports = datagram_ports.clone();
+			
+			DatagramRegistration[]	page = ports[ port >>> 8 ];
+			
+			page = page==null?new DatagramRegistration[256]:page.clone();
+			
+			page[ port & 0xff ] = new DatagramRegistration( l, proto );
+			
+			ports[ port >>> 8 ] = page;
+			
+			datagram_ports = ports;
+			
+			muxer_listeners.add( new Object[]{ datagram_dispatcher, proto, port });
+			
+			session.addMuxedSessionListener( datagram_dispatcher, proto, port );
+		}
+	}
+	
+	private void
+	deliverDatagram(
+		DatagramRegistration	reg,
+		int						from_port,
+		int						to_port,
+		byte[]					payload )
+	{
+		int	raw_length = payload.length;
+		
+		Destination	from = null;
+		
+		try{
+			if ( reg.proto == I2PSession.PROTO_DATAGRAM ){
+				
+				I2PDatagramDissector dissector = new I2PDatagramDissector();
+				
+				dissector.loadI2PDatagram( payload );
+				
+					// getPayload verifies the signature
+				
+				payload = dissector.getPayload();
+				
+				from = dissector.getSender();
+			}
+		}catch( I2PInvalidDatagramException e ){
+			
+				// can get these on address changes it seems
+			
+			return;
+			
+		}catch( Throwable e ){
+			
+			Debug.out( e );
+			
+			return;
+		}
+		
+		try{
+			reg.listener.datagramReceived( from, from_port, to_port, raw_length, payload );
+			
+		}catch( Throwable e ){
+			
+			Debug.out( e );
+		}
+	}
 		
 	public void
 	destroy()
@@ -583,6 +1041,10 @@ I2PSMHolder
 		synchronized( this ){
 			
 			destroyed = true;
+			
+			send_queue.clear();
+			
+			send_queue_bytes = 0;
 		}
 		
 		try{
@@ -627,4 +1089,266 @@ I2PSMHolder
 			timer_event.cancel();
 		}
 	}
+	
+	private static class
+	DatagramRegistration
+	{
+		private final I2PHelperDatagramListener		listener;
+		private final int							proto;
+		
+		private
+		DatagramRegistration(
+			I2PHelperDatagramListener	_listener,
+			int							_proto )
+		{
+			listener	= _listener;
+			proto		= _proto;
+		}
+	}
+	
+	private class
+	DatagramDispatcher
+		implements I2PSessionMuxedListener
+	{
+		@Override
+		public void
+		messageAvailable(
+			I2PSession 		session,
+			int 			msg_id,
+			long 			size,
+			int 			proto,
+			int 			from_port,
+			int 			to_port )
+		{
+				// only the fetch happens on the session's reader thread
+			
+			byte[]	payload;
+			
+			try{
+				payload = session.receiveMessage( msg_id );
+				
+			}catch( Throwable e ){
+				
+				Debug.out( e );
+				
+				return;
+			}
+			
+			if ( payload == null ){
+				
+				return;
+			}
+			
+			DatagramRegistration[]	page = datagram_ports[ ( to_port >>> 8 ) & 0xff ];
+			
+			DatagramRegistration	reg = page==null?null:page[ to_port & 0xff ];
+			
+			if ( reg == null || reg.proto != proto ){
+				
+				return;
+			}
+			
+			int	lane_hash;
+			
+			if ( proto == I2PSession.PROTO_DATAGRAM ){
+				
+					// signed datagrams start with the sender's destination, its leading key
+					// bytes are random so identify the sender well enough to pick a lane
+				
+				lane_hash = 0;
+				
+				int	len = Math.min( payload.length, 32 );
+				
+				for ( int i=0;i<len;i++){
+					
+					lane_hash = 31*lane_hash + payload[i];
+				}
+			}else{
+				
+				lane_hash = raw_datagram_lane.getAndIncrement();
+			}
+			
+			AsyncDispatcher	lane = datagram_lanes[ ( lane_hash & 0x7fffffff ) % datagram_lanes.length ];
+			
+			if ( lane.getQueueSize() >= DATAGRAM_LANE_QUEUE_MAX ){
+				
+					// behind, dropping is no worse than the loss the DHT already copes with
+				
+				datagrams_dropped.incrementAndGet();
+				
+				return;
+			}
+			
+			lane.dispatch(
+				new AERunnable()
+				{
+					@Override
+					public void
+					runSupport()
+					{
+						deliverDatagram( reg, from_port, to_port, payload );
+					}
+				});
+		}
+		
+		@Override
+		public void
+		messageAvailable(
+			I2PSession 	session,
+			int 		msg_id,
+			long 		size )
+		{
+		}
+		
+		@Override
+		public void
+		reportAbuse(
+			I2PSession 	session,
+			int 		severity )
+		{
+		}
+		
+		@Override
+		public void
+		disconnected(
+			I2PSession 	session )
+		{
+		}
+		
+		@Override
+		public void
+		errorOccurred(
+			I2PSession 	session,
+			String 		message,
+			Throwable 	error )
+		{
+		}
+	}
+	
+	private class
+	SessionMonitor
+		implements I2PSessionMuxedListener
+	{
+		@Override
+		public void
+		messageAvailable(
+			I2PSession 		s,
+			int 			msg_id,
+			long 			size,
+			int 			proto,
+			int 			from_port,
+			int 			to_port )
+		{
+			try{
+				byte[]	payload = s.receiveMessage( msg_id );
+				
+				if ( payload == null || payload.length != 8 ){
+					
+					return;
+				}
+				
+				long	nonce = 0;
+				
+				for ( int i=0;i<8;i++){
+					
+					nonce = ( nonce << 8 ) | ( payload[i]&0xff );
+				}
+				
+				long	sent = probe_sent;
+				
+				if ( sent > 0 && nonce == probe_nonce ){
+					
+					probe_rtt		= SystemTime.getMonotonousTime() - sent;
+					probe_sent		= 0;
+					probe_misses	= 0;
+				}
+			}catch( Throwable e ){
+			}
+		}
+		
+		@Override
+		public void
+		messageAvailable(
+			I2PSession 	s,
+			int 		msg_id,
+			long 		size )
+		{
+		}
+		
+		@Override
+		public void
+		reportAbuse(
+			I2PSession 	s,
+			int 		severity )
+		{
+		}
+		
+		@Override
+		public void
+		disconnected(
+			I2PSession 	s )
+		{
+				// old sessions are torn down as part of reconnecting, ignore them
+			
+			if ( s == session ){
+				
+				startReconnect( "I2P session disconnected" );
+			}
+		}
+		
+		@Override
+		public void
+		errorOccurred(
+			I2PSession 	s,
+			String 		message,
+			Throwable 	error )
+		{
+		}
+	}
+	
+	private static class
+	EncodedDestination
+	{
+		private final Destination	dest;
+		private final byte[]		base64;
+		
+		private
+		EncodedDestination(
+			Destination		_dest )
+		{
+			dest	= _dest;
+			base64	= _dest.toBase64().getBytes( StandardCharsets.US_ASCII );
+		}
+	}
+	
+	private static class
+	QueuedMessage
+	{
+		private final Destination			dest;
+		private final byte[]				payload;
+		private final int					proto;
+		private final int					from_port;
+		private final int					to_port;
+		private final SendMessageOptions	options;
+		private final long					expiry;
+		
+		private
+		QueuedMessage(
+			Destination			_dest,
+			byte[]				_payload,
+			int					_proto,
+			int					_from_port,
+			int					_to_port,
+			SendMessageOptions	_options,
+			long				_expiry )
+		{
+			dest		= _dest;
+			payload		= _payload;
+			proto		= _proto;
+			from_port	= _from_port;
+			to_port		= _to_port;
+			options		= _options;
+			expiry		= _expiry;
+		}
+	}
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.snarkdht;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.i2p.data.Hash;
+
+/**
+ * Read-only view over a buffer of 54 byte compact node infos (NID, Hash, port) as found in
+ * find_node and get_peers replies. Node IDs are loaded once into packed NIDKernel words so
+ * distance selection runs without creating a NodeInfo, NID or Hash per entry; NodeInfo
+ * objects are only built for the entries actually wanted.
+ *
+ * The buffer is shared, not copied, so it must not be modified while the view is in use.
+ */
+
+public class
+CompactNodeInfos
+{
+	private static final int	PORT_OFFSET	= NID.HASH_LENGTH + Hash.HASH_LENGTH;
+
+	private final byte[]		data;
+	private final int			offset;
+	private final int			count;
+
+	private final long[]		ids;
+
+	public
+	CompactNodeInfos(
+		byte[]		_data,
+		int			_offset,
+		int			_length )
+	{
+		data	= _data;
+		offset	= _offset;
+		count	= _length / NodeInfo.LENGTH;
+
+		ids = new long[ count*NIDKernel.WORDS ];
+
+		for ( int i=0;i<count;i++){
+
+			NIDKernel.load( data, offset + i*NodeInfo.LENGTH, ids, i*NIDKernel.WORDS );
+		}
+	}
+
+	public
+	CompactNodeInfos(
+		byte[]		_data )
+	{
+		this( _data, 0, _data.length );
+	}
+
+	public int
+	size()
+	{
+		return( count );
+	}
+
+	public int
+	getPort(
+		int		index )
+	{
+		int	pos = offset + index*NodeInfo.LENGTH + PORT_OFFSET;
+
+		return((( data[pos]&0xff ) << 8 ) | ( data[pos+1]&0xff ));
+	}
+
+	public int
+	compareDistance(
+		long[]		target,
+		int			i1,
+		int			i2 )
+	{
+		return( NIDKernel.compareDistance( target, 0, ids, i1*NIDKernel.WORDS, ids, i2*NIDKernel.WORDS ));
+	}
+
+		/**
+		 * @return indexes of the n entries closest to the target, closest first
+		 */
+
+	public int[]
+	getClosest(
+		byte[]		target,
+		int			n )
+	{
+		return( NIDKernel.closest( NIDKernel.toWords( target ), ids, count, n ));
+	}
+
+		/**
+		 * Materialises an entry
+		 * @throws IllegalArgumentException as for NodeInfo( byte[], int )
+		 */
+
+	public NodeInfo
+	getNodeInfo(
+		int		index )
+	{
+		return( new NodeInfo( data, offset + index*NodeInfo.LENGTH ));
+	}
+
+	public List<NodeInfo>
+	getClosestNodeInfos(
+		byte[]		target,
+		int			n )
+	{
+		int[]	indexes = getClosest( target, n );
+
+		List<NodeInfo>	result = new ArrayList<>( indexes.length );
+
+		for ( int index: indexes ){
+
+			try{
+				result.add( getNodeInfo( index ));
+
+			}catch( IllegalArgumentException e ){
+
+					// bad port or NID/hash mismatch, skip it
+			}
+		}
+
+		return( result );
+	}
+}
@@ -21,6 +21,8 @@ public class NID extends SHA1Hash {
     
     private int fails;
 
+    private long[] words;
+
     private static final int MAX_FAILS = 2;
 
     public NID() {
@@ -35,6 +37,20 @@ public class NID extends SHA1Hash {
         created = Clock.getInstance().now();
     }
 
+    /**
+     * @return the ID as NIDKernel words, computed on first use
+     */
+    public long[]
+    getWords()
+    {
+        long[] w = words;
+        if (w == null) {
+            w = NIDKernel.toWords(getData());
+            words = w;
+        }
+        return( w );
+    }
+
     public long 
     getCreated() 
     {
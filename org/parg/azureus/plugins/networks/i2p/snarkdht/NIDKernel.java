@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.snarkdht;
+
+/**
+ * XOR-distance arithmetic on node IDs held as primitive words rather than byte arrays or
+ * objects. A 20 byte NID is three big-endian longs, the last holding the final four bytes in
+ * its upper half, so unsigned comparison of the words in order is the same as comparing the
+ * bytes. Arrays of IDs are packed WORDS longs per ID.
+ *
+ * The comparisons avoid data dependent branches so they behave well when sorting or
+ * selecting over large, randomly ordered contact sets.
+ */
+
+public final class
+NIDKernel
+{
+	public static final int	WORDS	= 3;
+
+	private
+	NIDKernel()
+	{
+	}
+
+	public static void
+	load(
+		byte[]		src,
+		int			src_offset,
+		long[]		dst,
+		int			dst_offset )
+	{
+		dst[dst_offset]		= getLong( src, src_offset );
+		dst[dst_offset+1]	= getLong( src, src_offset + 8 );
+		dst[dst_offset+2]	= ( getInt( src, src_offset + 16 ) & 0xffffffffL ) << 32;
+	}
+
+	public static long[]
+	toWords(
+		byte[]		nid )
+	{
+		long[]	words = new long[WORDS];
+
+		load( nid, 0, words, 0 );
+
+		return( words );
+	}
+
+	private static long
+	getLong(
+		byte[]		b,
+		int			off )
+	{
+		return(	(( b[off  ]&0xffL ) << 56 ) | (( b[off+1]&0xffL ) << 48 ) |
+				(( b[off+2]&0xffL ) << 40 ) | (( b[off+3]&0xffL ) << 32 ) |
+				(( b[off+4]&0xffL ) << 24 ) | (( b[off+5]&0xffL ) << 16 ) |
+				(( b[off+6]&0xffL ) <<  8 ) |  ( b[off+7]&0xffL ));
+	}
+
+	private static int
+	getInt(
+		byte[]		b,
+		int			off )
+	{
+		return(	(( b[off  ]&0xff ) << 24 ) | (( b[off+1]&0xff ) << 16 ) |
+				(( b[off+2]&0xff ) <<  8 ) |  ( b[off+3]&0xff ));
+	}
+
+		/**
+		 * @return < 0 if a is closer to the target than b, 0 if equidistant, > 0 otherwise
+		 */
+
+	public static int
+	compareDistance(
+		long[]		target,
+		long[]		a,
+		long[]		b )
+	{
+		return( compareDistance( target, 0, a, 0, b, 0 ));
+	}
+
+		/**
+		 * Packed form, offsets are word offsets (index * WORDS)
+		 */
+
+	public static int
+	compareDistance(
+		long[]		target,
+		int			t,
+		long[]		a,
+		int			ai,
+		long[]		b,
+		int			bi )
+	{
+		long	t0 = target[t];
+		long	t1 = target[t+1];
+		long	t2 = target[t+2];
+
+			// each compare is -1/0/1, weighting them 4/2/1 means the first non-zero one
+			// always decides the sign of the sum
+
+		return(	( Long.compareUnsigned( a[ai  ]^t0, b[bi  ]^t0 ) << 2 ) +
+				( Long.compareUnsigned( a[ai+1]^t1, b[bi+1]^t1 ) << 1 ) +
+				  Long.compareUnsigned( a[ai+2]^t2, b[bi+2]^t2 ));
+	}
+
+		/**
+		 * @return number of leading bits the two IDs share, 0 to 160
+		 */
+
+	public static int
+	commonPrefixBits(
+		long[]		a,
+		int			ai,
+		long[]		b,
+		int			bi )
+	{
+		int	z0 = Long.numberOfLeadingZeros( a[ai  ]^b[bi  ] );
+		int	z1 = Long.numberOfLeadingZeros( a[ai+1]^b[bi+1] );
+		int	z2 = Math.min( 32, Long.numberOfLeadingZeros( a[ai+2]^b[bi+2] ));
+
+			// z >> 6 is 1 only when the whole word matched
+
+		return( z0 + ( z0 >> 6 )*( z1 + ( z1 >> 6 )*z2 ));
+	}
+
+		/**
+		 * Selects the n IDs closest to the target from a packed array using a bounded max-heap,
+		 * O(count log n) with no allocation beyond the result
+		 *
+		 * @return indexes of the selected IDs, closest first
+		 */
+
+	public static int[]
+	closest(
+		long[]		target,
+		long[]		ids,
+		int			count,
+		int			n )
+	{
+		n = Math.min( n, count );
+
+		int[]	heap = new int[n];
+
+		int		size = 0;
+
+		for ( int i=0;i<count;i++){
+
+			if ( size < n ){
+
+				heap[size] = i;
+
+				siftUp( target, ids, heap, size++ );
+
+			}else if ( compareDistance( target, 0, ids, i*WORDS, ids, heap[0]*WORDS ) < 0 ){
+
+				heap[0] = i;
+
+				siftDown( target, ids, heap, size );
+			}
+		}
+
+			// heap root is the furthest, pull them off into the tail
+
+		for ( int end=size-1;end>0;end--){
+
+			int	temp = heap[0];
+
+			heap[0]		= heap[end];
+			heap[end]	= temp;
+
+			siftDown( target, ids, heap, end );
+		}
+
+		return( heap );
+	}
+
+	private static void
+	siftUp(
+		long[]		target,
+		long[]		ids,
+		int[]		heap,
+		int			pos )
+	{
+		int	node = heap[pos];
+
+		while( pos > 0 ){
+
+			int	parent = ( pos - 1 ) >>> 1;
+
+			if ( compareDistance( target, 0, ids, node*WORDS, ids, heap[parent]*WORDS ) <= 0 ){
+
+				break;
+			}
+
+			heap[pos] = heap[parent];
+
+			pos = parent;
+		}
+
+		heap[pos] = node;
+	}
+
+	private static void
+	siftDown(
+		long[]		target,
+		long[]		ids,
+		int[]		heap,
+		int			size )
+	{
+		int	pos		= 0;
+		int	node	= heap[0];
+
+		while( true ){
+
+			int	child = ( pos << 1 ) + 1;
+
+			if ( child >= size ){
+
+				break;
+			}
+
+			if ( 	child + 1 < size &&
+					compareDistance( target, 0, ids, heap[child+1]*WORDS, ids, heap[child]*WORDS ) > 0 ){
+
+				child++;
+			}
+
+			if ( compareDistance( target, 0, ids, heap[child]*WORDS, ids, node*WORDS ) <= 0 ){
+
+				break;
+			}
+
+			heap[pos] = heap[child];
+
+			pos = child;
+		}
+
+		heap[pos] = node;
+	}
+}
@@ -104,22 +104,25 @@ public class NodeInfo extends SimpleDataStructure {
      */
     public NodeInfo(String s) throws DataFormatException {
         super();
-        String[] parts = s.split(":", 4);
-        if (parts.length != 4)
+        // indexOf rather than split, this runs for every persisted node on startup
+        int c1 = s.indexOf(':');
+        int c2 = c1 < 0 ? -1 : s.indexOf(':', c1 + 1);
+        int c3 = c2 < 0 ? -1 : s.indexOf(':', c2 + 1);
+        if (c3 < 0)
             throw new DataFormatException("Bad format");
-        byte[] nid = Base64.decode(parts[0]);
+        byte[] nid = Base64.decode(s.substring(0, c1));
         if (nid == null)
             throw new DataFormatException("Bad NID");
         nID = new NID(nid);
-        byte[] h = Base64.decode(parts[1]);
+        byte[] h = Base64.decode(s.substring(c1 + 1, c2));
         if (h == null)
             throw new DataFormatException("Bad hash");
         //hash = new Hash(h);
         hash = Hash.create(h);
-        if (parts[2].length() > 0)
-            dest = new Destination(parts[2]);
+        if (c3 > c2 + 1)
+            dest = new Destination(s.substring(c2 + 1, c3));
         try {
-            port = Integer.parseInt(parts[3]);
+            port = Integer.parseInt(s.substring(c3 + 1));
         } catch (NumberFormatException nfe) {
             throw new DataFormatException("Bad port", nfe);
         }
@@ -43,8 +43,10 @@ import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Text;
 import com.biglybt.core.util.Constants;
 import com.biglybt.core.util.SimpleTimer;
+import com.biglybt.core.util.SystemTime;
 import com.biglybt.core.util.TimerEvent;
 import com.biglybt.core.util.TimerEventPerformer;
 import com.biglybt.core.util.TimerEventPeriodic;
@@ -428,6 +430,14 @@ I2PHelperView
 		private DHTView[] 			dht_views;
 		private DHTOpsView[]		ops_views;
 		
+		private CTabFolder			tab_folder;
+		private CTabItem			plugin_stats_item;
+		private Text				stats_text;
+		
+			// time of the last refresh that found the statistics tab showing, 0 if it wasn't
+		
+		private volatile long		stats_wanted;
+		
 		private TimerEventPeriodic	view_timer;
 		
 		AtomicBoolean	destroyed = new AtomicBoolean();
@@ -456,7 +466,7 @@ I2PHelperView
 			GridData grid_data = new GridData(GridData.FILL_BOTH );
 			main.setLayoutData(grid_data);
 			
-			CTabFolder  tab_folder = new CTabFolder(main, SWT.LEFT);
+			tab_folder = new CTabFolder(main, SWT.LEFT);
 			tab_folder.setBorderVisible(true);
 			tab_folder.setTabHeight(20);
 			
@@ -574,6 +584,16 @@ I2PHelperView
 				fixupView( ops_comp );
 			}
 			
+				// plugin statistics
+			
+			plugin_stats_item = new CTabItem(tab_folder, SWT.NULL);
+			
+			plugin_stats_item.setText( plugin.getMessageText( "azi2phelper.ui.stats" ));
+			
+			stats_text = new Text( tab_folder, SWT.MULTI | SWT.READ_ONLY | SWT.V_SCROLL | SWT.H_SCROLL );
+			
+			plugin_stats_item.setControl( stats_text );
+			
 			tab_folder.setSelection( first_stats_item );
 			
 			view_timer = SimpleTimer.addPeriodicEvent(
@@ -586,6 +606,32 @@ I2PHelperView
 						perform(
 							TimerEvent event ) 
 						{
+								// statistics are built here rather than on the SWT thread as they
+								// include sorting the flow table, and only while they're showing
+							
+							long	wanted = stats_wanted;
+							
+							if ( wanted != 0 && SystemTime.getMonotonousTime() - wanted < 5*1000 ){
+								
+								final String text = plugin.getStatisticsText();
+								
+								Utils.execSWTThread(
+									new Runnable()
+									{
+										@Override
+										public void
+										run()
+										{
+											Text st = stats_text;
+											
+											if ( st != null && !st.isDisposed() && !text.equals( st.getText())){
+												
+												st.setText( text );
+											}
+										}
+									});
+							}
+							
 							if ( dht_views != null ){
 								
 								Utils.execSWTThread(
@@ -653,6 +699,16 @@ I2PHelperView
 		refresh(
 			UISWTViewEvent		event )
 		{
+			if ( 	tab_folder != null && !tab_folder.isDisposed() &&
+					tab_folder.getSelection() == plugin_stats_item ){
+				
+				stats_wanted = SystemTime.getMonotonousTime();
+				
+			}else{
+				
+				stats_wanted = 0;
+			}
+			
 			if ( dht_views != null ){
 				
 				int	total_dhts	= normal_dht_count+proxy_dht_count;
@@ -745,6 +801,10 @@ I2PHelperView
 			try{
 				composite = null;
 				
+				stats_text = null;
+				
+				stats_wanted = 0;
+				
 				if ( view_timer != null ){
 					
 					view_timer.cancel();
@@ -0,0 +1,568 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.tracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.i2p.data.Base32;
+
+import com.biglybt.core.util.Debug;
+import com.biglybt.core.util.HashWrapper;
+import com.biglybt.core.util.SimpleTimer;
+import com.biglybt.core.util.SystemTime;
+import com.biglybt.core.util.TimerEvent;
+import com.biglybt.core.util.TimerEventPerformer;
+import com.biglybt.core.util.TimerEventPeriodic;
+
+/**
+ * Last known peers and swarm counts per torrent, kept on disk so they can be handed to
+ * downloads as soon as they start after a restart rather than waiting for the first DHT
+ * lookups to complete.
+ *
+ * The file is an append-only log of update and delete records. Changes are appended in
+ * batches from a timer and the log is rewritten with just the live entries when it has
+ * grown to more than twice their number, or when it is found to be damaged on load.
+ * I2P destinations are stored as their 32 raw bytes rather than base32 text.
+ */
+
+class
+I2PDHTTrackerPeerCache
+{
+	private static final int	MAGIC			= 0x49325043;	// I2PC
+	private static final int	VERSION			= 1;
+
+	private static final byte	RT_UPDATE		= 1;
+	private static final byte	RT_DELETE		= 2;
+
+	private static final byte	PF_SEED			= 0x01;
+	private static final byte	PF_CRYPTO		= 0x02;
+	private static final byte	PF_B32			= 0x04;
+
+	private static final String	B32_SUFFIX		= ".b32.i2p";
+
+	private static final int	MAX_TORRENTS	= 4096;
+	private static final int	MAX_PEERS		= I2PDHTTrackerPlugin.NUM_WANT;
+	private static final long	MAX_AGE			= 24*60*60*1000L;
+
+	private static final int	FLUSH_PERIOD	= 60*1000;
+
+	private final File		file;
+
+		// insertion order is kept as recency order, updated entries are re-inserted
+
+	private final LinkedHashMap<HashWrapper,Entry>	entries = new LinkedHashMap<>();
+
+	private final Set<HashWrapper>	dirty = new HashSet<>();
+
+	private int		log_records;
+	private boolean	log_damaged;
+
+	private TimerEventPeriodic	timer;
+
+	I2PDHTTrackerPeerCache(
+		File		_file )
+	{
+		file	= _file;
+
+		synchronized( this ){
+
+			load();
+
+			if ( log_damaged || log_records > entries.size()){
+
+				compact();
+			}
+		}
+
+		timer = SimpleTimer.addPeriodicEvent(
+			"I2PDHTTrackerPeerCache",
+			FLUSH_PERIOD,
+			new TimerEventPerformer()
+			{
+				@Override
+				public void
+				perform(
+					TimerEvent	event )
+				{
+					flush();
+				}
+			});
+	}
+
+		/**
+		 * @return the cached state for the torrent or null if unknown or too old
+		 */
+
+	synchronized Entry
+	get(
+		byte[]		hash )
+	{
+		Entry entry = entries.get( new HashWrapper( hash ));
+
+		if ( entry == null || SystemTime.getCurrentTime() - entry.time > MAX_AGE ){
+
+			return( null );
+		}
+
+		return( entry );
+	}
+
+		/**
+		 * Records the result of an announce, peers from the previous entry are kept after the
+		 * new ones up to the limit
+		 */
+
+	synchronized void
+	update(
+		byte[]			hash,
+		List<Peer>		peers,
+		int				seeds,
+		int				leechers )
+	{
+		HashWrapper	key = new HashWrapper( hash );
+
+		Entry	existing = entries.remove( key );
+
+		List<Peer>	merged = new ArrayList<>( MAX_PEERS );
+
+		Set<String>	hosts = new HashSet<>();
+
+		for ( Peer p: peers ){
+
+			if ( merged.size() < MAX_PEERS && hosts.add( p.host )){
+
+				merged.add( p );
+			}
+		}
+
+		if ( existing != null && SystemTime.getCurrentTime() - existing.time <= MAX_AGE ){
+
+			for ( Peer p: existing.peers ){
+
+				if ( merged.size() < MAX_PEERS && hosts.add( p.host )){
+
+					merged.add( p );
+				}
+			}
+		}
+
+		put( key, new Entry( SystemTime.getCurrentTime(), seeds, leechers, merged.toArray( new Peer[ merged.size()])));
+	}
+
+	synchronized void
+	updateCounts(
+		byte[]			hash,
+		int				seeds,
+		int				leechers )
+	{
+		HashWrapper	key = new HashWrapper( hash );
+
+		Entry	existing = entries.remove( key );
+
+		Peer[] peers = existing==null?new Peer[0]:existing.peers;
+
+		put( key, new Entry( SystemTime.getCurrentTime(), seeds, leechers, peers ));
+	}
+
+	synchronized void
+	remove(
+		byte[]			hash )
+	{
+		HashWrapper	key = new HashWrapper( hash );
+
+		if ( entries.remove( key ) != null ){
+
+			dirty.add( key );
+		}
+	}
+
+	private void
+	put(
+		HashWrapper		key,
+		Entry			entry )
+	{
+		entries.put( key, entry );
+
+		dirty.add( key );
+
+		if ( entries.size() > MAX_TORRENTS ){
+
+			Iterator<HashWrapper> it = entries.keySet().iterator();
+
+			HashWrapper	eldest = it.next();
+
+			it.remove();
+
+			dirty.add( eldest );
+		}
+	}
+
+	synchronized int
+	size()
+	{
+		return( entries.size());
+	}
+
+	void
+	destroy()
+	{
+		if ( timer != null ){
+
+			timer.cancel();
+
+			timer = null;
+		}
+
+		flush();
+	}
+
+	private synchronized void
+	flush()
+	{
+		if ( dirty.isEmpty()){
+
+			return;
+		}
+
+		if ( log_damaged || log_records + dirty.size() > 2*entries.size() + 64 || !file.exists()){
+
+			compact();
+
+			return;
+		}
+
+		try{
+			DataOutputStream dos = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true )));
+
+			try{
+				for ( HashWrapper key: dirty ){
+
+					writeRecord( dos, key, entries.get( key ));
+
+					log_records++;
+				}
+			}finally{
+
+				dos.close();
+			}
+
+			dirty.clear();
+
+		}catch( Throwable e ){
+
+				// may have left a partial record, rewrite the whole thing next time
+
+			log_damaged = true;
+
+			Debug.out( "Failed to write peer cache", e );
+		}
+	}
+
+	private void
+	compact()
+	{
+		File tmp_file = new File( file.getParentFile(), file.getName() + ".tmp" );
+
+		try{
+			DataOutputStream dos = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp_file )));
+
+			try{
+				dos.writeInt( MAGIC );
+				dos.writeInt( VERSION );
+
+				for ( Map.Entry<HashWrapper,Entry> e: entries.entrySet()){
+
+					writeRecord( dos, e.getKey(), e.getValue());
+				}
+			}finally{
+
+				dos.close();
+			}
+
+				// replace in one step so there's always a complete file should we fail here
+
+			try{
+				Files.move( tmp_file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+			}catch( AtomicMoveNotSupportedException e ){
+
+				Files.move( tmp_file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+
+			log_records	= entries.size();
+			log_damaged	= false;
+
+			dirty.clear();
+
+		}catch( Throwable e ){
+
+			Debug.out( "Failed to write peer cache", e );
+
+				// existing file is untouched on failure and load() never reads the temp copy, entries
+				// are still held as dirty so the next flush tries again
+
+			tmp_file.delete();
+		}
+	}
+
+	private void
+	writeRecord(
+		DataOutputStream	dos,
+		HashWrapper			key,
+		Entry				entry )
+
+		throws IOException
+	{
+		byte[]	hash = key.getBytes();
+
+		dos.writeByte( entry==null?RT_DELETE:RT_UPDATE );
+		dos.writeByte( hash.length );
+		dos.write( hash );
+
+		if ( entry == null ){
+
+			return;
+		}
+
+		dos.writeLong( entry.time );
+		dos.writeInt( entry.seeds );
+		dos.writeInt( entry.leechers );
+		dos.writeByte( entry.peers.length );
+
+		for ( Peer p: entry.peers ){
+
+			byte	flags = 0;
+
+			if ( p.seed ){
+
+				flags |= PF_SEED;
+			}
+
+			if ( p.crypto ){
+
+				flags |= PF_CRYPTO;
+			}
+
+			byte[]	raw = null;
+
+			if ( p.host.endsWith( B32_SUFFIX ) && p.host.length() == 52 + B32_SUFFIX.length()){
+
+				raw = Base32.decode( p.host.substring( 0, 52 ));
+
+				if ( raw != null && raw.length == 32 ){
+
+					flags |= PF_B32;
+
+				}else{
+
+					raw = null;
+				}
+			}
+
+			dos.writeByte( flags );
+
+			if ( raw != null ){
+
+				dos.write( raw );
+
+			}else{
+
+				dos.writeUTF( p.host );
+			}
+
+			dos.writeShort( p.port );
+		}
+	}
+
+	private void
+	load()
+	{
+		if ( !file.exists()){
+
+			return;
+		}
+
+		long	now = SystemTime.getCurrentTime();
+
+		try{
+			DataInputStream dis = new DataInputStream( new BufferedInputStream( new FileInputStream( file )));
+
+			try{
+				if ( dis.readInt() != MAGIC || dis.readInt() != VERSION ){
+
+					log_damaged = true;
+
+					return;
+				}
+
+				while( true ){
+
+					int	type;
+
+					try{
+						type = dis.readByte();
+
+					}catch( EOFException e ){
+
+						break;
+					}
+
+					byte[]	hash = new byte[dis.readUnsignedByte()];
+
+					dis.readFully( hash );
+
+					HashWrapper	key = new HashWrapper( hash );
+
+					log_records++;
+
+					if ( type == RT_DELETE ){
+
+						entries.remove( key );
+
+					}else if ( type == RT_UPDATE ){
+
+						long	time		= dis.readLong();
+						int		seeds		= dis.readInt();
+						int		leechers	= dis.readInt();
+
+						Peer[]	peers = new Peer[dis.readUnsignedByte()];
+
+						for ( int i=0;i<peers.length;i++){
+
+							int	flags = dis.readByte();
+
+							String	host;
+
+							if (( flags & PF_B32 ) != 0 ){
+
+								byte[]	raw = new byte[32];
+
+								dis.readFully( raw );
+
+								host = Base32.encode( raw ) + B32_SUFFIX;
+
+							}else{
+
+								host = dis.readUTF();
+							}
+
+							int	port = dis.readUnsignedShort();
+
+							peers[i] = new Peer( host, port, ( flags & PF_SEED ) != 0, ( flags & PF_CRYPTO ) != 0 );
+						}
+
+						entries.remove( key );
+
+						if ( now - time <= MAX_AGE ){
+
+							entries.put( key, new Entry( time, seeds, leechers, peers ));
+
+						}else{
+
+								// expired, force a rewrite to drop it
+
+							log_damaged = true;
+						}
+					}else{
+
+						throw( new IOException( "invalid record type " + type ));
+					}
+				}
+			}finally{
+
+				dis.close();
+			}
+		}catch( Throwable e ){
+
+				// truncated write or similar, keep what we managed to read
+
+			log_damaged = true;
+		}
+
+		while( entries.size() > MAX_TORRENTS ){
+
+			Iterator<HashWrapper> it = entries.keySet().iterator();
+
+			it.next();
+
+			it.remove();
+		}
+	}
+
+	static final class
+	Entry
+	{
+		final long		time;
+		final int		seeds;
+		final int		leechers;
+		final Peer[]	peers;
+
+		private
+		Entry(
+			long		_time,
+			int			_seeds,
+			int			_leechers,
+			Peer[]		_peers )
+		{
+			time		= _time;
+			seeds		= _seeds;
+			leechers	= _leechers;
+			peers		= _peers;
+		}
+	}
+
+	static final class
+	Peer
+	{
+		final String	host;
+		final int		port;
+		final boolean	seed;
+		final boolean	crypto;
+
+		Peer(
+			String		_host,
+			int			_port,
+			boolean		_seed,
+			boolean		_crypto )
+		{
+			host	= _host;
+			port	= _port;
+			seed	= _seed;
+			crypto	= _crypto;
+		}
+	}
+}
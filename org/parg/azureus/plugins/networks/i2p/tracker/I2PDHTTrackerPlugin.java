@@ -86,6 +86,7 @@ import com.biglybt.ui.swt.views.stats.DHTOpsPanel;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperAdapter;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperDHT;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperDHTAdapter;
+import org.parg.azureus.plugins.networks.i2p.I2PHelperDHTBatch;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperDHTListener;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperPlugin.TorEndpoint;
 import org.parg.azureus.plugins.networks.i2p.proxydht.TorProxyDHT;
@@ -158,6 +159,7 @@ I2PDHTTrackerPlugin
 	private static final int	DIRECT_INJECT_PEER_MAX		= 5;
 		
 	private static final Object OUR_SCRAPE_RESULT_KEY = new Object();
+	private static final Object CACHED_PEERS_KEY		= new Object();
 	
 	private static final int	MAX_ACTIVE_DHT_GETS		= 8;
 	private static final int	MAX_ACTIVE_DHT_REMOVES	= 5;
@@ -187,7 +189,7 @@ I2PDHTTrackerPlugin
 	private TorrentAttribute 	ta_networks;
 	private TorrentAttribute 	ta_peer_sources;
 
-	private Map<Download,Long>		interesting_downloads 	= new HashMap<Download,Long>();
+	private I2PDHTTrackerSchedule<Download>		interesting_downloads 	= new I2PDHTTrackerSchedule<>();
 	private Set<Download>			interesting_published	= new IdentityHashSet<>();
 	private int						interesting_pub_max		= INTERESTING_PUB_MAX_DEFAULT;
 	private Map<Download,int[]>		running_downloads 		= new HashMap<Download,int[]>();
@@ -195,7 +197,13 @@ I2PDHTTrackerPlugin
 	private Map<Download,RegistrationDetails>	registered_downloads 	= new HashMap<Download,RegistrationDetails>();
 	
 	private Map<Download,Boolean>	limited_online_tracking	= new HashMap<Download,Boolean>();
-	private Map<Download,Long>		query_map			 	= new HashMap<Download,Long>();
+	private I2PDHTTrackerSchedule<Download>		query_map	= new I2PDHTTrackerSchedule<>();
+	
+		// downloads whose registration may need a put or a remove, saves scanning all of them
+		// every tick
+	
+	private Set<Download>			put_pending				= new LinkedHashSet<>();
+	private Set<Download>			remove_pending			= new LinkedHashSet<>();
 	
 	private Map<Download,Integer>	in_progress				= new HashMap<Download,Integer>();
 	
@@ -221,6 +229,8 @@ I2PDHTTrackerPlugin
 	private AtomicLong			dht_scrape_complete_mono	= new AtomicLong(-1);
 	
 	private AEMonitor			this_mon	= new AEMonitor( "DHTTrackerPlugin" );
+	
+	private I2PDHTTrackerPeerCache	peer_cache;
 				
 	
 	protected
@@ -254,6 +264,8 @@ I2PDHTTrackerPlugin
 	{
 		is_running	= true;
 		
+		peer_cache = new I2PDHTTrackerPeerCache( plugin_interface.getPluginconfig().getPluginUserFile( "dhttracker_peers.dat" ));
+		
 		plugin_interface.getDownloadManager().addListener( I2PDHTTrackerPlugin.this );
 		
 		tor_proxy_dht = adapter.getTorProxyDHT();
@@ -297,6 +309,11 @@ I2PDHTTrackerPlugin
 			timer = null;
 		}
 		
+		if ( peer_cache != null ){
+			
+			peer_cache.destroy();
+		}
+		
 		com.biglybt.pif.download.DownloadManager dm = plugin_interface.getDownloadManager();
 		
 		dm.removeListener( I2PDHTTrackerPlugin.this );
@@ -404,6 +421,15 @@ I2PDHTTrackerPlugin
 									min + random.nextInt( rand );
 					}
 					
+						// until we have a fresh scrape report whatever we saw last time
+					
+					I2PDHTTrackerPeerCache.Entry cached = peer_cache.get( torrent.getHash());
+					
+					if ( cached != null && cached.seeds + cached.leechers > 0 ){
+						
+						createOurScrapeResult( download, torrent, cached.seeds, cached.leechers, cached.time, delay );
+					}
+					
 					try{
 						this_mon.enter();
 						
@@ -447,6 +473,10 @@ I2PDHTTrackerPlugin
 				
 				running_downloads.remove( download );
 				
+				put_pending.remove( download );
+				
+				remove_pending.add( download );
+				
 				run_data_cache.remove( download );
 				
 				limited_online_tracking.remove( download );
@@ -455,6 +485,13 @@ I2PDHTTrackerPlugin
 				
 				this_mon.exit();
 			}
+			
+			Torrent torrent = download.getTorrent();
+			
+			if ( torrent != null ){
+				
+				peer_cache.remove( torrent.getHash());
+			}
 		}else{
 			
 		}
@@ -733,6 +770,8 @@ I2PDHTTrackerPlugin
 			register_reason	= "";
 		}
 		
+		boolean	monitoring_started = false;
+		
 		if ( register_reason.length() > 0 ){
 			
 			try{
@@ -746,6 +785,8 @@ I2PDHTTrackerPlugin
 						
 						log( download,	"Monitoring '" + download.getName() + "': " + reason_prefix + register_reason);
 						
+						monitoring_started = true;
+						
 						int[] cache = run_data_cache.remove( download );
 						
 						if ( cache == null ){
@@ -761,8 +802,14 @@ I2PDHTTrackerPlugin
 						
 						query_map.put( download, new Long( SystemTime.getCurrentTime()));
 						
+						put_pending.add( download );
+						
 					}else{
 						
+							// flags may have changed (e.g. now seeding), let the next tick check
+						
+						put_pending.add( download );
+						
 						Integer	existing_type = run_data[0];
 
 						if ( 	existing_type.intValue() == REG_TYPE_DERIVED &&
@@ -784,6 +831,10 @@ I2PDHTTrackerPlugin
 	
 						running_downloads.remove( download );
 						
+						put_pending.remove( download );
+						
+						remove_pending.add( download );
+						
 						run_data_cache.put( download, run_data );
 						
 							// add back to interesting downloads for monitoring
@@ -806,125 +857,306 @@ I2PDHTTrackerPlugin
 				this_mon.exit();
 			}
 		}
+		
+		if ( monitoring_started ){
+			
+			injectCachedPeers( download );
+		}
 	}
 	
-	protected void
-	processRegistrations(
-		boolean		full_processing )
+		/**
+		 * Hands the peers we knew about last time to the download so it can start connecting
+		 * while the first DHT announce is in progress. Only done once per session.
+		 */
+	
+	private void
+	injectCachedPeers(
+		final Download		download )
 	{
-	    String override_ip		= null;	
-  	    String 	value_to_put 	= "";
-  	    int		udp_port 		= 0;
-  	    
-		putDetails	put_details = new putDetails( value_to_put, override_ip, 6881, udp_port );
+		Torrent torrent = download.getTorrent();
 		
-		ArrayList<Download>	rds;
+		if ( torrent == null || download.getUserData( CACHED_PEERS_KEY ) != null ){
+			
+			return;
+		}
 		
-		try{
-			this_mon.enter();
+		download.setUserData( CACHED_PEERS_KEY, "" );
+		
+		int download_state = download.getState();
 
-			rds = new ArrayList<Download>(running_downloads.keySet());
+		if ( 	download_state != Download.ST_DOWNLOADING &&
+				download_state != Download.ST_SEEDING ){
 			
-		}finally{
+			return;
+		}
+		
+		I2PDHTTrackerPeerCache.Entry cached = peer_cache.get( torrent.getHash());
+		
+		if ( cached == null || cached.peers.length == 0 ){
 			
-			this_mon.exit();
+			return;
 		}
-
-		long	 now = SystemTime.getCurrentTime();
 		
+		boolean	we_are_seeding = download_state == Download.ST_SEEDING;
 		
-		if ( full_processing ){
+		List<DownloadAnnounceResultPeer>	peers_for_announce = new ArrayList<DownloadAnnounceResultPeer>( cached.peers.length );
+		
+		for ( I2PDHTTrackerPeerCache.Peer peer: cached.peers ){
 			
-			Iterator<Download>	rds_it = rds.iterator();
+			if ( we_are_seeding && peer.seed ){
+				
+				continue;
+			}
 			
-			List<Object[]> interesting = new ArrayList<Object[]>();
+			peers_for_announce.add( createAnnouncePeer( peer.host, peer.port, peer.crypto ));
+		}
+		
+		if ( peers_for_announce.isEmpty()){
 			
-			while( rds_it.hasNext()){
+			return;
+		}
+		
+		log( download, "Injecting " + peers_for_announce.size() + " cached peers (age=" + TimeFormatter.formatColonMillis( SystemTime.getCurrentTime() - cached.time ) + ")" );
+		
+		final DownloadAnnounceResultPeer[]	peers = peers_for_announce.toArray( new DownloadAnnounceResultPeer[ peers_for_announce.size()]);
+		
+		final URL	url_to_report = torrent.isDecentralised()?torrent.getAnnounceURL():DEFAULT_URL;
+		
+		final int	seeds		= cached.seeds;
+		final int	leechers	= cached.leechers;
+		
+		download.setAnnounceResult(
+				new DownloadAnnounceResult()
+				{
+					@Override
+					public Download
+					getDownload()
+					{
+						return( download );
+					}
+																
+					@Override
+					public int
+					getResponseType()
+					{
+						return( DownloadAnnounceResult.RT_SUCCESS );
+					}
+															
+					@Override
+					public int
+					getReportedPeerCount()
+					{
+						return( peers.length);
+					}
+							
+					@Override
+					public int
+					getSeedCount()
+					{
+						return( seeds );
+					}
+					
+					@Override
+					public int
+					getNonSeedCount()
+					{
+						return( leechers );	
+					}
+					
+					@Override
+					public String
+					getError()
+					{
+						return( null );
+					}
+																
+					@Override
+					public URL
+					getURL()
+					{
+						return( url_to_report );
+					}
+					
+					@Override
+					public DownloadAnnounceResultPeer[]
+					getPeers()
+					{
+						return( peers );
+					}
+					
+					@Override
+					public long
+					getTimeToWait()
+					{
+						return( ANNOUNCE_MIN_DEFAULT/1000 );
+					}
+					
+					@Override
+					public Map
+					getExtensions()
+					{
+						return( null );
+					}
+				});
+	}
+	
+	private DownloadAnnounceResultPeer
+	createAnnouncePeer(
+		final String		ip,
+		final int			port,
+		final boolean		crypto_required )
+	{
+		return(
+			new DownloadAnnounceResultPeer()
+			{
+				@Override
+				public String
+				getSource()
+				{
+					return( PEPeerSource.PS_DHT );
+				}
+				
+				@Override
+				public String
+				getAddress()
+				{
+					return( ip );
+				}
+				
+				@Override
+				public int
+				getPort()
+				{
+					return( port );
+				}
 				
-				Download	dl = rds_it.next();
+				@Override
+				public int
+				getUDPPort()
+				{
+					return( 0 );
+				}
 				
-				int	reg_type = REG_TYPE_NONE;
+				@Override
+				public byte[]
+				getPeerID()
+				{
+					return( null );
+				}
 				
-				try{ 
-					this_mon.enter();
+				@Override
+				public short
+				getProtocol()
+				{
+					return( crypto_required?PROTOCOL_CRYPT:PROTOCOL_NORMAL );
+				}
+			});
+	}
+	
+	protected void
+	processRegistrations(
+		boolean		full_processing )
+	{
+	    String override_ip		= null;	
+  	    String 	value_to_put 	= "";
+  	    int		udp_port 		= 0;
+  	    
+		putDetails	put_details = new putDetails( value_to_put, override_ip, 6881, udp_port );
+		
+		long	 now = SystemTime.getCurrentTime();
+		
+		if ( full_processing ){
+			
+			List<Download>	rds;
+			
+			try{
+				this_mon.enter();
+
+				rds = new ArrayList<Download>( running_downloads.size());
 				
-					int[] run_data = running_downloads.get( dl );
+				for ( Map.Entry<Download,int[]> entry: running_downloads.entrySet()){
 					
-					if ( run_data != null ){
+					if ( entry.getValue()[0] != REG_TYPE_NONE ){
 						
-						reg_type = run_data[0];
+						rds.add( entry.getKey());
 					}
-				}finally{
-					
-					this_mon.exit();
 				}
-					
-		  		if ( reg_type == REG_TYPE_NONE ){
-
+				
+					// targets may have changed so everything gets a look at
+				
+				put_pending.addAll( rds );
+				
+			}finally{
+				
+				this_mon.exit();
+			}
+			
+				// we only need the top DL_DERIVED_MAX_TRACK by metric, keep them in a min-heap
+				// rather than sorting the lot
+			
+			PriorityQueue<Object[]> interesting = 
+				new PriorityQueue<Object[]>(
+					DL_DERIVED_MAX_TRACK + 1,
+					new Comparator<Object[]>()
+					{
+						@Override
+						public int
+						compare(
+							Object[] entry1, 
+							Object[] entry2) 
+						{						
+							return( Long.compare((Long)entry1[1], (Long)entry2[1] ));
+						}
+					});
+			
+			for ( Download dl: rds ){
+				
+		  		long metric = getDerivedTrackMetric( dl );
+		  		
+		  		if ( metric <= 0 ){
+		  			
+		  			dl.setUserData( DL_DERIVED_METRIC_KEY, null );
+		  			
 		  			continue;
 		  		}
 		  		
-		  		long metric = getDerivedTrackMetric( dl );
-		  		
 		  		interesting.add( new Object[]{ dl, new Long( metric )} );
+		  		
+		  		if ( interesting.size() > DL_DERIVED_MAX_TRACK ){
+		  			
+		  			Object[] dropped = interesting.poll();
+		  			
+		  			((Download)dropped[0]).setUserData( DL_DERIVED_METRIC_KEY, null );
+		  		}
 			}
 			
-			Collections.sort(
-				interesting,
-				new Comparator<Object[]>()
-				{
-					@Override
-					public int
-					compare(
-						Object[] entry1, 
-						Object[] entry2) 
-					{						
-						long	res = ((Long)entry2[1]).longValue() - ((Long)entry1[1]).longValue();
-						
-						if( res < 0 ){
-							
-							return( -1 );
-							
-						}else if ( res > 0 ){
-							
-							return( 1 );
-							
-						}else{
-							
-							return( 0 );
-						}
-					}
-				});
+				// heap drains smallest first so fill in from the back
 			
-			Iterator<Object[]> it	= interesting.iterator();
+			Object[][] ranked = new Object[interesting.size()][];
 			
+			for ( int i=ranked.length-1;i>=0;i--){
+				
+				ranked[i] = interesting.poll();
+			}
+						
 			int	num = 0;
 			
-			while( it.hasNext()){
-				
-				Object[] entry = it.next();
+			for ( Object[] entry: ranked ){
 				
 				Download	dl 		= (Download)entry[0];
 				long		metric	= ((Long)entry[1]).longValue();
 				
 				num++;
 				
-				if ( metric > 0 ){
+				if ( num <= DL_DERIVED_MIN_TRACK ){
 					
-					if ( num <= DL_DERIVED_MIN_TRACK ){
-						
-							// leave as is
-						
-					}else if ( num <= DL_DERIVED_MAX_TRACK ){
-						
-							// scale metric between limits
-						
-						metric = ( metric * ( DL_DERIVED_MAX_TRACK - num )) / ( DL_DERIVED_MAX_TRACK - DL_DERIVED_MIN_TRACK );
-						
-					}else{
-						
-						metric = 0;
-					}
+						// leave as is
+					
+				}else{
+					
+						// scale metric between limits
+					
+					metric = ( metric * ( DL_DERIVED_MAX_TRACK - num )) / ( DL_DERIVED_MAX_TRACK - DL_DERIVED_MIN_TRACK );
 				}
 				
 				if ( metric > 0 ){
@@ -938,24 +1170,38 @@ I2PDHTTrackerPlugin
 			}
 		}
 		
-		Iterator<Download>	rds_it = rds.iterator();
+			// DHT puts and gets are collected per DHT and run as batches so keys close to
+			// each other can share routing
+		
+		Map<I2PHelperDHT,I2PHelperDHTBatch>	batches = new HashMap<>();
 		
 			// first off do any puts
 		
-		while( rds_it.hasNext()){
+		while( true ){
 			
 			if ( dht_puts_active.get() > MAX_ACTIVE_DHT_PUTS || !is_running ){
 				
 				break;
 			}
 			
-			Download	dl = rds_it.next();
+			Download	dl;
 			
 			int	reg_type = REG_TYPE_NONE;
 			
 			try{ 
 				this_mon.enter();
 			
+				Iterator<Download> it = put_pending.iterator();
+				
+				if ( !it.hasNext()){
+					
+					break;
+				}
+				
+				dl = it.next();
+				
+				it.remove();
+				
 				int[] run_data = running_downloads.get( dl );
 				
 				if ( run_data != null ){
@@ -1040,30 +1286,37 @@ I2PDHTTrackerPlugin
 					this_mon.exit();
 				}
 					  					  						  	    
-				trackerPut( dl, registration );
+				trackerPut( dl, registration, batches );
 			}
 		}
 		
 			// second any removals
 		
-		Iterator<Map.Entry<Download,RegistrationDetails>> rd_it = registered_downloads.entrySet().iterator();
-		
-		while( rd_it.hasNext()){
+		while( true ){
 			
 			if ( dht_removes_active.get() > MAX_ACTIVE_DHT_REMOVES ){
 				
 				break;
 			}
 			
-			Map.Entry<Download,RegistrationDetails>	entry = rd_it.next();
-			
-			final Download	dl = entry.getKey();
+			final Download	dl;
 
 			boolean	unregister;
 			
 			try{ 
 				this_mon.enter();
 
+				Iterator<Download> it = remove_pending.iterator();
+				
+				if ( !it.hasNext()){
+					
+					break;
+				}
+				
+				dl = it.next();
+				
+				it.remove();
+				
 				unregister = !running_downloads.containsKey( dl );
 				
 			}finally{
@@ -1071,7 +1324,9 @@ I2PDHTTrackerPlugin
 				this_mon.exit();
 			}
 			
-			if ( unregister ){
+			RegistrationDetails registration = unregister?registered_downloads.remove( dl ):null;
+			
+			if ( registration != null ){
 				
 				String[]	networks = dl.getListAttribute( ta_networks );
 
@@ -1093,8 +1348,6 @@ I2PDHTTrackerPlugin
 				String prefix = (has_tor && !has_i2p )?"[Tor only] ":"";
 				
 				log( dl, prefix+"Unregistering download" );
-								
-				rd_it.remove();
 				
 				try{
 					this_mon.enter();
@@ -1106,118 +1359,110 @@ I2PDHTTrackerPlugin
 					this_mon.exit();
 				}
 				
-				trackerRemove( dl, entry.getValue());
+				trackerRemove( dl, registration );
 			}
 		}
 		
-			// lastly gets
+		runBatches( batches );
 		
-		rds_it = rds.iterator();
+			// lastly gets, earliest due first
 		
-		while( rds_it.hasNext()){
+		while( true ){
 			
 			if ( dht_gets_active.get() > MAX_ACTIVE_DHT_GETS || !is_running ){
 				
 				break;
 			}
 
-			final Download	dl = (Download)rds_it.next();
+			final Download	dl;
 			
-			Long	next_time;
+			int	reg_type = REG_TYPE_NONE;
 			
 			try{
 				this_mon.enter();
 	
-				next_time = (Long)query_map.get( dl );
-				
-			}finally{
-				
-				this_mon.exit();
-			}
-			
-			if ( next_time != null && now >= next_time.longValue()){
-			
-				int	reg_type = REG_TYPE_NONE;
+				dl = query_map.pollDue( now );
 				
-				try{
-					this_mon.enter();
-		
-					query_map.remove( dl );
-					
-					int[] run_data = running_downloads.get( dl );
+				if ( dl == null ){
 					
-					if ( run_data != null ){
-						
-						reg_type = run_data[0];
-					}
-				}finally{
-					
-					this_mon.exit();
+					break;
 				}
 				
-				final long	start = SystemTime.getCurrentTime();
-					
-					// if we're already connected to > NUM_WANT peers then don't bother with the main announce
-				
-				PeerManager	pm = dl.getPeerManager();
-				
-					// don't query if this download already has an active DHT operation
-				
-				boolean	skip	= isActive( dl ) || reg_type == REG_TYPE_NONE;
+				int[] run_data = running_downloads.get( dl );
 				
-				if ( skip ){
+				if ( run_data != null ){
 					
-					log( dl, "Deferring announce as activity outstanding" );
+					reg_type = run_data[0];
 				}
+			}finally{
+				
+				this_mon.exit();
+			}
+			
+			final long	start = SystemTime.getCurrentTime();
+				
+				// if we're already connected to > NUM_WANT peers then don't bother with the main announce
+			
+			PeerManager	pm = dl.getPeerManager();
+			
+				// don't query if this download already has an active DHT operation
+			
+			boolean	skip	= isActive( dl ) || reg_type == REG_TYPE_NONE;
+			
+			if ( skip ){
 				
-				RegistrationDetails	registration = (RegistrationDetails)registered_downloads.get( dl );
+				log( dl, "Deferring announce as activity outstanding" );
+			}
+			
+			RegistrationDetails	registration = (RegistrationDetails)registered_downloads.get( dl );
 
-				if ( registration == null ){
-					
-						// this can happen since we rate-limited the put operations
+			if ( registration == null ){
+				
+					// this can happen since we rate-limited the put operations
 
-					// Debug.out( "Inconsistent, registration should be non-null" );
-					
-					continue;
-				}
+				// Debug.out( "Inconsistent, registration should be non-null" );
 				
-				boolean	derived_only = false;
+				continue;
+			}
+			
+			boolean	derived_only = false;
+			
+			if ( pm != null && !skip ){
 				
-				if ( pm != null && !skip ){
-					
-					int	con = pm.getStats().getConnectedLeechers() + pm.getStats().getConnectedSeeds();
+				int	con = pm.getStats().getConnectedLeechers() + pm.getStats().getConnectedSeeds();
+			
+				derived_only = con >= NUM_WANT;
+			}
+			
+			if ( !skip ){
 				
-					derived_only = con >= NUM_WANT;
-				}
+				skip = trackerGet( dl, registration, derived_only, batches ) == 0;
 				
-				if ( !skip ){
-					
-					skip = trackerGet( dl, registration, derived_only ) == 0;
-					
-				}
+			}
+			
+				// if we didn't kick off a get then we have to reschedule here as normally
+				// the get operation will do the rescheduling when it receives a result
+			
+			if ( skip ){
 				
-					// if we didn't kick off a get then we have to reschedule here as normally
-					// the get operation will do the rescheduling when it receives a result
+				try{
+					this_mon.enter();
 				
-				if ( skip ){
-					
-					try{
-						this_mon.enter();
-					
-						if ( running_downloads.containsKey( dl )){
-							
-								// use "min" here as we're just deferring it
-							
-							query_map.put( dl, new Long( start + ANNOUNCE_MIN_DEFAULT ));
-						}
+					if ( running_downloads.containsKey( dl )){
 						
-					}finally{
+							// use "min" here as we're just deferring it
 						
-						this_mon.exit();
+						query_map.put( dl, new Long( start + ANNOUNCE_MIN_DEFAULT ));
 					}
+					
+				}finally{
+					
+					this_mon.exit();
 				}
 			}
 		}
+		
+		runBatches( batches );
 	}
 	
 	protected long
@@ -1299,10 +1544,46 @@ I2PDHTTrackerPlugin
 		return( result );
 	}
 	
+	private I2PHelperDHTBatch
+	getBatch(
+		Map<I2PHelperDHT,I2PHelperDHTBatch>		batches,
+		I2PHelperDHT							dht )
+	{
+		I2PHelperDHTBatch batch = batches.get( dht );
+		
+		if ( batch == null ){
+			
+			batch = dht.createBatch();
+			
+			batches.put( dht, batch );
+		}
+		
+		return( batch );
+	}
+	
+	private void
+	runBatches(
+		Map<I2PHelperDHT,I2PHelperDHTBatch>		batches )
+	{
+		for ( I2PHelperDHTBatch batch: batches.values()){
+			
+			try{
+				batch.run();
+				
+			}catch( Throwable e ){
+				
+				Debug.out( e );
+			}
+		}
+		
+		batches.clear();
+	}
+	
 	protected void
 	trackerPut(
-		final Download			download,
-		RegistrationDetails		details )
+		final Download							download,
+		RegistrationDetails						details,
+		Map<I2PHelperDHT,I2PHelperDHTBatch>		batches )
 	{
 		final 	long	start = SystemTime.getCurrentTime();
 		 	    
@@ -1395,7 +1676,7 @@ I2PDHTTrackerPlugin
 
 					}else{
 						
-						dht.put( 
+						getBatch( batches, dht ).put( 
 							hash,
 							"Tracker reg of '" + download.getName() + "'" + target.getDesc() + " -> " + encoded,
 							flags,
@@ -1495,9 +1776,10 @@ I2PDHTTrackerPlugin
 	
 	protected int
 	trackerGet(
-		final Download					download,
-		final RegistrationDetails		details,
-		final boolean					derived_only )
+		final Download							download,
+		final RegistrationDetails				details,
+		final boolean							derived_only,
+		Map<I2PHelperDHT,I2PHelperDHTBatch>		batches )
 	{
 		trackerTarget[] targets = details.getTargets( false );
 		
@@ -1584,7 +1866,7 @@ I2PDHTTrackerPlugin
 					
 					GetAdapter get_adapter = new GetAdapter( rdht, download, details, target, derived_only, max_retry, complete_count, false );
 					
-					dht.get(
+					getBatch( batches, dht ).get(
 							hash, 
 							"Tracker announce for '" + download.getName() + "'" + target.getDesc(),
 							(byte)( is_complete?DHT.FLAG_SEEDING:DHT.FLAG_DOWNLOADING),
@@ -2182,17 +2464,16 @@ I2PDHTTrackerPlugin
 			// possibility of deadlock here, so pre-fetch the scrape results
 		
 		List<Download>	to_scrape;
-
+		List<Download>	presence_due;
+		
 		try{
 			this_mon.enter();
 
-			to_scrape = new ArrayList<>(interesting_downloads.size());
+			List<Download>	all = interesting_downloads.getKeys();
 			
-			Iterator<Download>	it = interesting_downloads.keySet().iterator();
-
-			while( it.hasNext()){
-
-				Download	download = it.next();
+			to_scrape = new ArrayList<>( all.size());
+			
+			for ( Download download: all ){
 
 				Torrent	torrent = download.getTorrent();
 
@@ -2205,18 +2486,57 @@ I2PDHTTrackerPlugin
 
 				if ( run_data == null || run_data[0] == REG_TYPE_DERIVED ){
 
-						// looks like we'll need the scrape below
-
 					to_scrape.add( download );
 				}
 			}
+			
+			if ( do_presence_checks ){
+				
+					// deadlines are only pushed beyond the check period if the clock has gone
+					// backwards, pull them in again
+				
+				if ( interesting_downloads.getLastTime() - now > INTERESTING_CHECK_PERIOD ){
+					
+					for ( Download download: all ){
+						
+						Torrent	torrent = download.getTorrent();
+						
+						if ( torrent == null ){
+							
+							continue;
+						}
+						
+						long	target = interesting_downloads.get( download );
+						
+						long check_period = TorrentUtils.isDecentralised( torrent.getAnnounceURL())?INTERESTING_DHT_CHECK_PERIOD:INTERESTING_CHECK_PERIOD;
+
+						if ( target - now > check_period ){
+							
+							interesting_downloads.put( download, new Long( now + (target%check_period)));
+						}
+					}
+				}
+				
+				presence_due = interesting_downloads.getDue( now );
+				
+			}else{
+				
+				presence_due = Collections.emptyList();
+			}
 		}finally{
 
 			this_mon.exit();
 		}
 		
+			// only the downloads due a presence check need their scrape result
+		
 		Map<Download,DownloadScrapeResult> scrapes = new HashMap<>();
 
+		for ( Download download: presence_due ){
+			
+			scrapes.put( download, download.getLastScrapeResult());
+		}
+		
 		List<Download> dht_only_scrapes = new ArrayList<>( to_scrape.size());
 		
 		boolean do_dht_scrapes = dht_scrapes_active.get() < MAX_ACTIVE_DHT_SCRAPES;
@@ -2225,8 +2545,6 @@ I2PDHTTrackerPlugin
 
 			Download	download = (Download)to_scrape.get(i);
 
-			scrapes.put( download, download.getLastScrapeResult());
-			
 			//if ( do_dht_scrapes ){
 				
 				Torrent torrent = download.getTorrent();
@@ -2253,19 +2571,42 @@ I2PDHTTrackerPlugin
 			try{
 				this_mon.enter();
 	
-				Iterator<Download>	it = interesting_downloads.keySet().iterator();
+				Iterator<Download>	it = presence_due.iterator();
 	
 				while( it.hasNext() && presence_download == null ){
 	
 					Download	download = it.next();
 	
-					if ( interesting_published.contains(download)){
+					Long	target = interesting_downloads.get( download );
+					
+					if ( target == null ){
+						
+							// removed since we looked
+						
+						continue;
+					}
+					
+					if ( target > now ){
+						
+							// rescheduled since we looked
 						
 						continue;
 					}
 					
 					Torrent	torrent = download.getTorrent();
 	
+					long check_period = torrent != null && TorrentUtils.isDecentralised( torrent.getAnnounceURL())?INTERESTING_DHT_CHECK_PERIOD:INTERESTING_CHECK_PERIOD;
+	
+						// whether checked or skipped this download isn't due again for a check period,
+						// otherwise skipped ones would be handed back by getDue on every tick
+					
+					interesting_downloads.put( download, new Long( now + check_period ));
+
+					if ( interesting_published.contains(download)){
+						
+						continue;
+					}
+					
 					if ( torrent == null ){
 	
 						continue;
@@ -2288,7 +2629,7 @@ I2PDHTTrackerPlugin
 	
 							if ( scrape == null ){
 	
-									// catch it next time round
+									// catch it next check period
 	
 								continue;
 							}
@@ -2299,21 +2640,8 @@ I2PDHTTrackerPlugin
 							}
 						}
 	
-						long	target = ((Long)interesting_downloads.get( download )).longValue();
-	
-						long check_period = TorrentUtils.isDecentralised( torrent.getAnnounceURL())?INTERESTING_DHT_CHECK_PERIOD:INTERESTING_CHECK_PERIOD;
-	
-						if ( target <= now ){
-	
-							presence_download				= download;
-							presence_download_next_check 	= now + check_period;
-	
-							interesting_downloads.put( download, new Long( presence_download_next_check ));
-	
-						}else if ( target - now > check_period ){
-	
-							interesting_downloads.put( download, new Long( now + (target%check_period)));
-						}
+						presence_download				= download;
+						presence_download_next_check 	= now + check_period;
 					}
 				}
 	
@@ -2373,7 +2701,7 @@ I2PDHTTrackerPlugin
 				
 				String last_scrape_str = last_scrape<0?"-":(((mono_now-last_scrape)/1000) + "s");
 				
-				adapter.log("Stats: registered=" + registered_downloads.size() + ", query=" + query_map.size() + ", running=" + running_downloads.size() + 
+				adapter.log("Stats: registered=" + registered_downloads.size() + ", query=" + query_map.size() + ", pending=" + put_pending.size() + "/" + remove_pending.size() + ", running=" + running_downloads.size() + 
 							", active=" + in_progress.size() + ", interesting=" + interesting_downloads.size() + 
 							", dhtget=" + dht_gets_active.get() + ", dhtput=" + dht_puts_active.get() + ", dhtrem=" + dht_removes_active.get() + 
 							", dhtscrape=" + dht_only_scrapes.size() + "/" + dht_scrapes_active.get() + "/" + dht_scrapes_complete.get() + "/" + last_scrape_str + 
@@ -2610,6 +2938,11 @@ I2PDHTTrackerPlugin
 								scrape_data[2] = seeds;
 								scrape_data[3] = leechers;
 								
+								if ( seeds + leechers > 0 ){
+									
+									peer_cache.updateCounts( torrent.getHash(), seeds, leechers );
+								}
+								
 								DownloadScrapeResult sr = createOurScrapeResult( f_ready_scrape, torrent, seeds, leechers, SystemTime.getCurrentTime(), f_next_check );
 								
 								f_ready_scrape.setScrapeResult( sr );
@@ -2777,14 +3110,7 @@ I2PDHTTrackerPlugin
 		try{
 			this_mon.enter();
 
-			Iterator<Map.Entry<Download,Long>> it = query_map.entrySet().iterator();
-			
-			while( it.hasNext()){
-				
-				Map.Entry<Download,Long>	entry = it.next();
-				
-				entry.setValue( now );
-			}
+			query_map.setAll( now );
 		}finally{
 			
 			this_mon.exit();
@@ -3484,6 +3810,8 @@ I2PDHTTrackerPlugin
 				tor_ext_address = "";
 			}
 			
+			List<I2PDHTTrackerPeerCache.Peer>	to_cache = new ArrayList<>( peers.size());
+			
 			for (int i=0;i<peers.size();i++){
 				
 				Object[] peer = peers.get(i);
@@ -3493,66 +3821,30 @@ I2PDHTTrackerPlugin
 				boolean	is_seed			= (Boolean)peer[2];
 				boolean	crypto_required	= (Boolean)peer[3];
 				
-					// when we are seeding ignore seeds
-				
-				if ( we_are_seeding && is_seed ){
-					
-					continue;
-				}
-				
 					// remove ourselves
 								
 				if ( ip.equals( i2p_ext_address ) || ip.equals( tor_ext_address )){
 														
 					continue;
 				}
+				
+				to_cache.add( new I2PDHTTrackerPeerCache.Peer( ip, port, is_seed, crypto_required ));
+				
+					// when we are seeding ignore seeds
+				
+				if ( we_are_seeding && is_seed ){
+					
+					continue;
+				}
 								
-				peers_for_announce.add(
-					new DownloadAnnounceResultPeer()
-					{
-						@Override
-						public String
-						getSource()
-						{
-							return( PEPeerSource.PS_DHT );
-						}
-						
-						@Override
-						public String
-						getAddress()
-						{
-							return( ip );
-						}
-						
-						@Override
-						public int
-						getPort()
-						{
-							return( port );
-						}
-						
-						@Override
-						public int
-						getUDPPort()
-						{
-							return( 0 );
-						}
-						
-						@Override
-						public byte[]
-						getPeerID()
-						{
-							return( null );
-						}
-						
-						@Override
-						public short
-						getProtocol()
-						{
-							return( crypto_required?PROTOCOL_CRYPT:PROTOCOL_NORMAL );
-						}
-					});
+				peers_for_announce.add( createAnnouncePeer( ip, port, crypto_required ));
+			}
+			
+				// an empty result doesn't replace what we knew, the lookup may just have failed
+			
+			if ( !to_cache.isEmpty()){
 				
+				peer_cache.update( torrent.getHash(), to_cache, seed_count, leecher_count );
 			}
 				
 			if ( target.getType() == REG_TYPE_DERIVED && peers_for_announce.size() > 0 ){
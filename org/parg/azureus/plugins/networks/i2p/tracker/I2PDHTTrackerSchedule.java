@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.tracker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Per-key deadlines kept in time order so the tracker only has to look at what is due rather
+ * than scanning everything it knows about. Behaves like a Map<K,Long> for get/put/remove.
+ *
+ * Not thread safe, callers hold the tracker's monitor.
+ */
+
+class
+I2PDHTTrackerSchedule<K>
+{
+	private final Map<K,Entry<K>>	entries = new HashMap<>();
+
+	private final TreeSet<Entry<K>>	queue	= new TreeSet<>();
+
+	private long	next_seq;
+
+	Long
+	get(
+		K		key )
+	{
+		Entry<K> entry = entries.get( key );
+
+		return( entry==null?null:entry.time );
+	}
+
+	void
+	put(
+		K		key,
+		long	time )
+	{
+		Entry<K> entry = entries.get( key );
+
+		if ( entry != null ){
+
+			if ( entry.time == time ){
+
+				return;
+			}
+
+			queue.remove( entry );
+		}
+
+		entry = new Entry<>( key, time, next_seq++ );
+
+		entries.put( key, entry );
+
+		queue.add( entry );
+	}
+
+	Long
+	remove(
+		K		key )
+	{
+		Entry<K> entry = entries.remove( key );
+
+		if ( entry == null ){
+
+			return( null );
+		}
+
+		queue.remove( entry );
+
+		return( entry.time );
+	}
+
+	int
+	size()
+	{
+		return( entries.size());
+	}
+
+		/**
+		 * @return the earliest deadline or -1 if empty
+		 */
+
+	long
+	getFirstTime()
+	{
+		return( queue.isEmpty()?-1:queue.first().time );
+	}
+
+		/**
+		 * @return the latest deadline or -1 if empty
+		 */
+
+	long
+	getLastTime()
+	{
+		return( queue.isEmpty()?-1:queue.last().time );
+	}
+
+		/**
+		 * Removes and returns the earliest key if its deadline has been reached
+		 */
+
+	K
+	pollDue(
+		long	now )
+	{
+		if ( queue.isEmpty()){
+
+			return( null );
+		}
+
+		Entry<K> first = queue.first();
+
+		if ( first.time > now ){
+
+			return( null );
+		}
+
+		queue.pollFirst();
+
+		entries.remove( first.key );
+
+		return( first.key );
+	}
+
+		/**
+		 * @return keys whose deadline has been reached, earliest first. They remain scheduled.
+		 */
+
+	List<K>
+	getDue(
+		long	now )
+	{
+		List<K>	result = new ArrayList<>();
+
+		for ( Entry<K> entry: queue ){
+
+			if ( entry.time > now ){
+
+				break;
+			}
+
+			result.add( entry.key );
+		}
+
+		return( result );
+	}
+
+	List<K>
+	getKeys()
+	{
+		return( new ArrayList<>( entries.keySet()));
+	}
+
+	void
+	setAll(
+		long	time )
+	{
+		List<Entry<K>>	existing = new ArrayList<>( queue );
+
+		queue.clear();
+
+			// re-sequenced in current order so relative ordering is kept
+
+		for ( Entry<K> old: existing ){
+
+			Entry<K> entry = new Entry<>( old.key, time, next_seq++ );
+
+			entries.put( entry.key, entry );
+
+			queue.add( entry );
+		}
+	}
+
+	private static final class
+	Entry<K>
+		implements Comparable<Entry<K>>
+	{
+		private final K			key;
+		private final long		time;
+		private final long		seq;
+
+		private
+		Entry(
+			K		_key,
+			long	_time,
+			long	_seq )
+		{
+			key		= _key;
+			time	= _time;
+			seq		= _seq;
+		}
+
+		@Override
+		public int
+		compareTo(
+			Entry<K>	other )
+		{
+			if ( time != other.time ){
+
+				return( time < other.time?-1:1 );
+			}
+
+			return( Long.compare( seq, other.seq ));
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared, size-classed pool of relay buffers. Connections borrow a buffer while data is in
+ * flight and hand it back as soon as it has been written so that memory scales with active
+ * traffic rather than with the number of open connections.
+ *
+ * Buffers are heap arrays as the I2P streaming API only reads and writes byte[]
+ */
+
+public class
+I2PHelperBufferPool
+{
+	private static final int[]	SIZES 		= { 4*1024, 16*1024, 32*1024, 64*1024 + 256 };
+
+	private static final int	MAX_POOLED_BYTES_PER_CLASS	= 4*1024*1024;
+
+	private static final I2PHelperBufferPool	singleton = new I2PHelperBufferPool();
+
+	public static I2PHelperBufferPool
+	getSingleton()
+	{
+		return( singleton );
+	}
+
+	private final SizeClass[]	classes = new SizeClass[SIZES.length];
+
+	private final AtomicLong	unpooled_allocs = new AtomicLong();
+
+	private
+	I2PHelperBufferPool()
+	{
+		for ( int i=0;i<SIZES.length;i++){
+
+			classes[i] = new SizeClass( SIZES[i] );
+		}
+	}
+
+	private SizeClass
+	getClass(
+		int		size )
+	{
+		for ( SizeClass sc: classes ){
+
+			if ( sc.size == size ){
+
+				return( sc );
+			}
+		}
+
+		return( null );
+	}
+
+		/**
+		 * @return an array of at least the requested size, contents undefined
+		 */
+
+	public byte[]
+	getArray(
+		int		size )
+	{
+		for ( SizeClass sc: classes ){
+
+			if ( sc.size >= size ){
+
+				return( sc.get());
+			}
+		}
+
+		unpooled_allocs.incrementAndGet();
+
+		return( new byte[size] );
+	}
+
+	public void
+	returnArray(
+		byte[]		array )
+	{
+		SizeClass sc = getClass( array.length );
+
+		if ( sc != null ){
+
+			sc.put( array );
+		}
+	}
+
+		/**
+		 * For buffers that may still be referenced elsewhere (e.g. on connection abort) - accounts
+		 * for them without recycling
+		 */
+
+	public void
+	discardArray(
+		byte[]		array )
+	{
+		SizeClass sc = getClass( array.length );
+
+		if ( sc != null ){
+
+			sc.lent.decrementAndGet();
+		}
+	}
+
+	public String
+	getStatusString()
+	{
+		StringBuilder sb = new StringBuilder( 256 );
+
+		sb.append( "Buffer pool:" );
+
+		long	lent_bytes		= 0;
+		long	pooled_bytes	= 0;
+
+		for ( SizeClass sc: classes ){
+
+			int	lent 	= sc.lent.get();
+			int	pooled	= sc.pooled.get();
+
+			lent_bytes		+= (long)lent * sc.size;
+			pooled_bytes	+= (long)pooled * sc.size;
+
+			sb.append( " " ).append( sc.size/1024 ).append( "K[lent=" ).append( lent ).append( ",pooled=" ).append( pooled ).append( ",allocs=" ).append( sc.allocs.get()).append( "]" );
+		}
+
+		sb.append( ", lent bytes=" ).append( lent_bytes ).append( ", pooled bytes=" ).append( pooled_bytes ).append( ", unpooled allocs=" ).append( unpooled_allocs.get());
+
+		return( sb.toString());
+	}
+
+	private static class
+	SizeClass
+	{
+		private final int		size;
+		private final int		max_pooled;
+
+		private final ConcurrentLinkedQueue<byte[]>	free = new ConcurrentLinkedQueue<>();
+
+		private final AtomicInteger		pooled	= new AtomicInteger();
+		private final AtomicInteger		lent	= new AtomicInteger();
+		private final AtomicLong		allocs	= new AtomicLong();
+
+		private
+		SizeClass(
+			int		_size )
+		{
+			size		= _size;
+			max_pooled	= Math.max( 1, MAX_POOLED_BYTES_PER_CLASS/size );
+		}
+
+		private byte[]
+		get()
+		{
+			lent.incrementAndGet();
+
+			byte[] array = free.poll();
+
+			if ( array != null ){
+
+				pooled.decrementAndGet();
+
+				return( array );
+			}
+
+			allocs.incrementAndGet();
+
+			return( new byte[size] );
+		}
+
+		private void
+		put(
+			byte[]		array )
+		{
+			lent.decrementAndGet();
+
+			if ( pooled.incrementAndGet() <= max_pooled ){
+
+				free.add( array );
+
+			}else{
+
+				pooled.decrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with power-of-two buckets: bucket 0 holds values < 1, bucket n holds
+ * values in [2^(n-1),2^n), the last bucket holds everything larger
+ */
+
+public class
+I2PHelperHistogram
+{
+	private static final int	NUM_BUCKETS	= 24;
+
+	private final String		name;
+	private final String		units;
+
+	private final AtomicLongArray	buckets = new AtomicLongArray( NUM_BUCKETS );
+
+	private final AtomicLong	count	= new AtomicLong();
+	private final AtomicLong	total	= new AtomicLong();
+
+	private volatile long		max;
+
+	public
+	I2PHelperHistogram(
+		String		_name,
+		String		_units )
+	{
+		name	= _name;
+		units	= _units;
+	}
+
+	public void
+	record(
+		long		value )
+	{
+		if ( value < 0 ){
+
+			value = 0;
+		}
+
+		int	bucket = 64 - Long.numberOfLeadingZeros( value );
+
+		if ( bucket >= NUM_BUCKETS ){
+
+			bucket = NUM_BUCKETS - 1;
+		}
+
+		buckets.incrementAndGet( bucket );
+
+		count.incrementAndGet();
+
+		total.addAndGet( value );
+
+		if ( value > max ){
+
+				// racy but only ever used for display
+
+			max = value;
+		}
+	}
+
+	public long
+	getCount()
+	{
+		return( count.get());
+	}
+
+	public String
+	getStatusString()
+	{
+		StringBuilder sb = new StringBuilder( 256 );
+
+		long	c = count.get();
+
+		sb.append( name ).append( " (" ).append( units ).append( "): count=" ).append( c );
+
+		if ( c > 0 ){
+
+			sb.append( ", avg=" ).append( total.get()/c ).append( ", max=" ).append( max );
+
+			sb.append( ", p50=" ).append( getPercentile( 50 ));
+			sb.append( ", p90=" ).append( getPercentile( 90 ));
+			sb.append( ", p99=" ).append( getPercentile( 99 ));
+
+			sb.append( " [" );
+
+			boolean	first = true;
+
+			for ( int i=0;i<NUM_BUCKETS;i++){
+
+				long	num = buckets.get( i );
+
+				if ( num > 0 ){
+
+					if ( first ){
+
+						first = false;
+
+					}else{
+
+						sb.append( " " );
+					}
+
+					sb.append( "<" ).append( i==NUM_BUCKETS-1?"inf":String.valueOf( 1L<<i )).append( ":" ).append( num );
+				}
+			}
+
+			sb.append( "]" );
+		}
+
+		return( sb.toString());
+	}
+
+		/**
+		 * @return the upper bound of the bucket containing the given percentile
+		 */
+
+	private long
+	getPercentile(
+		int		percent )
+	{
+		long	c = count.get();
+
+		long	target = ( c * percent + 99 ) / 100;
+
+		long	seen = 0;
+
+		for ( int i=0;i<NUM_BUCKETS;i++){
+
+			seen += buckets.get( i );
+
+			if ( seen >= target ){
+
+				return( i==NUM_BUCKETS-1?max:( 1L<<i ));
+			}
+		}
+
+		return( max );
+	}
+}
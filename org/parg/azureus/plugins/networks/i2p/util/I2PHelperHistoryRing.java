@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.util;
+
+/**
+ * Fixed size history of values with a time each, newest first. Once full each addition
+ * overwrites the oldest entry, nothing is allocated after construction.
+ *
+ * Not thread safe, callers synchronize on the ring.
+ */
+
+public class
+I2PHelperHistoryRing<T>
+{
+	private final T[]		values;
+	private final long[]	times;
+
+	private int		head;		// index of the newest entry
+	private int		size;
+
+	@SuppressWarnings("unchecked")
+	public
+	I2PHelperHistoryRing(
+		int		capacity )
+	{
+		values	= (T[])new Object[capacity];
+		times	= new long[capacity];
+	}
+
+	public void
+	addFirst(
+		T		value,
+		long	time )
+	{
+		head = ( head == 0?values.length:head ) - 1;
+
+		values[head]	= value;
+		times[head]		= time;
+
+		if ( size < values.length ){
+
+			size++;
+		}
+	}
+
+	public int
+	size()
+	{
+		return( size );
+	}
+
+	public boolean
+	isFull()
+	{
+		return( size == values.length );
+	}
+
+		/**
+		 * @param index	0 for the newest
+		 */
+
+	public T
+	get(
+		int		index )
+	{
+		return( values[ slot( index )]);
+	}
+
+	public long
+	getTime(
+		int		index )
+	{
+		return( times[ slot( index )]);
+	}
+
+	private int
+	slot(
+		int		index )
+	{
+		if ( index < 0 || index >= size ){
+
+			throw( new IndexOutOfBoundsException( "index=" + index + ", size=" + size ));
+		}
+
+		return(( head + index ) % values.length );
+	}
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import com.biglybt.core.util.Debug;
+import com.biglybt.core.util.SystemTime;
+
+/**
+ * Sorted, memory-mapped index over a "host=value" text file. The index is built once
+ * from the source file and rebuilt whenever the source's mtime or length changes.
+ * Lookups are a binary search over absolute buffer reads so they take no locks and
+ * allocate nothing except for the returned value.
+ *
+ * Layout: magic, version, source mtime, source length, entry count, entry offsets[count],
+ * then for each entry (sorted by unsigned host bytes): host_len(u16), host, value_len(u16), value
+ */
+
+public class
+I2PHelperHostnameIndex
+{
+	private static final int	MAGIC		= 0x49324858;	// I2HX
+	private static final int	VERSION		= 2;	// 2: first entry wins for duplicate hosts
+
+	private static final int	HEADER_SIZE	= 4 + 4 + 8 + 8 + 4;
+
+	private static final int	SOURCE_CHECK_PERIOD	= 30*1000;
+
+	private final File		source_file;
+	private final File		index_dir;
+	private final String	index_prefix;
+
+	private final Object	build_lock = new Object();
+
+	private volatile Table	table;
+
+	private volatile long	last_source_check	= -1;
+
+	public
+	I2PHelperHostnameIndex(
+		File		_source_file )
+	{
+		source_file		= _source_file;
+		index_dir		= source_file.getParentFile();
+		index_prefix	= source_file.getName() + ".";
+	}
+
+	public String
+	lookup(
+		String		host )
+	{
+		Table t = getTable();
+
+		if ( t == null ){
+
+			return( null );
+		}
+
+		return( t.lookup( host ));
+	}
+
+	public int
+	size()
+	{
+		Table t = table;
+
+		return( t==null?0:t.count );
+	}
+
+	private Table
+	getTable()
+	{
+		Table	t = table;
+
+		long	now = SystemTime.getMonotonousTime();
+
+		if ( t != null && now - last_source_check < SOURCE_CHECK_PERIOD ){
+
+			return( t );
+		}
+
+		last_source_check = now;
+
+		long	mtime;
+		long	length;
+
+		if ( source_file.exists()){
+
+			mtime	= source_file.lastModified();
+			length	= source_file.length();
+
+		}else{
+
+				// source has gone away, keep serving whatever we have
+
+			return( t );
+		}
+
+		if ( t != null && t.source_mtime == mtime && t.source_length == length ){
+
+			return( t );
+		}
+
+		synchronized( build_lock ){
+
+			t = table;
+
+			if ( t != null && t.source_mtime == mtime && t.source_length == length ){
+
+				return( t );
+			}
+
+			try{
+				t = openOrBuild( mtime, length );
+
+				table = t;
+
+			}catch( Throwable e ){
+
+				Debug.out( "Failed to build hostname index for " + source_file, e );
+			}
+
+			return( table );
+		}
+	}
+
+	private Table
+	openOrBuild(
+		long		mtime,
+		long		length )
+
+		throws IOException
+	{
+			// index file name includes the source mtime so a rebuild never has to replace a
+			// file that may still be mapped (which fails on Windows)
+
+		String	index_name = index_prefix + Long.toString( mtime, 16 ) + ".idx";
+
+		File	index_file = new File( index_dir, index_name );
+
+		if ( index_file.exists()){
+
+			try{
+				Table t = new Table( map( index_file ));
+
+				if ( t.source_mtime == mtime && t.source_length == length ){
+
+					return( t );
+				}
+			}catch( Throwable e ){
+
+					// corrupt, rebuild below
+			}
+
+			index_file.delete();
+		}
+
+		byte[]	index_bytes = build( mtime, length );
+
+		Table	result = null;
+
+		File tmp_file = new File( index_dir, index_name + ".tmp" );
+
+		try{
+			tmp_file.delete();
+
+			FileOutputStream fos = new FileOutputStream( tmp_file );
+
+			try{
+				fos.write( index_bytes );
+
+			}finally{
+
+				fos.close();
+			}
+
+			if ( tmp_file.renameTo( index_file )){
+
+				result = new Table( map( index_file ));
+			}
+		}catch( Throwable e ){
+
+				// plugin dir not writable or similar, fall back to a heap copy
+
+		}finally{
+
+			if ( tmp_file.exists()){
+
+				tmp_file.delete();
+			}
+		}
+
+		if ( result == null ){
+
+			result = new Table( ByteBuffer.wrap( index_bytes ));
+		}
+
+		File[] files = index_dir.listFiles();
+
+		if ( files != null ){
+
+			for ( File f: files ){
+
+				String name = f.getName();
+
+				if ( 	name.startsWith( index_prefix ) &&
+						name.endsWith( ".idx" ) &&
+						!name.equals( index_name )){
+
+						// may fail if still mapped, we'll get it next time
+
+					f.delete();
+				}
+			}
+		}
+
+		return( result );
+	}
+
+	private static ByteBuffer
+	map(
+		File		file )
+
+		throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+
+		try{
+			FileChannel channel = raf.getChannel();
+
+				// mapping remains valid after the channel is closed
+
+			return( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+
+		}finally{
+
+			raf.close();
+		}
+	}
+
+	private byte[]
+	build(
+		long		mtime,
+		long		length )
+
+		throws IOException
+	{
+		Map<String,String>	entries = new HashMap<>();
+
+		LineNumberReader	lnr = new LineNumberReader( new InputStreamReader( new FileInputStream( source_file ), StandardCharsets.UTF_8 ));
+
+		try{
+			while( true ){
+
+				String line = lnr.readLine();
+
+				if ( line == null ){
+
+					break;
+				}
+
+				line = line.trim();
+
+				if ( line.startsWith( "#" )){
+
+					continue;
+				}
+
+				int	pos = line.indexOf( '=' );
+
+				if ( pos > 0 ){
+
+						// a scan of the file resolves to the first entry for a host, keep that
+
+					entries.putIfAbsent( line.substring( 0, pos ), line.substring( pos+1 ));
+				}
+			}
+		}finally{
+
+			lnr.close();
+		}
+
+		List<byte[][]>	sorted = new ArrayList<>( entries.size());
+
+		int	data_size = 0;
+
+		for ( Map.Entry<String,String> entry: entries.entrySet()){
+
+			byte[]	host	= entry.getKey().getBytes( StandardCharsets.UTF_8 );
+			byte[]	value	= entry.getValue().getBytes( StandardCharsets.UTF_8 );
+
+			if ( host.length > 0xffff || value.length > 0xffff ){
+
+				continue;
+			}
+
+			sorted.add( new byte[][]{ host, value });
+
+			data_size += 2 + host.length + 2 + value.length;
+		}
+
+		Collections.sort(
+			sorted,
+			new Comparator<byte[][]>()
+			{
+				@Override
+				public int
+				compare(
+					byte[][] 	o1,
+					byte[][] 	o2 )
+				{
+					return( compareBytes( o1[0], o2[0] ));
+				}
+			});
+
+		int	count = sorted.size();
+
+		ByteBuffer	buffer = ByteBuffer.allocate( HEADER_SIZE + count*4 + data_size );
+
+		buffer.putInt( MAGIC );
+		buffer.putInt( VERSION );
+		buffer.putLong( mtime );
+		buffer.putLong( length );
+		buffer.putInt( count );
+
+		int	offset = HEADER_SIZE + count*4;
+
+		for ( byte[][] entry: sorted ){
+
+			buffer.putInt( offset );
+
+			offset += 2 + entry[0].length + 2 + entry[1].length;
+		}
+
+		for ( byte[][] entry: sorted ){
+
+			buffer.putShort((short)entry[0].length );
+			buffer.put( entry[0] );
+			buffer.putShort((short)entry[1].length );
+			buffer.put( entry[1] );
+		}
+
+		return( buffer.array());
+	}
+
+	private static int
+	compareBytes(
+		byte[]		b1,
+		byte[]		b2 )
+	{
+		int	len = Math.min( b1.length, b2.length );
+
+		for ( int i=0;i<len;i++){
+
+			int	diff = (b1[i]&0xff) - (b2[i]&0xff);
+
+			if ( diff != 0 ){
+
+				return( diff );
+			}
+		}
+
+		return( b1.length - b2.length );
+	}
+
+	private static class
+	Table
+	{
+		private final ByteBuffer	buffer;
+		private final long			source_mtime;
+		private final long			source_length;
+		private final int			count;
+
+		private
+		Table(
+			ByteBuffer		_buffer )
+
+			throws IOException
+		{
+			buffer	= _buffer;
+
+			if ( 	buffer.capacity() < HEADER_SIZE ||
+					buffer.getInt( 0 ) != MAGIC ||
+					buffer.getInt( 4 ) != VERSION ){
+
+				throw( new IOException( "Invalid index" ));
+			}
+
+			source_mtime	= buffer.getLong( 8 );
+			source_length	= buffer.getLong( 16 );
+			count			= buffer.getInt( 24 );
+
+			if ( count < 0 || HEADER_SIZE + (long)count*4 > buffer.capacity()){
+
+				throw( new IOException( "Invalid index" ));
+			}
+
+				// entries are laid out back to back in offset order, check they all are so that a
+				// truncated or damaged file gets rebuilt rather than failing lookups
+
+			long	expected = HEADER_SIZE + (long)count*4;
+
+			for ( int i=0;i<count;i++){
+
+				if ( buffer.getInt( HEADER_SIZE + i*4 ) != expected || expected + 2 > buffer.capacity()){
+
+					throw( new IOException( "Invalid index" ));
+				}
+
+				expected += 2 + ( buffer.getShort((int)expected )&0xffff );
+
+				if ( expected + 2 > buffer.capacity()){
+
+					throw( new IOException( "Invalid index" ));
+				}
+
+				expected += 2 + ( buffer.getShort((int)expected )&0xffff );
+			}
+
+			if ( expected != buffer.capacity()){
+
+				throw( new IOException( "Invalid index" ));
+			}
+		}
+
+		private String
+		lookup(
+			String		host )
+		{
+			byte[]	host_bytes = null;
+
+			int	host_len = host.length();
+
+			for ( int i=0;i<host_len;i++){
+
+				if ( host.charAt( i ) >= 0x80 ){
+
+						// rare, only pay for encoding when the name isn't ASCII
+
+					host_bytes = host.getBytes( StandardCharsets.UTF_8 );
+
+					break;
+				}
+			}
+
+			int	low		= 0;
+			int	high	= count - 1;
+
+			while( low <= high ){
+
+				int	mid = ( low + high ) >>> 1;
+
+				int	entry_offset = buffer.getInt( HEADER_SIZE + mid*4 );
+
+				int	cmp = host_bytes==null?compare( entry_offset, host ):compare( entry_offset, host_bytes );
+
+				if ( cmp < 0 ){
+
+					low = mid + 1;
+
+				}else if ( cmp > 0 ){
+
+					high = mid - 1;
+
+				}else{
+
+					int	value_offset	= entry_offset + 2 + ( buffer.getShort( entry_offset )&0xffff );
+					int	value_len		= buffer.getShort( value_offset )&0xffff;
+
+					byte[]	value = new byte[value_len];
+
+					for ( int i=0;i<value_len;i++){
+
+						value[i] = buffer.get( value_offset + 2 + i );
+					}
+
+					return( new String( value, StandardCharsets.UTF_8 ));
+				}
+			}
+
+			return( null );
+		}
+
+		private int
+		compare(
+			int			entry_offset,
+			String		host )
+		{
+			int	entry_len	= buffer.getShort( entry_offset )&0xffff;
+			int	host_len	= host.length();
+
+			int	len = Math.min( entry_len, host_len );
+
+			int	pos = entry_offset + 2;
+
+			for ( int i=0;i<len;i++){
+
+				int	diff = (buffer.get( pos+i )&0xff) - host.charAt( i );
+
+				if ( diff != 0 ){
+
+					return( diff );
+				}
+			}
+
+			return( entry_len - host_len );
+		}
+
+		private int
+		compare(
+			int			entry_offset,
+			byte[]		host )
+		{
+			int	entry_len	= buffer.getShort( entry_offset )&0xffff;
+
+			int	len = Math.min( entry_len, host.length );
+
+			int	pos = entry_offset + 2;
+
+			for ( int i=0;i<len;i++){
+
+				int	diff = (buffer.get( pos+i )&0xff) - (host[i]&0xff);
+
+				if ( diff != 0 ){
+
+					return( diff );
+				}
+			}
+
+			return( entry_len - host.length );
+		}
+	}
+}
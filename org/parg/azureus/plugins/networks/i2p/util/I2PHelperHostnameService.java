@@ -24,12 +24,17 @@ package org.parg.azureus.plugins.networks.i2p.util;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import org.gudy.bouncycastle.util.encoders.Base64;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperPlugin;
 
 import com.biglybt.core.util.AENetworkClassifier;
+import com.biglybt.core.util.AEThread2;
 import com.biglybt.core.util.BDecoder;
 import com.biglybt.core.util.Debug;
 import com.biglybt.core.util.SimpleTimer;
@@ -57,9 +62,30 @@ I2PHelperHostnameService
 	private File				dnsfeed_base_file;
 	private File				dnsfeed_file;
 	
-	private Map<String,String>	result_cache = new HashMap<String, String>();
+	private I2PHelperHostnameIndex	i2hostetag_index;
+	private I2PHelperHostnameIndex	dnsfeed_base_index;
 	
-	private Map<String,String>	dnsfeed_cache = null;
+	private static final int	RESULT_CACHE_MAX		= 1024;
+	private static final int	RESULT_CACHE_TTL		= 30*60*1000;
+	private static final int	RESULT_CACHE_NEG_TTL	= 5*60*1000;
+	
+	private static final String	NOT_FOUND = new String( "" );	// identity compared
+	
+	private I2PHelperTTLCache<String,String>	result_cache = new I2PHelperTTLCache<>( "Hostname cache", RESULT_CACHE_MAX );
+	
+	private static final int	DNSFEED_COMPACT_MIN_LINES	= 1024;
+	
+		// dnsfeed.txt is an append-only journal of feed entries, compacted in the background
+		// when it accumulates too many superseded lines. Readers only touch dnsfeed_cache.
+	
+	private final Map<String,String>	dnsfeed_cache = new ConcurrentHashMap<>();
+	
+	private final Object	dnsfeed_lock = new Object();
+	
+	private volatile boolean	dnsfeed_loaded;
+	
+	private int					dnsfeed_journal_lines;
+	private boolean				dnsfeed_compacting;
 	
 	public
 	I2PHelperHostnameService(
@@ -71,6 +97,9 @@ I2PHelperHostnameService
 		dnsfeed_base_file	= new File( plugin_dir, "dnsfeed_base.txt" );
 		dnsfeed_file	 	= new File( plugin_dir, "dnsfeed.txt" );
 		
+		i2hostetag_index	= new I2PHelperHostnameIndex( i2hostetag_file );
+		dnsfeed_base_index	= new I2PHelperHostnameIndex( dnsfeed_base_file );
+		
 		SimpleTimer.addEvent(
 			"init",
 			SystemTime.getOffsetTime( 60*1000 ),
@@ -121,21 +150,6 @@ I2PHelperHostnameService
 					}
 				}
 			});
-		
-		SimpleTimer.addPeriodicEvent(
-			"tidy",
-			2*60*1000,
-			new TimerEventPerformer(){
-				
-				@Override
-				public void perform(TimerEvent event){
-				
-					synchronized( I2PHelperHostnameService.this ){
-						
-						dnsfeed_cache = null;
-					}
-				}
-			});
 	}
 
 	public String
@@ -149,209 +163,249 @@ I2PHelperHostnameService
 			return( null );
 		}
 
-		String result = lookupDNSFeed( hostname );
+		hostname = hostname.substring( 0, hostname.length() - 4 );
+		
+		String result = result_cache.get( hostname );
 		
 		if ( result != null ){
 			
-			return( result );
+			return( result==NOT_FOUND?null:result );
 		}
 		
-		return( lookupI2hostetag( hostname ));
+		result = lookupDNSFeed( hostname );
+		
+		if ( result == null ){
+			
+			result = lookupI2hostetag( hostname );
+		}
+		
+		if ( result == null ){
+			
+			result_cache.put( hostname, NOT_FOUND, RESULT_CACHE_NEG_TTL );
+			
+		}else{
+			
+			result_cache.put( hostname, result, RESULT_CACHE_TTL );
+			
+			plugin.log( "Resolved " + hostname + " to " + ( result.length() > 64?( result.substring( 0, 32 ) + "..." ):result ));
+		}
+		
+		return( result );
+	}
+	
+	public String
+	getStatusString()
+	{
+		return( result_cache.getStatusString());
 	}
 	
-	private Map<String,String>
+	private void
 	loadDNSFeedCache()
 	{
-		synchronized( this ){
+		if ( dnsfeed_loaded ){
+			
+			return;
+		}
+		
+		synchronized( dnsfeed_lock ){
 						
-			if ( dnsfeed_cache == null ){
+			if ( dnsfeed_loaded ){
 				
-				dnsfeed_cache = new HashMap<>();
+				return;
+			}
+			
+				// dnsfeed_base is served from its index, only the feed-learned entries are loaded here
 				
-				if ( dnsfeed_base_file.exists()){
+			int	lines = 0;
+			
+			if ( dnsfeed_file.exists()){				
+
+				try{
+					LineNumberReader	lnr = new LineNumberReader( new InputStreamReader( new FileInputStream( dnsfeed_file ), "UTF-8" ));
 					
 					try{
-						LineNumberReader	lnr = new LineNumberReader( new FileReader( dnsfeed_base_file ));
-						
-						try{
-							while( true ){
-								
-								String line = lnr.readLine();
-								
-								if ( line == null ){
-									
-									break;
-								}
-																
-								line = line.trim();
-								
-								if ( line.startsWith( "#" )){
-									
-									continue;
-								}
-								
-								String[] bits = line.split( "=", 2 );
+						while( true ){
+							
+							String line = lnr.readLine();
+							
+							if ( line == null ){
 								
-								if ( bits.length == 2 ){
-									
-									String host = bits[0];
-									String dest	= bits[1];
-									
-									dnsfeed_cache.put( host,  dest );
-								}
+								break;
 							}
-						}catch( Throwable e ){
+														
+							line = line.trim();
 							
-							Debug.out( e );
+							if ( line.startsWith( "#" )){
+								
+								continue;
+							}
 							
-						}finally{
+							int	pos = line.indexOf( '=' );
 							
-							lnr.close();
+							if ( pos > 0 ){
+								
+								dnsfeed_cache.put( line.substring( 0, pos ), line.substring( pos+1 ));
+								
+								lines++;
+							}
 						}
-					}catch( Throwable e ){
+					}finally{
 						
-						Debug.out( e );
+						lnr.close();
 					}
+				}catch( Throwable e ){
+					
+					Debug.out( e );
 				}
+			}
+			
+			dnsfeed_journal_lines = lines;
+			
+			dnsfeed_loaded = true;
+			
+			checkDNSFeedCompaction();
+		}
+	}
+	
+	private void
+	appendDNSFeed(
+		String		host,
+		String		dest )
+	
+		throws IOException
+	{
+		synchronized( dnsfeed_lock ){
+			
+			PrintWriter pw = new PrintWriter( new OutputStreamWriter( new FileOutputStream( dnsfeed_file, true ), "UTF-8" ));
+			
+			try{
+				pw.println( host + "=" + dest );
+				
+			}finally{
 				
-				if ( dnsfeed_file.exists()){				
+				pw.close();
+			}
+			
+			dnsfeed_cache.put( host, dest );
 
-					Set<String>		dup_set		= new HashSet<>();
-					Set<Integer>	dup_lines 	= new HashSet<>();
+			dnsfeed_journal_lines++;
+			
+			checkDNSFeedCompaction();
+		}
+	}
+	
+	private void
+	checkDNSFeedCompaction()
+	{
+			// called with dnsfeed_lock held
+		
+		if ( dnsfeed_compacting ){
+			
+			return;
+		}
+		
+		if ( dnsfeed_journal_lines < Math.max( DNSFEED_COMPACT_MIN_LINES, dnsfeed_cache.size() * 2 )){
+			
+			return;
+		}
+		
+		dnsfeed_compacting = true;
+		
+		new AEThread2( "I2PHelperHostnameService:compact" )
+		{
+			@Override
+			public void
+			run()
+			{
+				try{
+					compactDNSFeed();
 					
-					try{
-						int	line_number = 0;
+				}catch( Throwable e ){
+					
+					Debug.out( e );
+					
+				}finally{
+					
+					synchronized( dnsfeed_lock ){
+						
+						dnsfeed_compacting = false;
+					}
+				}
+			}
+		}.start();
+	}
+	
+	private void
+	compactDNSFeed()
+	
+		throws IOException
+	{
+			// bulk of the rewrite happens without the lock, entries appended meanwhile are
+			// picked up when the new file is swapped in
+		
+		Map<String,String>	snapshot = new HashMap<>( dnsfeed_cache );
+		
+		File tmp_file = new File( dnsfeed_file.getParentFile(), dnsfeed_file.getName() + ".tmp" );
+		
+		tmp_file.delete();
+		
+		PrintWriter pw = new PrintWriter( new OutputStreamWriter( new FileOutputStream( tmp_file, false ), "UTF-8" ));
+		
+		try{
+			int	lines = 0;
+			
+			try{
+				for ( Map.Entry<String,String> entry: snapshot.entrySet()){
+					
+					pw.println( entry.getKey() + "=" + entry.getValue());
+					
+					lines++;
+				}
+				
+				synchronized( dnsfeed_lock ){
+					
+					for ( Map.Entry<String,String> entry: dnsfeed_cache.entrySet()){
 						
-						LineNumberReader	lnr = new LineNumberReader( new FileReader( dnsfeed_file ));
+						String	host	= entry.getKey();
+						String	dest	= entry.getValue();
 						
-						try{
-							while( true ){
-								
-								String line = lnr.readLine();
-								
-								if ( line == null ){
-									
-									break;
-								}
-								
-								line_number++;
-								
-								line = line.trim();
-								
-								if ( line.startsWith( "#" )){
-									
-									continue;
-								}
-								
-								String[] bits = line.split( "=", 2 );
-								
-								if ( bits.length == 2 ){
-									
-									String host = bits[0];
-									String dest	= bits[1];
-									
-									dnsfeed_cache.put( host,  dest );
-									
-									if ( dup_set.contains( line )){
-											
-										dup_lines.add( line_number );
-										
-									}else{
-										
-										dup_set.add( line );
-									}
-								}
-							}
-						}catch( Throwable e ){
+						if ( !dest.equals( snapshot.get( host ))){
 							
-							Debug.out( e );
+							pw.println( host + "=" + dest );
 							
-						}finally{
-							
-							lnr.close();
+							lines++;
 						}
+					}
+					
+					pw.close();
+					
+					pw = null;
+					
+						// replace in one step, on failure the existing feed is left as it was
+					
+					try{
+						Files.move( tmp_file.toPath(), dnsfeed_file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
 						
-						if ( !dup_lines.isEmpty()){
-							
-							line_number = 0;
+					}catch( AtomicMoveNotSupportedException e ){
 						
-							File tmp_file = new File( dnsfeed_file.getParentFile(), dnsfeed_file.getName() + ".tmp" );
-							
-							tmp_file.delete();
-															
-							lnr = new LineNumberReader( new FileReader( dnsfeed_file ));
-								
-							PrintWriter pw = new PrintWriter( new OutputStreamWriter( new FileOutputStream( tmp_file, false ), "UTF-8" ));
-								
-							try{
-								while( true ){
-									
-									String line = lnr.readLine();
-									
-									if ( line == null ){
-										
-										break;
-									}
-									
-									line_number++;
-									
-									line = line.trim();
-									
-									if ( !dup_lines.contains( line_number )){
-										
-										pw.println( line );
-									}
-								}
-								
-								
-								pw.close();
-								
-								pw = null;
-								
-								lnr.close();
-								
-								lnr = null;
-
-								dnsfeed_file.delete();
-								
-								tmp_file.renameTo( dnsfeed_file );
-								
-							}catch( Throwable e ){
-								
-								Debug.out( e );
-								
-							}finally{
-								
-								if ( lnr != null ){
-									try{
-										lnr.close();
-									}catch( Throwable e ){
-										Debug.out( e );
-									}
-								}
-								
-								if ( pw != null ){
-									try{
-										pw.close();
-									}catch( Throwable e ){
-										Debug.out( e );
-									}
-								}
-								
-								if ( tmp_file.exists()){
-									
-									tmp_file.delete();
-								}
-							}
-						}
-					}catch( Throwable e ){
-						
-						Debug.out( e );
+						Files.move( tmp_file.toPath(), dnsfeed_file.toPath(), StandardCopyOption.REPLACE_EXISTING );
 					}
+					
+					dnsfeed_journal_lines = lines;
+				}
+			}finally{
+				
+				if ( pw != null ){
+					
+					pw.close();
 				}
 			}
+		}finally{
 			
-			return( dnsfeed_cache );
+			if ( tmp_file.exists()){
+				
+				tmp_file.delete();
+			}
 		}
 	}
 	
@@ -389,27 +443,25 @@ I2PHelperHostnameService
 			
 			if ( host_prefix != null ){
 				
-				synchronized( this ){
-					
-					Map<String,String> cache = loadDNSFeedCache();
-					
-					String existing = cache.get( host_prefix );
+				loadDNSFeedCache();
+				
+				String existing = dnsfeed_cache.get( host_prefix );
+				
+				if ( existing == null ){
 					
-					if ( existing != null && existing.equals( dest_str )){
-						
-						return;
-					}
-						
-					PrintWriter pw = new PrintWriter( new OutputStreamWriter( new FileOutputStream( dnsfeed_file.getAbsolutePath(), true ), "UTF-8" ));
-						
-					pw.println( host_prefix + "=" + dest_str );
-						
-					pw.close();
-						
-					cache.put( host_prefix, dest_str );
+					existing = dnsfeed_base_index.lookup( host_prefix );
+				}
+				
+				if ( existing != null && existing.equals( dest_str )){
 					
-					result_cache.put( host_prefix, dest_str );
+					return;
 				}
+				
+				appendDNSFeed( host_prefix, dest_str );
+				
+					// replaces any stale positive or negative result
+				
+				result_cache.put( host_prefix, dest_str, RESULT_CACHE_TTL );
 			}
 			
 		}catch( Throwable e ){
@@ -422,105 +474,35 @@ I2PHelperHostnameService
 	lookupDNSFeed(
 		String	hostname )
 	{
-		synchronized( this ){
+		if ( !dnsfeed_file.exists()){
 			
-			if ( !dnsfeed_file.exists()){
-				
-				return( null );
-			}
+			return( null );
+		}
 				
-			hostname = hostname.substring( 0, hostname.length() - 4 );
+		loadDNSFeedCache();
 		
-			String result = result_cache.get( hostname );
-			
-			if ( result != null ){
-				
-				return( result );
-			}
+		String result = dnsfeed_cache.get( hostname );
 			
-			Map<String,String> cache = loadDNSFeedCache();
-				
-			result = cache.get( hostname );
-				
-			if ( result != null ){
-							
-				result_cache.put( hostname, result );
-				
-				plugin.log( "Resolved " + hostname + " to " + result.substring( 0, 32 ) + "..." );
-			}
+		if ( result != null ){
 			
 			return( result );
 		}
+		
+		return( dnsfeed_base_index.lookup( hostname ));
 	}
 	
 	private String
 	lookupI2hostetag(
 		String	hostname )
 	{
-		if ( !i2hostetag_file.exists()){
-			
-			return( null );
-		}	
+		String result = i2hostetag_index.lookup( hostname );
 		
-		hostname = hostname.substring( 0, hostname.length() - 4 );
-		
-		synchronized( this ){
-			
-			String existing = result_cache.get( hostname );
-			
-			if ( existing != null ){
-				
-				return( existing );
-			}
+		if ( result == null ){
 			
-			try{
-				LineNumberReader	lnr = new LineNumberReader( new FileReader( i2hostetag_file ));
-				
-				try{
-					while( true ){
-						
-						String line = lnr.readLine();
-						
-						if ( line == null ){
-							
-							break;
-						}
-						
-						line = line.trim();
-						
-						if ( line.startsWith( "#" )){
-							
-							continue;
-						}
-						
-						String[] bits = line.split( "=", 2 );
-						
-						if ( bits.length == 2 ){
-							
-							String 	lhs = bits[0];
-							
-							if ( lhs.equals( hostname )){
-								
-								String result = bits[1] + ".b32.i2p";
-								
-								result_cache.put( hostname, result );
-								
-								plugin.log( "Resolved " + hostname + " to " + result );
-								
-								return( result );
-							}
-						}
-					}
-				}finally{
-					
-					lnr.close();
-				}
-			}catch( Throwable e ){
-				
-			}
+			return( null );
 		}
 		
-		return( null );
+		return( result + ".b32.i2p" );
 	}
 	
 	public static void
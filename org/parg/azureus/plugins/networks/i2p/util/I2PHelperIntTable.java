@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.util;
+
+import com.biglybt.core.util.SystemTime;
+
+/**
+ * Concurrent map from int keys to values that expire at a deadline, for things like
+ * transaction ids. Keys are held unboxed in open addressed tables, one per stripe, each with
+ * its own lock so unrelated keys don't contend.
+ *
+ * Expired entries are never returned. They are cleared out of a stripe when it is next
+ * updated after its earliest deadline has passed, no more than once per EXPIRY_GRANULARITY,
+ * rather than by a periodic walk of everything.
+ */
+
+public class
+I2PHelperIntTable<V>
+{
+	private static final int	STRIPES				= 16;
+	private static final int	INITIAL_CAPACITY	= 16;
+
+	private static final long	EXPIRY_GRANULARITY	= 5*1000;
+
+	private final Stripe<V>[]	stripes;
+
+	@SuppressWarnings("unchecked")
+	public
+	I2PHelperIntTable()
+	{
+		stripes = new Stripe[STRIPES];
+
+		for ( int i=0;i<STRIPES;i++){
+
+			stripes[i] = new Stripe<>();
+		}
+	}
+
+	private static int
+	hash(
+		int		key )
+	{
+		int	h = key * 0x9e3779b9;
+
+		return( h ^ ( h >>> 16 ));
+	}
+
+	private Stripe<V>
+	getStripe(
+		int		hash )
+	{
+			// top bits pick the stripe, the slot within it comes from the low ones
+
+		return( stripes[ hash >>> 28 ]);
+	}
+
+		/**
+		 * @param deadline	monotonous time after which the entry is treated as absent
+		 * @return false if a live entry for the key exists already
+		 */
+
+	public boolean
+	putIfAbsent(
+		int			key,
+		V			value,
+		long		deadline )
+	{
+		int	hash = hash( key );
+
+		Stripe<V>	stripe = getStripe( hash );
+
+		synchronized( stripe ){
+
+			long	now = SystemTime.getMonotonousTime();
+
+			stripe.expire( now );
+
+			int	slot = stripe.find( key, hash );
+
+			if ( slot != -1 ){
+
+				if ( stripe.deadlines[slot] - now > 0 ){
+
+					return( false );
+				}
+
+				stripe.removeAt( slot );
+			}
+
+			stripe.insert( key, hash, value, deadline );
+
+			return( true );
+		}
+	}
+
+	public V
+	get(
+		int		key )
+	{
+		int	hash = hash( key );
+
+		Stripe<V>	stripe = getStripe( hash );
+
+		synchronized( stripe ){
+
+			int	slot = stripe.find( key, hash );
+
+			if ( slot == -1 || stripe.deadlines[slot] - SystemTime.getMonotonousTime() <= 0 ){
+
+				return( null );
+			}
+
+			return( stripe.values[slot] );
+		}
+	}
+
+	public boolean
+	containsKey(
+		int		key )
+	{
+		return( get( key ) != null );
+	}
+
+	public V
+	remove(
+		int		key )
+	{
+		int	hash = hash( key );
+
+		Stripe<V>	stripe = getStripe( hash );
+
+		synchronized( stripe ){
+
+			long	now = SystemTime.getMonotonousTime();
+
+			int	slot = stripe.find( key, hash );
+
+			V	result = null;
+
+			if ( slot != -1 ){
+
+				if ( stripe.deadlines[slot] - now > 0 ){
+
+					result = stripe.values[slot];
+				}
+
+				stripe.removeAt( slot );
+			}
+
+			stripe.expire( now );
+
+			return( result );
+		}
+	}
+
+		/**
+		 * @return number of entries held, may include expired ones not yet cleared
+		 */
+
+	public int
+	size()
+	{
+		int	size = 0;
+
+		for ( Stripe<V> stripe: stripes ){
+
+			synchronized( stripe ){
+
+				size += stripe.size;
+			}
+		}
+
+		return( size );
+	}
+
+	private static class
+	Stripe<V>
+	{
+			// linear probing, a null value marks a free slot
+
+		private int[]		keys;
+		private V[]			values;
+		private long[]		deadlines;
+
+		private int			size;
+
+		private long		next_expiry	= Long.MAX_VALUE;
+
+		private
+		Stripe()
+		{
+			allocate( INITIAL_CAPACITY );
+		}
+
+		@SuppressWarnings("unchecked")
+		private void
+		allocate(
+			int		capacity )
+		{
+			keys		= new int[capacity];
+			values		= (V[])new Object[capacity];
+			deadlines	= new long[capacity];
+		}
+
+		private int
+		find(
+			int		key,
+			int		hash )
+		{
+			int	mask = keys.length - 1;
+
+			for ( int slot=hash&mask;values[slot]!=null;slot=(slot+1)&mask ){
+
+				if ( keys[slot] == key ){
+
+					return( slot );
+				}
+			}
+
+			return( -1 );
+		}
+
+		private void
+		insert(
+			int		key,
+			int		hash,
+			V		value,
+			long	deadline )
+		{
+			if (( size + 1 )*2 > keys.length ){
+
+				rehash( keys.length*2, SystemTime.getMonotonousTime());
+			}
+
+			int	mask = keys.length - 1;
+
+			int	slot = hash&mask;
+
+			while( values[slot] != null ){
+
+				slot = (slot+1)&mask;
+			}
+
+			keys[slot]		= key;
+			values[slot]	= value;
+			deadlines[slot]	= deadline;
+
+			size++;
+
+			if ( deadline - next_expiry < 0 ){
+
+				next_expiry = deadline;
+			}
+		}
+
+		private void
+		removeAt(
+			int		slot )
+		{
+			int	mask = keys.length - 1;
+
+			values[slot] = null;
+
+			size--;
+
+				// shift back any following entries that probed past the freed slot
+
+			int	free = slot;
+
+			for ( int i=(slot+1)&mask;values[i]!=null;i=(i+1)&mask ){
+
+				int	home = hash( keys[i] )&mask;
+
+				boolean	in_place = free<=i?( free < home && home <= i ):( free < home || home <= i );
+
+				if ( !in_place ){
+
+					keys[free]		= keys[i];
+					values[free]	= values[i];
+					deadlines[free]	= deadlines[i];
+
+					values[i] = null;
+
+					free = i;
+				}
+			}
+		}
+
+		private void
+		expire(
+			long	now )
+		{
+			if ( next_expiry - now > 0 ){
+
+				return;
+			}
+
+			int	capacity = keys.length;
+
+			while( capacity > INITIAL_CAPACITY && size*8 < capacity ){
+
+				capacity /= 2;
+			}
+
+			rehash( capacity, now );
+
+			if ( next_expiry - now < EXPIRY_GRANULARITY ){
+
+				next_expiry = now + EXPIRY_GRANULARITY;
+			}
+		}
+
+			/**
+			 * Rebuilds the table dropping entries with deadlines at or before now
+			 */
+
+		private void
+		rehash(
+			int		capacity,
+			long	now )
+		{
+			int[]		old_keys		= keys;
+			V[]			old_values		= values;
+			long[]		old_deadlines	= deadlines;
+
+			allocate( capacity );
+
+			size		= 0;
+			next_expiry	= Long.MAX_VALUE;
+
+			for ( int i=0;i<old_keys.length;i++){
+
+				if ( old_values[i] != null && old_deadlines[i] - now > 0 ){
+
+					insert( old_keys[i], hash( old_keys[i] ), old_values[i], old_deadlines[i] );
+				}
+			}
+		}
+	}
+}
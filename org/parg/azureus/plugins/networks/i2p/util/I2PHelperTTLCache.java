@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.biglybt.core.util.SystemTime;
+
+/**
+ * Size-bounded concurrent cache with a per-entry time-to-live. Once the cache is full the
+ * oldest insertions are evicted first. Reads take no locks.
+ */
+
+public class
+I2PHelperTTLCache<K,V>
+{
+	private final String	name;
+	private final int		max_size;
+
+	private final ConcurrentHashMap<K,Entry<K,V>>	map = new ConcurrentHashMap<>();
+
+		// insertion order for eviction, may contain entries that have since been replaced or removed
+
+	private final ConcurrentLinkedQueue<Entry<K,V>>	order = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger	order_size	= new AtomicInteger();
+
+	private final AtomicLong	hits		= new AtomicLong();
+	private final AtomicLong	misses		= new AtomicLong();
+	private final AtomicLong	evictions	= new AtomicLong();
+	private final AtomicLong	expirations	= new AtomicLong();
+
+	public
+	I2PHelperTTLCache(
+		String		_name,
+		int			_max_size )
+	{
+		name		= _name;
+		max_size	= _max_size;
+	}
+
+	public V
+	get(
+		K		key )
+	{
+		Entry<K,V> entry = map.get( key );
+
+		if ( entry != null ){
+
+			if ( entry.expiry - SystemTime.getMonotonousTime() > 0 ){
+
+				hits.incrementAndGet();
+
+				return( entry.value );
+			}
+
+			if ( map.remove( key, entry )){
+
+				expirations.incrementAndGet();
+			}
+		}
+
+		misses.incrementAndGet();
+
+		return( null );
+	}
+
+	public void
+	put(
+		K		key,
+		V		value,
+		long	ttl )
+	{
+		Entry<K,V> entry = new Entry<>( key, value, SystemTime.getMonotonousTime() + ttl );
+
+		map.put( key, entry );
+
+		order.add( entry );
+
+		if ( order_size.incrementAndGet() > max_size ){
+
+			trim();
+		}
+	}
+
+	public V
+	remove(
+		K		key )
+	{
+		Entry<K,V> entry = map.remove( key );
+
+		return( entry==null?null:entry.value );
+	}
+
+	public void
+	clear()
+	{
+		map.clear();
+	}
+
+	public int
+	size()
+	{
+		return( map.size());
+	}
+
+	private void
+	trim()
+	{
+		long	now = SystemTime.getMonotonousTime();
+
+		while( order_size.get() > max_size ){
+
+			Entry<K,V> entry = order.poll();
+
+			if ( entry == null ){
+
+				break;
+			}
+
+			order_size.decrementAndGet();
+
+			if ( map.remove( entry.key, entry )){
+
+				if ( entry.expiry - now > 0 ){
+
+					evictions.incrementAndGet();
+
+				}else{
+
+					expirations.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	public long
+	getHitCount()
+	{
+		return( hits.get());
+	}
+
+	public long
+	getMissCount()
+	{
+		return( misses.get());
+	}
+
+	public long
+	getEvictionCount()
+	{
+		return( evictions.get());
+	}
+
+	public String
+	getStatusString()
+	{
+		long	h = hits.get();
+		long	m = misses.get();
+
+		long	total = h + m;
+
+		return( name + ": size=" + map.size() + "/" + max_size +
+				", hits=" + h + ", misses=" + m +
+				", hit ratio=" + ( total==0?0:( h*100/total )) + "%" +
+				", evictions=" + evictions.get() + ", expired=" + expirations.get());
+	}
+
+	private static final class
+	Entry<K,V>
+	{
+		private final K		key;
+		private final V		value;
+		private final long	expiry;
+
+		private
+		Entry(
+			K		_key,
+			V		_value,
+			long	_expiry )
+		{
+			key		= _key;
+			value	= _value;
+			expiry	= _expiry;
+		}
+	}
+}
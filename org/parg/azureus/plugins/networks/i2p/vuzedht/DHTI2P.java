@@ -25,6 +25,8 @@ package org.parg.azureus.plugins.networks.i2p.vuzedht;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.i2p.client.I2PSession;
 import net.i2p.data.Base32;
@@ -44,6 +46,7 @@ import com.biglybt.core.util.TimerEventPeriodic;
 import com.biglybt.pif.PluginInterface;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperDHT;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperAdapter;
+import org.parg.azureus.plugins.networks.i2p.I2PHelperDHTBatch;
 import org.parg.azureus.plugins.networks.i2p.I2PHelperDHTListener;
 import org.parg.azureus.plugins.networks.i2p.router.I2PSMHolder;
 import org.parg.azureus.plugins.networks.i2p.snarkdht.NID;
@@ -96,7 +99,14 @@ DHTI2P
 	final int cache_check_period	= 1*60*1000;
 	final int cache_check_ticks		= cache_check_period / timer_period;
 
-	final int get_cache_expiry		= 1*60*1000;
+		// get results are shared for a while, longer when the swarm looks well populated as
+		// repeating the search is unlikely to turn up anything new. empty results are retained
+		// briefly to absorb bursts of identical requests
+	
+	final int get_cache_expiry			= 1*60*1000;
+	final int get_cache_expiry_empty	= 20*1000;
+	final int get_cache_expiry_max		= 5*60*1000;
+	final int get_cache_max				= 512;
 	
 	private int		bootstrap_check_tick_count	= 1;
 	private boolean	force_bootstrap;
@@ -108,7 +118,19 @@ DHTI2P
 	private int refresh_find_node_ok;
 	private int refresh_find_node_fail;
 	
-	private Map<String,GetCacheEntry>	get_cache = new HashMap<String, GetCacheEntry>();
+	private final ConcurrentHashMap<GetCacheKey,GetCacheEntry>	get_cache = new ConcurrentHashMap<>();
+	
+	private final Object		get_cache_trim_lock	= new Object();
+	
+	private final AtomicLong	get_cache_hits		= new AtomicLong();
+	private final AtomicLong	get_cache_coalesced	= new AtomicLong();
+	private final AtomicLong	get_cache_misses	= new AtomicLong();
+	private final AtomicLong	get_cache_evictions	= new AtomicLong();
+	
+	private final AtomicLong	batch_runs			= new AtomicLong();
+	private final AtomicLong	batch_ops			= new AtomicLong();
+	private final AtomicLong	batch_followers		= new AtomicLong();
+	private final AtomicLong	batch_merged		= new AtomicLong();
 	
 	private NodeInfo	my_node;
 	private String		my_address;
@@ -554,21 +576,121 @@ DHTI2P
 	private void
 	checkCache()
 	{
-		synchronized( get_cache ){
+		if ( get_cache.size() > 0 ){
+		
+			long now = SystemTime.getMonotonousTime();
 			
-			if ( get_cache.size() > 0 ){
+			Iterator<GetCacheEntry>	it = get_cache.values().iterator();
 			
-				long now = SystemTime.getMonotonousTime();
+			while( it.hasNext()){
 				
-				Iterator<GetCacheEntry>	it = get_cache.values().iterator();
+				GetCacheEntry entry = it.next();
 				
-				while( it.hasNext()){
+				if ( isExpired( entry, now )){
 					
-					GetCacheEntry entry = it.next();
+					it.remove();
+				}
+			}
+		}
+	}
+	
+	private long
+	getCacheExpiry(
+		int		peers )
+	{
+		if ( peers == 0 ){
+			
+			return( get_cache_expiry_empty );
+			
+		}else if ( peers < 5 ){
+			
+			return( get_cache_expiry );
+		}
+		
+			// scale up with the number of peers found, capped
+		
+		return( Math.min( get_cache_expiry_max, get_cache_expiry + ( peers / 5 ) * 30*1000L ));
+	}
+	
+	private boolean
+	isExpired(
+		GetCacheEntry		entry,
+		long				now )
+	{
+		long	complete_time = entry.getCompleteTime();
+		
+		if ( complete_time < 0 ){
+			
+				// still running
+			
+			return( false );
+		}
+		
+		return( now - complete_time > getCacheExpiry( entry.getContactCount()));
+	}
+	
+	private void
+	trimCache()
+	{
+			// only one thread needs to do this, others can carry on
+		
+		synchronized( get_cache_trim_lock ){
+			
+			if ( get_cache.size() <= get_cache_max ){
+				
+				return;
+			}
+			
+			long now = SystemTime.getMonotonousTime();
+			
+			List<Map.Entry<GetCacheKey,GetCacheEntry>>	complete = new ArrayList<>( get_cache.size());
+			
+			for ( Map.Entry<GetCacheKey,GetCacheEntry> e: get_cache.entrySet()){
+				
+				GetCacheEntry	entry = e.getValue();
+				
+				if ( isExpired( entry, now )){
+					
+					if ( get_cache.remove( e.getKey(), entry )){
+						
+						get_cache_evictions.incrementAndGet();
+					}
+				}else if ( entry.getCompleteTime() >= 0 ){
+					
+					complete.add( e );
+				}
+			}
+			
+				// in-progress searches are never evicted as that would break coalescing, drop the
+				// oldest completed results down to 90% to avoid trimming on every miss
+			
+			int	excess = get_cache.size() - ( get_cache_max * 9 / 10 );
+			
+			if ( excess > 0 && !complete.isEmpty()){
+				
+				Collections.sort(
+					complete,
+					new Comparator<Map.Entry<GetCacheKey,GetCacheEntry>>()
+					{
+						@Override
+						public int
+						compare(
+							Map.Entry<GetCacheKey,GetCacheEntry> e1,
+							Map.Entry<GetCacheKey,GetCacheEntry> e2 )
+						{
+							return( Long.compare( e1.getValue().getCompleteTime(), e2.getValue().getCompleteTime()));
+						}
+					});
+				
+				for ( int i=0;i<complete.size() && excess > 0;i++){
+					
+					Map.Entry<GetCacheKey,GetCacheEntry> e = complete.get(i);
 					
-					if ( entry.isComplete() && now - entry.getCreateTime() > get_cache_expiry ){
+					if ( get_cache.remove( e.getKey(), e.getValue())){
 						
-						it.remove();
+						get_cache_evictions.incrementAndGet();
+						
+						excess--;
 					}
 				}
 			}
@@ -595,34 +717,52 @@ DHTI2P
 	{		
 		flags |= I2PHelperAZDHT.FLAG_HIGH_PRIORITY;
 		
-		String key = ByteFormatter.encodeString( ih ) + "/" + max + "/" + maxWait;
+		GetCacheKey key = new GetCacheKey( ih, max, maxWait );
 		
 		GetCacheEntry 	cache_entry;
 		
-		synchronized( get_cache ){
+		while( true ){
 			
-			cache_entry = get_cache.get( key );
+			GetCacheEntry existing = get_cache.get( key );
 			
-			if ( cache_entry != null && cache_entry.isComplete()){
+			if ( existing != null ){
 				
-				if ( SystemTime.getMonotonousTime() - cache_entry.getCreateTime() > get_cache_expiry ){
+				if ( !isExpired( existing, SystemTime.getMonotonousTime())){
+					
+					if ( existing.getCompleteTime() >= 0 ){
+						
+						get_cache_hits.incrementAndGet();
+						
+					}else{
+						
+						get_cache_coalesced.incrementAndGet();
+					}
 					
-					cache_entry = null;
+						// replays anything already found and handles the entry completing under us
+					
+					existing.addListener( listener );
+					
+					return;
 				}
+				
+				get_cache.remove( key, existing );
 			}
 			
-			if ( cache_entry == null ){
-				
-				cache_entry = new GetCacheEntry( listener );
-				
-				get_cache.put( key, cache_entry );
-				
-			}else{
-				
-				cache_entry.addListener( listener );
+			cache_entry = new GetCacheEntry( listener );
+			
+			if ( get_cache.putIfAbsent( key, cache_entry ) == null ){
 				
-				return;
+				break;
 			}
+			
+				// lost a race with another request for the same key, go round and join it
+		}
+		
+		get_cache_misses.incrementAndGet();
+		
+		if ( get_cache.size() > get_cache_max ){
+			
+			trimCache();
 		}
 		
 		dht.get(	ih,
@@ -704,6 +844,40 @@ DHTI2P
 					});
 	}
 	
+	@Override
+	public I2PHelperDHTBatch
+	createBatch()
+	{
+		return( new DHTI2PBatch( this ));
+	}
+	
+		/**
+		 * Keys sharing at least this many leading bits land in the same neighbourhood of the
+		 * network, i.e. their lookups converge on an overlapping set of nodes
+		 */
+	
+	int
+	getBatchPrefixBits()
+	{
+		long size = dht.getControl().getStats().getEstimatedDHTSize();
+		
+		int	log2 = 63 - Long.numberOfLeadingZeros( Math.max( size, 1 ));
+		
+		return( Math.max( 4, log2 - 2 ));
+	}
+	
+	void
+	batchRun(
+		int		ops,
+		int		followers,
+		int		merged )
+	{
+		batch_runs.incrementAndGet();
+		batch_ops.addAndGet( ops );
+		batch_followers.addAndGet( followers );
+		batch_merged.addAndGet( merged );
+	}
+	
 	@Override
 	public Collection<Hash>
 	getPeersAndNoAnnounce(
@@ -1314,7 +1488,34 @@ DHTI2P
 	public String
 	getStats()
 	{
-		return( transport.getStats().getString() + "/" + az_dht.getDHT().getTransport().getStats().getString() + ":" + az_dht.getDHT().getRouter().getStats().getStats()[DHTRouterStats.ST_CONTACTS]);
+		return( transport.getStats().getString() + "/" + az_dht.getDHT().getTransport().getStats().getString() + ":" + az_dht.getDHT().getRouter().getStats().getStats()[DHTRouterStats.ST_CONTACTS] + "; " + getOperationStats());
+	}
+	
+	private String
+	getOperationStats()
+	{
+		int	in_flight = 0;
+		
+		for ( GetCacheEntry entry: get_cache.values()){
+			
+			if ( entry.getCompleteTime() < 0 ){
+				
+				in_flight++;
+			}
+		}
+		
+		long	hits		= get_cache_hits.get();
+		long	coalesced	= get_cache_coalesced.get();
+		long	misses		= get_cache_misses.get();
+		
+		long	total = hits + coalesced + misses;
+		
+		return( "Get cache: size=" + get_cache.size() + ", in-flight=" + in_flight +
+				", hits=" + hits + ", coalesced=" + coalesced + ", misses=" + misses +
+				", hit ratio=" + ( total==0?0:(( hits + coalesced )*100/total )) + "%" +
+				", evicted=" + get_cache_evictions.get() +
+				"; Batches: runs=" + batch_runs.get() + ", ops=" + batch_ops.get() +
+				", followers=" + batch_followers.get() + ", merged=" + batch_merged.get());
 	}
 	
 	@Override
@@ -1338,11 +1539,63 @@ DHTI2P
 		}
 	}
 	
+	private static final class
+	GetCacheKey
+	{
+		private final byte[]	hash;
+		private final int		max;
+		private final long		max_wait;
+		
+		private final int		hash_code;
+		
+		private
+		GetCacheKey(
+			byte[]		_hash,
+			int			_max,
+			long		_max_wait )
+		{
+				// copied as callers may reuse their buffer while the key sits in the cache
+			
+			hash		= _hash.clone();
+			max			= _max;
+			max_wait	= _max_wait;
+			
+			hash_code	= ( Arrays.hashCode( hash ) * 31 + max ) * 31 + Long.hashCode( max_wait );
+		}
+		
+		@Override
+		public int
+		hashCode()
+		{
+			return( hash_code );
+		}
+		
+		@Override
+		public boolean
+		equals(
+			Object	o )
+		{
+			if ( o == this ){
+				
+				return( true );
+			}
+			
+			if ( !( o instanceof GetCacheKey )){
+				
+				return( false );
+			}
+			
+			GetCacheKey other = (GetCacheKey)o;
+			
+			return( hash_code == other.hash_code && max == other.max && max_wait == other.max_wait && Arrays.equals( hash, other.hash ));
+		}
+	}
+	
 	public static class
 	GetCacheEntry
 		extends DHTOperationAdapter
 	{
-		private long						create_time = SystemTime.getMonotonousTime();
+		private volatile long				complete_time	= -1;
 		
 		private Map<String,Object[]>		contacts 			= new HashMap<String, Object[]>();
 		
@@ -1358,18 +1611,22 @@ DHTI2P
 			listeners.add( listener );
 		}
 		
+			/**
+			 * @return monotonous time the search completed or -1 if still running
+			 */
+		
 		private long
-		getCreateTime()
+		getCompleteTime()
 		{
-			return( create_time );
+			return( complete_time );
 		}
 		
-		private boolean
-		isComplete()
+		private int
+		getContactCount()
 		{
 			synchronized( this ){
-			
-				return( complete );
+				
+				return( contacts.size());
 			}
 		}
 		
@@ -1483,6 +1740,8 @@ DHTI2P
 				complete = true;
 				timeout	= _timeout;
 				
+				complete_time = SystemTime.getMonotonousTime();
+				
 				to_inform = listeners.getList();
 				
 				listeners.clear();
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.vuzedht;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.parg.azureus.plugins.networks.i2p.I2PHelperDHTBatch;
+import org.parg.azureus.plugins.networks.i2p.I2PHelperDHTListener;
+import org.parg.azureus.plugins.networks.i2p.snarkdht.NID;
+import org.parg.azureus.plugins.networks.i2p.snarkdht.NIDKernel;
+
+import com.biglybt.core.util.Debug;
+import com.biglybt.core.util.SimpleTimer;
+import com.biglybt.core.util.SystemTime;
+import com.biglybt.core.util.TimerEvent;
+import com.biglybt.core.util.TimerEventPerformer;
+
+/**
+ * Runs a set of gets and puts as lookup waves. Keys are sorted so that ones sharing a long
+ * prefix (i.e. close in XOR space) form a cluster: the first lookup of each cluster goes out
+ * straight away and the rest follow once it completes or has had FOLLOWER_DELAY to walk the
+ * network. By then the router has learnt the nodes around that part of the key space from the
+ * replies so the followers start close to their targets and need far fewer hops.
+ *
+ * Puts for the same key and flags within a batch are merged into a single operation, gets
+ * are already merged by the get cache.
+ */
+
+class
+DHTI2PBatch
+	implements I2PHelperDHTBatch
+{
+	private static final long	FOLLOWER_DELAY	= 10*1000;
+
+		// distance from the all-zero ID orders keys as unsigned big-endian values
+
+	private static final long[]	ORIGIN	= new long[NIDKernel.WORDS];
+
+	private static final Comparator<Op>	KEY_ORDER =
+		new Comparator<Op>()
+		{
+			@Override
+			public int
+			compare(
+				Op		o1,
+				Op		o2 )
+			{
+				if ( o1.words != null && o2.words != null ){
+
+					return( NIDKernel.compareDistance( ORIGIN, o1.words, o2.words ));
+				}
+
+				byte[]	k1 = o1.key;
+				byte[]	k2 = o2.key;
+
+				int	len = Math.min( k1.length, k2.length );
+
+				for ( int i=0;i<len;i++){
+
+					int	diff = ( k1[i]&0xff ) - ( k2[i]&0xff );
+
+					if ( diff != 0 ){
+
+						return( diff );
+					}
+				}
+
+				return( k1.length - k2.length );
+			}
+		};
+
+	private final DHTI2P		dht;
+
+	private final List<Op>		ops = new ArrayList<>();
+
+	private boolean				done;
+
+	DHTI2PBatch(
+		DHTI2P		_dht )
+	{
+		dht		= _dht;
+	}
+
+	@Override
+	public void
+	get(
+		byte[] 						ih,
+		String						reason,
+		short						flags,
+		int 						max,
+		long						maxWait,
+		I2PHelperDHTListener		listener )
+	{
+		add( new Op( true, ih, reason, flags, max, maxWait, listener ));
+	}
+
+	@Override
+	public void
+	put(
+		byte[] 						ih,
+		String						reason,
+		short						flags,
+		I2PHelperDHTListener		listener )
+	{
+		add( new Op( false, ih, reason, flags, 0, 0, listener ));
+	}
+
+	private void
+	add(
+		Op		op )
+	{
+		synchronized( ops ){
+
+			if ( done ){
+
+				throw( new IllegalStateException( "Batch has already been run" ));
+			}
+
+			ops.add( op );
+		}
+	}
+
+	@Override
+	public int
+	size()
+	{
+		synchronized( ops ){
+
+			return( ops.size());
+		}
+	}
+
+	@Override
+	public void
+	run()
+	{
+		List<Op>	to_run;
+
+		synchronized( ops ){
+
+			if ( done ){
+
+				return;
+			}
+
+			done = true;
+
+			to_run = new ArrayList<>( ops );
+
+			ops.clear();
+		}
+
+		if ( to_run.isEmpty()){
+
+			return;
+		}
+
+		Collections.sort( to_run, KEY_ORDER );
+
+			// merge puts for identical keys, they are adjacent after sorting
+
+		int	merged = 0;
+
+		List<Op>	unique = new ArrayList<>( to_run.size());
+
+		Op	last_put = null;
+
+		for ( Op op: to_run ){
+
+			if ( 	!op.is_get &&
+					last_put != null &&
+					last_put.flags == op.flags &&
+					Arrays.equals( last_put.key, op.key )){
+
+				last_put.merge( op );
+
+				merged++;
+
+				continue;
+			}
+
+			unique.add( op );
+
+			if ( !op.is_get ){
+
+				last_put = op;
+			}
+		}
+
+		int	prefix_bits = dht.getBatchPrefixBits();
+
+		int	followers	= 0;
+
+		int	start = 0;
+
+		while( start < unique.size()){
+
+			Op	leader = unique.get( start );
+
+			int	end = start + 1;
+
+			while( end < unique.size() && commonPrefixBits( leader, unique.get( end )) >= prefix_bits ){
+
+				end++;
+			}
+
+			if ( end - start == 1 ){
+
+				leader.start();
+
+			}else{
+
+				followers += end - start - 1;
+
+				new Cluster( unique.subList( start, end )).start();
+			}
+
+			start = end;
+		}
+
+		dht.batchRun( to_run.size(), followers, merged );
+	}
+
+	private static int
+	commonPrefixBits(
+		Op		o1,
+		Op		o2 )
+	{
+		if ( o1.words != null && o2.words != null ){
+
+			return( NIDKernel.commonPrefixBits( o1.words, 0, o2.words, 0 ));
+		}
+
+		byte[]	k1 = o1.key;
+		byte[]	k2 = o2.key;
+
+		int	len = Math.min( k1.length, k2.length );
+
+		for ( int i=0;i<len;i++){
+
+			int	x = ( k1[i] ^ k2[i] ) & 0xff;
+
+			if ( x != 0 ){
+
+				return( i*8 + Integer.numberOfLeadingZeros( x ) - 24 );
+			}
+		}
+
+		return( len*8 );
+	}
+
+	private class
+	Cluster
+		implements TimerEventPerformer
+	{
+		private final List<Op>		members;
+
+		private boolean				released;
+
+		private TimerEvent			timer_event;
+
+		private
+		Cluster(
+			List<Op>		_members )
+		{
+			members	= new ArrayList<>( _members );
+		}
+
+		private void
+		start()
+		{
+			synchronized( this ){
+
+				timer_event = SimpleTimer.addEvent( "DHTI2P:batch", SystemTime.getOffsetTime( FOLLOWER_DELAY ), this );
+			}
+
+			Op	leader = members.get( 0 );
+
+			leader.addListener(
+				new I2PHelperDHTListener()
+				{
+					@Override
+					public void
+					searching(
+						String		host )
+					{
+					}
+
+					@Override
+					public void
+					valueRead(
+						DHTTransportContactI2P		contact,
+						String						host,
+						int							contact_state )
+					{
+					}
+
+					@Override
+					public void
+					complete(
+						boolean		timeout )
+					{
+						release();
+					}
+				});
+
+			leader.start();
+		}
+
+		@Override
+		public void
+		perform(
+			TimerEvent		event )
+		{
+			release();
+		}
+
+		private void
+		release()
+		{
+			synchronized( this ){
+
+				if ( released ){
+
+					return;
+				}
+
+				released = true;
+
+				if ( timer_event != null ){
+
+					timer_event.cancel();
+				}
+			}
+
+			for ( int i=1;i<members.size();i++){
+
+				members.get(i).start();
+			}
+		}
+	}
+
+	private class
+	Op
+		implements I2PHelperDHTListener
+	{
+		private final boolean		is_get;
+		private final byte[]		key;
+		private final long[]		words;		// null unless the key is NID sized
+		private final String		reason;
+		private final short			flags;
+		private final int			max;
+		private final long			max_wait;
+
+		private final List<I2PHelperDHTListener>	listeners = new ArrayList<>( 1 );
+
+		private
+		Op(
+			boolean					_is_get,
+			byte[]					_key,
+			String					_reason,
+			short					_flags,
+			int						_max,
+			long					_max_wait,
+			I2PHelperDHTListener	_listener )
+		{
+			is_get		= _is_get;
+			key			= _key;
+			words		= key.length==NID.HASH_LENGTH?NIDKernel.toWords( key ):null;
+			reason		= _reason;
+			flags		= _flags;
+			max			= _max;
+			max_wait	= _max_wait;
+
+			listeners.add( _listener );
+		}
+
+		private void
+		merge(
+			Op		other )
+		{
+			listeners.addAll( other.listeners );
+		}
+
+		private void
+		addListener(
+			I2PHelperDHTListener	l )
+		{
+			listeners.add( l );
+		}
+
+		private void
+		start()
+		{
+			try{
+				if ( is_get ){
+
+					dht.get( key, reason, flags, max, max_wait, this );
+
+				}else{
+
+					dht.put( key, reason, flags, this );
+				}
+			}catch( Throwable e ){
+
+				Debug.out( e );
+
+				complete( false );
+			}
+		}
+
+		@Override
+		public void
+		searching(
+			String		host )
+		{
+			for ( I2PHelperDHTListener l: listeners ){
+
+				l.searching( host );
+			}
+		}
+
+		@Override
+		public void
+		valueRead(
+			DHTTransportContactI2P		contact,
+			String						host,
+			int							contact_state )
+		{
+			for ( I2PHelperDHTListener l: listeners ){
+
+				l.valueRead( contact, host, contact_state );
+			}
+		}
+
+		@Override
+		public void
+		complete(
+			boolean		timeout )
+		{
+			for ( I2PHelperDHTListener l: listeners ){
+
+				try{
+					l.complete( timeout );
+
+				}catch( Throwable e ){
+
+					Debug.out( e );
+				}
+			}
+		}
+	}
+}
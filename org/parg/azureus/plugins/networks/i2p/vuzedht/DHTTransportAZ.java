@@ -1210,8 +1210,7 @@ DHTTransportAZ
 	packetSent(
 		int length) 
 	{
-		stats.total_packets_sent++;
-		stats.total_bytes_sent += length;
+		stats.counters.packetSent( length );
 	}
 
 	@Override
@@ -1219,8 +1218,7 @@ DHTTransportAZ
 	packetReceived(
 		int length) 
 	{
-		stats.total_packets_received++;
-		stats.total_bytes_received += length;
+		stats.counters.packetReceived( length );
 	}
 	
 	@Override
@@ -1531,8 +1529,7 @@ DHTTransportAZ
 		packetSent(
 			int length) 
 		{
-			stats.total_packets_sent++;
-			stats.total_bytes_sent += length;
+			stats.counters.packetSent( length );
 		}
 		
 		@Override
@@ -1540,8 +1537,7 @@ DHTTransportAZ
 		packetReceived(
 			int length) 
 		{
-			stats.total_packets_received++;
-			stats.total_bytes_received += length;
+			stats.counters.packetReceived( length );
 		}
 	}
 	
@@ -1549,31 +1545,30 @@ DHTTransportAZ
 	DHTTransportStatsI2P
 		extends DHTTransportStatsImpl
 	{
-		private long	total_request_timeouts;
-		private long	total_packets_sent;
-		private long	total_packets_received;
-		private long	total_bytes_sent;
-		private long	total_bytes_received;
+		private final DHTTransportI2PStatsCounters	counters;
 
 		private 
 		DHTTransportStatsI2P()
+		{
+			this( new DHTTransportI2PStatsCounters());
+		}
+		
+		private
+		DHTTransportStatsI2P(
+			DHTTransportI2PStatsCounters	_counters )
 		{
 			super( DHTUtilsI2P.PROTOCOL_VERSION );
+			
+			counters	= _counters;
 		}
 		
 		@Override
 		public DHTTransportStats snapshot() {
 			
-			DHTTransportStatsI2P res = new DHTTransportStatsI2P();
+			DHTTransportStatsI2P res = new DHTTransportStatsI2P( counters.snapshot());
 			
 			snapshotSupport( res );
 			
-			res.total_request_timeouts		= total_request_timeouts;
-			res.total_packets_sent			= total_packets_sent;
-			res.total_packets_received		= total_packets_received;
-			res.total_bytes_sent			= total_bytes_sent;
-			res.total_bytes_received		= total_bytes_received;
-			
 			return( res );
 		}
 		
@@ -1584,27 +1579,32 @@ DHTTransportAZ
 		
 		@Override
 		public long getRequestsTimedOut() {
-			return( total_request_timeouts );
+			return( counters.getRequestsTimedOut());
 		}
 		
 		@Override
 		public long getPacketsSent() {
-			return( total_packets_sent );
+			return( counters.getPacketsSent());
 		}
 		
 		@Override
 		public long getPacketsReceived() {
-			return( total_packets_received );
+			return( counters.getPacketsReceived());
 		}
 		
 		@Override
 		public long getBytesSent() {
-			return( total_bytes_sent );
+			return( counters.getBytesSent());
 		}
 		
 		@Override
 		public long getBytesReceived() {
-			return( total_bytes_received );
+			return( counters.getBytesReceived());
+		}
+		
+		@Override
+		public String getString() {
+			return( super.getString() + ", " + counters.getString());
 		}
 	}
 	
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.vuzedht;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperTTLCache;
+
+import com.biglybt.core.dht.transport.DHTTransportException;
+import com.biglybt.core.util.AEThread2;
+import com.biglybt.core.util.Debug;
+
+import net.i2p.data.Destination;
+import net.i2p.data.Hash;
+
+/**
+ * Destination lookups for DHT contacts. Concurrent requests for the same hash share a single
+ * in-flight lookup, successful results are cached for a while and queued lookups are served
+ * high priority first from a bounded set of workers (the underlying session lookup blocks).
+ * Low priority lookups are limited to a subset of the workers so they can't starve queries
+ * that need an answer now.
+ */
+
+class
+DHTTransportI2PDestLookup
+{
+	private static final int	MAX_WORKERS		= 15;
+	private static final int	MAX_WORKERS_LP	= 5;
+
+	private static final int	MAX_QUEUED		= 1024;
+
+	private static final int	CACHE_MAX		= 2048;
+	private static final long	CACHE_TTL		= 30*60*1000;
+
+	private final Adapter		adapter;
+
+	private final I2PHelperTTLCache<Hash,Destination>	cache = new I2PHelperTTLCache<>( "Destination cache", CACHE_MAX );
+
+	private final Object		lock = new Object();
+
+	private final Map<Hash,Lookup>	lookups = new HashMap<>();
+
+	private final PriorityQueue<Lookup>	queue = new PriorityQueue<>();
+
+	private long		next_seq;
+
+	private int			active_workers;
+	private int			active_lp;
+
+	private long		total_requests;
+	private long		total_coalesced;
+	private long		total_lookups;
+	private long		total_failures;
+	private long		total_rejected;
+
+	private boolean		destroyed;
+
+	DHTTransportI2PDestLookup(
+		Adapter		_adapter )
+	{
+		adapter	= _adapter;
+	}
+
+	void
+	lookup(
+		Hash		hash,
+		boolean		priority,
+		Listener	listener )
+	{
+		Destination dest = cache.get( hash );
+
+		if ( dest != null ){
+
+			listener.complete( dest );
+
+			return;
+		}
+
+		DHTTransportException	error = null;
+
+		synchronized( lock ){
+
+			total_requests++;
+
+			if ( destroyed ){
+
+				error = new DHTTransportException( "Transport destroyed" );
+
+			}else{
+
+				Lookup lookup = lookups.get( hash );
+
+				if ( lookup != null ){
+
+					total_coalesced++;
+
+					lookup.listeners.add( listener );
+
+					if ( priority && !lookup.priority && !lookup.started ){
+
+							// promote, re-insert to restore heap order
+
+						queue.remove( lookup );
+
+						lookup.priority = true;
+
+						queue.add( lookup );
+
+							// may now be eligible where it wasn't while low priority
+
+						dispatch();
+					}
+				}else if ( queue.size() >= MAX_QUEUED ){
+
+					total_rejected++;
+
+					error = new DHTTransportException( "Destination lookup queue full" );
+
+				}else{
+
+					lookup = new Lookup( hash, priority, next_seq++ );
+
+					lookup.listeners.add( listener );
+
+					lookups.put( hash, lookup );
+
+					queue.add( lookup );
+
+					dispatch();
+				}
+			}
+		}
+
+		if ( error != null ){
+
+			listener.failed( error );
+		}
+	}
+
+	private void
+	dispatch()
+	{
+			// lock held
+
+		while( active_workers < MAX_WORKERS && hasEligible()){
+
+			active_workers++;
+
+			new AEThread2( "DHTTransportI2P:destlookup", true )
+			{
+				@Override
+				public void
+				run()
+				{
+					workerLoop();
+				}
+			}.start();
+		}
+	}
+
+	private boolean
+	hasEligible()
+	{
+		Lookup head = queue.peek();
+
+		return( head != null && ( head.priority || active_lp < MAX_WORKERS_LP ));
+	}
+
+	private void
+	workerLoop()
+	{
+		while( true ){
+
+			Lookup	lookup;
+
+			synchronized( lock ){
+
+				if ( destroyed || !hasEligible()){
+
+					active_workers--;
+
+					return;
+				}
+
+				lookup = queue.poll();
+
+				lookup.started = true;
+
+				if ( !lookup.priority ){
+
+					active_lp++;
+				}
+
+				total_lookups++;
+			}
+
+			Destination		dest	= null;
+			Throwable		error	= null;
+
+			try{
+				dest = adapter.lookup( lookup.hash );
+
+			}catch( Throwable e ){
+
+				error = e;
+			}
+
+			List<Listener>	listeners;
+
+			synchronized( lock ){
+
+				if ( !lookup.priority ){
+
+					active_lp--;
+				}
+
+				if ( dest == null ){
+
+					total_failures++;
+				}
+
+				lookups.remove( lookup.hash );
+
+				listeners = new ArrayList<>( lookup.listeners );
+			}
+
+			if ( dest != null ){
+
+				cache.put( lookup.hash, dest, CACHE_TTL );
+			}
+
+			DHTTransportException	failure = null;
+
+			if ( dest == null ){
+
+				if ( error instanceof DHTTransportException ){
+
+					failure = (DHTTransportException)error;
+
+				}else if ( error != null ){
+
+					failure = new DHTTransportException( "Destination lookup failed", error );
+
+				}else{
+
+					failure = new DHTTransportException( "Destination lookup failed" );
+				}
+			}
+
+			for ( Listener l: listeners ){
+
+				try{
+					if ( dest != null ){
+
+						l.complete( dest );
+
+					}else{
+
+						l.failed( failure );
+					}
+				}catch( Throwable e ){
+
+					Debug.out( e );
+				}
+			}
+		}
+	}
+
+	String
+	getStatusString()
+	{
+		synchronized( lock ){
+
+			return( "Dest lookups: requests=" + total_requests + ", coalesced=" + total_coalesced +
+					", lookups=" + total_lookups + ", failed=" + total_failures + ", rejected=" + total_rejected +
+					", queued=" + queue.size() + ", active=" + active_workers + "; " + cache.getStatusString());
+		}
+	}
+
+	void
+	destroy()
+	{
+		List<Lookup>	to_fail;
+
+		synchronized( lock ){
+
+			destroyed = true;
+
+			to_fail = new ArrayList<>( queue );
+
+			queue.clear();
+
+			for ( Lookup l: to_fail ){
+
+				lookups.remove( l.hash );
+			}
+		}
+
+		DHTTransportException error = new DHTTransportException( "Transport destroyed" );
+
+		for ( Lookup lookup: to_fail ){
+
+			for ( Listener l: lookup.listeners ){
+
+				try{
+					l.failed( error );
+
+				}catch( Throwable e ){
+
+					Debug.out( e );
+				}
+			}
+		}
+	}
+
+	private static class
+	Lookup
+		implements Comparable<Lookup>
+	{
+		private final Hash		hash;
+		private final long		seq;
+
+		private boolean			priority;
+		private boolean			started;
+
+		private final List<Listener>	listeners = new ArrayList<>( 1 );
+
+		private
+		Lookup(
+			Hash		_hash,
+			boolean		_priority,
+			long		_seq )
+		{
+			hash		= _hash;
+			priority	= _priority;
+			seq			= _seq;
+		}
+
+		@Override
+		public int
+		compareTo(
+			Lookup	other )
+		{
+			if ( priority != other.priority ){
+
+				return( priority?-1:1 );
+			}
+
+			return( Long.compare( seq, other.seq ));
+		}
+	}
+
+	interface
+	Adapter
+	{
+			/**
+			 * Blocking lookup, returns null if not found
+			 */
+
+		public Destination
+		lookup(
+			Hash		hash )
+
+			throws Exception;
+	}
+
+	interface
+	Listener
+	{
+		public void
+		complete(
+			Destination		dest );
+
+		public void
+		failed(
+			DHTTransportException	error );
+	}
+}
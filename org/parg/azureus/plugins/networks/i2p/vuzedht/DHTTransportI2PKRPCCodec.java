@@ -0,0 +1,644 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.vuzedht;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import com.biglybt.core.util.BDecoder;
+
+/**
+ * Streaming bencode for KRPC datagrams.
+ *
+ * Encoding writes straight into a per-thread buffer that is reused across messages so the only
+ * allocation is whatever the caller needs to hand on (none for raw datagrams as the session
+ * copies the payload during send).
+ *
+ * Decoding handles the ping, find_node, get_peers and announce_peer queries in one pass,
+ * materialising only the fields the query handlers read and skipping everything else. The
+ * result is shaped like BDecoder output so it feeds the existing handlers unchanged. Replies
+ * and errors are recognised from the trailing "y" entry without a scan and, along with
+ * anything else not handled (az requests), go straight to BDecoder.
+ */
+
+public class
+DHTTransportI2PKRPCCodec
+{
+	private static final int	INITIAL_BUFFER_SIZE			= 2*1024;
+	private static final int	MAX_RETAINED_BUFFER_SIZE	= 64*1024;
+
+	private static final ThreadLocal<Encoder>	encoders =
+		new ThreadLocal<Encoder>()
+		{
+			@Override
+			protected Encoder
+			initialValue()
+			{
+				return( new Encoder());
+			}
+		};
+
+	private static final Set<String>	FAST_METHODS =
+		new HashSet<>( Arrays.asList( "ping", "find_node", "get_peers", "announce_peer" ));
+
+		// the top level and argument keys the query handlers look at
+
+	private static final byte[][]	TOP_KEYS	= toBytes( "a", "q", "t", "y", "z" );
+	private static final byte[][]	ARG_KEYS	= toBytes( "_v", "id", "info_hash", "noseed", "seed", "target", "token" );
+
+		// keys are sorted when encoded so a reply or error normally ends with its "y" entry
+
+	private static final byte[]		Y_TAIL		= "1:y1:".getBytes( StandardCharsets.ISO_8859_1 );
+
+	private static byte[][]
+	toBytes(
+		String...	strs )
+	{
+		byte[][]	result = new byte[strs.length][];
+
+		for ( int i=0;i<strs.length;i++){
+
+			result[i] = strs[i].getBytes( StandardCharsets.ISO_8859_1 );
+		}
+
+		return( result );
+	}
+
+		/**
+		 * Encodes into the calling thread's buffer, valid until the thread's next encode
+		 */
+
+	public static Encoder
+	encode(
+		Map<String,Object>		map )
+
+		throws IOException
+	{
+		Encoder encoder = encoders.get();
+
+		encoder.reset();
+
+		encoder.encodeMap( map );
+
+		return( encoder );
+	}
+
+		/**
+		 * Full decode of a received datagram, queries we handle take the single pass path
+		 */
+
+	public static Map<String,Object>
+	decode(
+		byte[]		payload )
+
+		throws IOException
+	{
+		if ( !isReply( payload )){
+
+			Map<String,Object>	map = decodeQuery( payload );
+
+			if ( map != null ){
+
+				return( map );
+			}
+		}
+
+		return( BDecoder.decode( payload ));
+	}
+
+		/**
+		 * Cheap check of the last entry, a false negative just costs a failed query decode
+		 */
+
+	private static boolean
+	isReply(
+		byte[]		payload )
+	{
+		int	len = payload.length;
+
+		if ( len < Y_TAIL.length + 3 || payload[len-1] != 'e' ){
+
+			return( false );
+		}
+
+		byte	y = payload[len-2];
+
+		if ( y != 'r' && y != 'e' ){
+
+			return( false );
+		}
+
+		int	start = len - 2 - Y_TAIL.length;
+
+		for ( int i=0;i<Y_TAIL.length;i++){
+
+			if ( payload[start+i] != Y_TAIL[i] ){
+
+				return( false );
+			}
+		}
+
+		return( true );
+	}
+
+		/**
+		 * @return the message map if this is a query we handle, null otherwise
+		 */
+
+	public static Map<String,Object>
+	decodeQuery(
+		byte[]		payload )
+	{
+		try{
+			Decoder decoder = new Decoder( payload );
+
+			Map<String,Object> map = decoder.decodeTop();
+
+			if ( map == null || decoder.pos != payload.length ){
+
+				return( null );
+			}
+
+			Object	y = map.get( "y" );
+			Object	q = map.get( "q" );
+
+			if ( 	!( y instanceof byte[] ) ||
+					!Arrays.equals((byte[])y, TOP_KEYS[1] ) ||
+					!( q instanceof byte[] ) ||
+					!( map.get( "a" ) instanceof Map ) ||
+					!( map.get( "t" ) instanceof byte[] )){
+
+				return( null );
+			}
+
+			if ( !FAST_METHODS.contains( new String((byte[])q, StandardCharsets.ISO_8859_1 ))){
+
+				return( null );
+			}
+
+			return( map );
+
+		}catch( Throwable e ){
+
+				// malformed, let the full decoder have a go and report it
+
+			return( null );
+		}
+	}
+
+	public static class
+	Encoder
+	{
+		private byte[]		buffer	= new byte[INITIAL_BUFFER_SIZE];
+		private int			length;
+
+		private void
+		reset()
+		{
+				// don't hang on to the occasional oversized buffer
+
+			if ( buffer.length > MAX_RETAINED_BUFFER_SIZE ){
+
+				buffer = new byte[INITIAL_BUFFER_SIZE];
+			}
+
+			length	= 0;
+		}
+
+		public byte[]
+		getBuffer()
+		{
+			return( buffer );
+		}
+
+		public int
+		getLength()
+		{
+			return( length );
+		}
+
+		public byte[]
+		toByteArray()
+		{
+			return( Arrays.copyOf( buffer, length ));
+		}
+
+		private void
+		ensure(
+			int		extra )
+		{
+			if ( length + extra > buffer.length ){
+
+				buffer = Arrays.copyOf( buffer, Math.max( buffer.length*2, length + extra ));
+			}
+		}
+
+		private void
+		put(
+			byte	b )
+		{
+			ensure( 1 );
+
+			buffer[length++] = b;
+		}
+
+		private void
+		putLong(
+			long	l )
+		{
+				// digits written back to front
+
+			ensure( 20 );
+
+			if ( l == 0 ){
+
+				buffer[length++] = '0';
+
+				return;
+			}
+
+			if ( l < 0 ){
+
+				if ( l == Long.MIN_VALUE ){
+
+					byte[] b = String.valueOf( l ).getBytes( StandardCharsets.ISO_8859_1 );
+
+					System.arraycopy( b, 0, buffer, length, b.length );
+
+					length += b.length;
+
+					return;
+				}
+
+				buffer[length++] = '-';
+
+				l = -l;
+			}
+
+			int	digits = 0;
+
+			for ( long t=l; t>0; t/=10 ){
+
+				digits++;
+			}
+
+			int	pos = length + digits;
+
+			length = pos;
+
+			while( l > 0 ){
+
+				buffer[--pos] = (byte)( '0' + ( l % 10 ));
+
+				l /= 10;
+			}
+		}
+
+		private void
+		putBytes(
+			byte[]	b )
+		{
+			putLong( b.length );
+
+			put((byte)':' );
+
+			ensure( b.length );
+
+			System.arraycopy( b, 0, buffer, length, b.length );
+
+			length += b.length;
+		}
+
+		private void
+		encodeObject(
+			Object	o )
+
+			throws IOException
+		{
+			if ( o instanceof byte[] ){
+
+				putBytes((byte[])o );
+
+			}else if ( o instanceof String ){
+
+				putBytes(((String)o).getBytes( StandardCharsets.UTF_8 ));
+
+			}else if ( o instanceof Number ){
+
+				put((byte)'i' );
+
+				putLong(((Number)o).longValue());
+
+				put((byte)'e' );
+
+			}else if ( o instanceof Map ){
+
+				encodeMap((Map<String,Object>)o );
+
+			}else if ( o instanceof List ){
+
+				put((byte)'l' );
+
+				for ( Object x: (List<Object>)o ){
+
+					encodeObject( x );
+				}
+
+				put((byte)'e' );
+
+			}else{
+
+				throw( new IOException( "Unsupported type: " + ( o==null?"null":o.getClass().getName())));
+			}
+		}
+
+		private void
+		encodeMap(
+			Map<String,Object>	map )
+
+			throws IOException
+		{
+			put((byte)'d' );
+
+			int	num = map.size();
+
+			if ( num > 0 ){
+
+				String[]	keys = map.keySet().toArray( new String[num] );
+
+					// bencoded dictionaries must be sorted by key
+
+				Arrays.sort( keys );
+
+				for ( String key: keys ){
+
+					Object	value = map.get( key );
+
+					if ( value == null ){
+
+						continue;
+					}
+
+					putBytes( key.getBytes( StandardCharsets.UTF_8 ));
+
+					encodeObject( value );
+				}
+			}
+
+			put((byte)'e' );
+		}
+	}
+
+	private static class
+	Decoder
+	{
+		private final byte[]	data;
+
+		private int				pos;
+
+		private
+		Decoder(
+			byte[]		_data )
+		{
+			data	= _data;
+		}
+
+		private Map<String,Object>
+		decodeTop()
+
+			throws IOException
+		{
+			return( decodeDict( TOP_KEYS, true ));
+		}
+
+		private Map<String,Object>
+		decodeDict(
+			byte[][]	wanted,
+			boolean		top )
+
+			throws IOException
+		{
+			if ( data[pos++] != 'd' ){
+
+				throw( new IOException( "dictionary expected" ));
+			}
+
+			Map<String,Object>	result = new HashMap<>( 8 );
+
+			while( data[pos] != 'e' ){
+
+				int	key_len		= readLength();
+				int	key_start	= pos;
+
+				pos += key_len;
+
+				int	index = match( wanted, key_start, key_len );
+
+				if ( index < 0 ){
+
+					skip();
+
+				}else{
+
+					String	key = new String( data, key_start, key_len, StandardCharsets.ISO_8859_1 );
+
+					if ( top && index == 0 ){
+
+						result.put( key, decodeDict( ARG_KEYS, false ));
+
+					}else{
+
+						result.put( key, decodeValue());
+					}
+				}
+			}
+
+			pos++;
+
+			return( result );
+		}
+
+		private int
+		match(
+			byte[][]	wanted,
+			int			start,
+			int			len )
+		{
+			outer:
+			for ( int i=0;i<wanted.length;i++){
+
+				byte[]	w = wanted[i];
+
+				if ( w.length != len ){
+
+					continue;
+				}
+
+				for ( int j=0;j<len;j++){
+
+					if ( w[j] != data[start+j] ){
+
+						continue outer;
+					}
+				}
+
+				return( i );
+			}
+
+			return( -1 );
+		}
+
+		private Object
+		decodeValue()
+
+			throws IOException
+		{
+			byte	b = data[pos];
+
+			if ( b == 'i' ){
+
+				pos++;
+
+				return( readLong( 'e' ));
+
+			}else if ( b >= '0' && b <= '9' ){
+
+				int	len = readLength();
+
+				byte[]	result = Arrays.copyOfRange( data, pos, pos + len );
+
+				pos += len;
+
+				return( result );
+
+			}else{
+
+					// structured values aren't needed by the handled queries, keep full form via
+					// the generic decoder
+
+				int	start = pos;
+
+				skip();
+
+				return( BDecoder.decode( Arrays.copyOfRange( data, start, pos )));
+			}
+		}
+
+		private void
+		skip()
+
+			throws IOException
+		{
+			byte	b = data[pos];
+
+			if ( b == 'i' ){
+
+				pos++;
+
+				readLong( 'e' );
+
+			}else if ( b >= '0' && b <= '9' ){
+
+				int	len = readLength();
+
+				pos += len;
+
+			}else if ( b == 'l' || b == 'd' ){
+
+				pos++;
+
+				while( data[pos] != 'e' ){
+
+					if ( b == 'd' ){
+
+						pos += readLength();
+					}
+
+					skip();
+				}
+
+				pos++;
+
+			}else{
+
+				throw( new IOException( "invalid bencoding at " + pos ));
+			}
+		}
+
+		private int
+		readLength()
+
+			throws IOException
+		{
+			long	len = readLong( ':' );
+
+			if ( len < 0 || pos + len > data.length ){
+
+				throw( new IOException( "invalid length" ));
+			}
+
+			return((int)len );
+		}
+
+		private long
+		readLong(
+			char	terminator )
+
+			throws IOException
+		{
+			boolean	neg = false;
+
+			if ( data[pos] == '-' ){
+
+				neg = true;
+
+				pos++;
+			}
+
+			long	result = 0;
+
+			int		digits = 0;
+
+			while( true ){
+
+				byte	b = data[pos++];
+
+				if ( b == terminator ){
+
+					break;
+				}
+
+				if ( b < '0' || b > '9' || ++digits > 19 ){
+
+					throw( new IOException( "invalid number" ));
+				}
+
+				result = result*10 + ( b - '0' );
+			}
+
+			if ( digits == 0 ){
+
+				throw( new IOException( "invalid number" ));
+			}
+
+			return( neg?-result:result );
+		}
+	}
+}
@@ -30,16 +30,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.biglybt.core.util.AERunnable;
 import com.biglybt.core.util.AESemaphore;
 import com.biglybt.core.util.Average;
-import com.biglybt.core.util.BDecoder;
 import com.biglybt.core.util.BEncoder;
 import com.biglybt.core.util.ByteFormatter;
 import com.biglybt.core.util.Debug;
@@ -47,21 +44,19 @@ import com.biglybt.core.util.HashWrapper;
 import com.biglybt.core.util.RandomUtils;
 import com.biglybt.core.util.SimpleTimer;
 import com.biglybt.core.util.SystemTime;
-import com.biglybt.core.util.ThreadPool;
 import com.biglybt.core.util.TimerEvent;
 import com.biglybt.core.util.TimerEventPerformer;
 import com.biglybt.core.util.TimerEventPeriodic;
 
+import org.parg.azureus.plugins.networks.i2p.router.I2PHelperDatagramListener;
 import org.parg.azureus.plugins.networks.i2p.router.I2PSMHolder;
+import org.parg.azureus.plugins.networks.i2p.snarkdht.CompactNodeInfos;
 import org.parg.azureus.plugins.networks.i2p.snarkdht.NID;
 import org.parg.azureus.plugins.networks.i2p.snarkdht.NodeInfo;
 
 import net.i2p.client.I2PSession;
-import net.i2p.client.I2PSessionMuxedListener;
 import net.i2p.client.SendMessageOptions;
-import net.i2p.client.datagram.I2PDatagramDissector;
 import net.i2p.client.datagram.I2PDatagramMaker;
-import net.i2p.client.datagram.I2PInvalidDatagramException;
 import net.i2p.data.Base32;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.Destination;
@@ -88,7 +83,7 @@ import com.biglybt.util.MapUtils;
 
 public class 
 DHTTransportI2PRealImpl
-	implements DHTTransportI2P, I2PSessionMuxedListener
+	implements DHTTransportI2P, I2PHelperDatagramListener
 {	
 	private static final Set<String>	trace_addresses;
 	
@@ -169,8 +164,20 @@ DHTTransportI2PRealImpl
 				}
 			};
 	
-	private ThreadPool	destination_lookup_pool_lp 	= new ThreadPool("DHTTransportI2P::destlookup-lp", 5, true );
-	private ThreadPool	destination_lookup_pool_hp 	= new ThreadPool("DHTTransportI2P::destlookup-hp", 10, true );
+	private final DHTTransportI2PDestLookup	dest_lookups = 
+			new DHTTransportI2PDestLookup(
+				new DHTTransportI2PDestLookup.Adapter()
+				{
+					@Override
+					public Destination
+					lookup(
+						Hash		hash )
+					
+						throws Exception
+					{
+						return( lookupDestSupport( hash ));
+					}
+				});
 
 	private static final boolean TRACE_DEST_LOOKUPS = false;
 	
@@ -227,13 +234,16 @@ DHTTransportI2PRealImpl
 				DHTUtilsI2P.PROTOCOL_VERSION,
 				RandomUtils.nextAbsoluteInt(), 0, (byte)0 );
 		
-		sm_holder.addMuxedSessionListener( this, I2PSession.PROTO_DATAGRAM_RAW, reply_port );
-		sm_holder.addMuxedSessionListener( this, I2PSession.PROTO_DATAGRAM, query_port );
+			// signature verification and decoding happen on the holder's workers, not the
+			// session's reader thread
+		
+		sm_holder.addDatagramListener( this, I2PSession.PROTO_DATAGRAM_RAW, reply_port );
+		sm_holder.addDatagramListener( this, I2PSession.PROTO_DATAGRAM, query_port );
         
         timer_event = 
 				SimpleTimer.addPeriodicEvent(
 					"DHTTransportI2P:timeouts",
-					5000,
+					REQUEST_TIMER_TICK,
 					new TimerEventPerformer()
 					{
 						@Override
@@ -296,41 +306,6 @@ DHTTransportI2PRealImpl
 		return( contact );
 	}
 	
-    	// these not relevant for muxed listener
-    
-    @Override
-    public void
-    messageAvailable(
-    	I2PSession 	session, 
-    	int 		msgId, 
-    	long 		size )
-    {
-    }
-
-    @Override
-    public void
-    reportAbuse(
-    	I2PSession 	session, 
-    	int 		severity )
-    {
-    }
-
-    @Override
-    public void
-    disconnected(
-    	I2PSession 	session )
-    {
-    }
-
-    @Override
-    public void
-    errorOccurred(
-    	I2PSession 	session, 
-    	String 		message, 
-    	Throwable 	error ) 
-    {
-    }
-    
 	@Override
 	public byte
 	getProtocolVersion()
@@ -647,7 +622,12 @@ DHTTransportI2PRealImpl
 	
 		// RPCs
 	
-	private HashMap<HashWrapper,Request>		requests = new HashMap<HashWrapper, Request>();
+		// outstanding requests keyed by message id, expired via a timer wheel that advances
+		// every tick
+	
+	private static final int	REQUEST_TIMER_TICK	= 250;
+	
+	private final DHTTransportI2PRequestTable<Request>	requests = new DHTTransportI2PRequestTable<>( REQUEST_TIMER_TICK );
 	
 	public void
 	sendPing(
@@ -815,6 +795,31 @@ DHTTransportI2PRealImpl
 		sendResponse( originator, message_id, map, true );
 	}
 	   
+		/**
+		 * Decodes the compact node infos of a find_node or get_peers reply, closest to the target
+		 * first. Entries with a bad port or NID/hash mismatch are dropped rather than failing the
+		 * whole reply.
+		 */
+	
+	private DHTTransportContactI2P[]
+	decodeNodes(
+		byte[]		nodes,
+		byte[]		target )
+	{
+		CompactNodeInfos	infos = new CompactNodeInfos( nodes );
+		
+		List<NodeInfo>	closest = infos.getClosestNodeInfos( target, infos.size());
+		
+		DHTTransportContactI2P[]	contacts  = new DHTTransportContactI2P[closest.size()];
+		
+		for ( int i=0;i<contacts.length;i++){
+			
+			contacts[i] = new DHTTransportContactI2P( this, closest.get(i), (byte)0, 0, 0, (byte)0 );
+		}
+		
+		return( contacts );
+	}
+	
 	public boolean
 	sendFindNode(
 		NodeInfo		node,
@@ -849,11 +854,9 @@ DHTTransportI2PRealImpl
 	        		{
 	        			byte[]	nodes = (byte[])reply.get( "nodes" );
 	        				        				        			
-	        			for ( int off = 0; off < nodes.length; off += NodeInfo.LENGTH ){
-	        				
-	        				NodeInfo node = new NodeInfo( nodes, off );
+	        			for ( DHTTransportContactI2P c: decodeNodes( nodes, target )){
 	        				
-	        				request_handler.contactImported( new DHTTransportContactI2P( DHTTransportI2PRealImpl.this, node, (byte)0, 0, 0, (byte)0 ), false );
+	        				request_handler.contactImported( c, false );
 	        			}
 	        			
 	        			stats.findNodeOK();
@@ -981,18 +984,7 @@ DHTTransportI2PRealImpl
 		        			
 		        			byte[]	nodes = (byte[])reply.get( "nodes" );
 		        			
-		        			DHTTransportContactI2P[]	contacts  = new DHTTransportContactI2P[nodes.length/NodeInfo.LENGTH];
-		        			
-		        			int	pos = 0;
-		        			
-		        			for ( int off = 0; off < nodes.length; off += NodeInfo.LENGTH ){
-		        				
-		        				NodeInfo node = new NodeInfo( nodes, off );
-		        				
-		        				contacts[pos++] = new DHTTransportContactI2P( DHTTransportI2PRealImpl.this, node, (byte)0, 0, 0, (byte)0 );
-		        			}
-		        			
-		        			handler.findNodeReply( contact, contacts );
+		        			handler.findNodeReply( contact, decodeNodes( nodes, target ));
 		        			
 		        			stats.findNodeOK();
 		        		}
@@ -1121,18 +1113,7 @@ DHTTransportI2PRealImpl
 	        			
 	        			if ( nodes != null ){
 	        				
-		        			DHTTransportContactI2P[]	contacts  = new DHTTransportContactI2P[nodes.length/NodeInfo.LENGTH];
-		        			
-		        			int	pos = 0;
-		        			
-		        			for ( int off = 0; off < nodes.length; off += NodeInfo.LENGTH ){
-		        				
-		        				NodeInfo node = new NodeInfo( nodes, off );
-		        				
-		        				contacts[pos++] = new DHTTransportContactI2P( DHTTransportI2PRealImpl.this, node, (byte)0, 0, 0, (byte)0 );
-		        			}
-		        			
-		        			handler.findValueReply( contact, contacts );
+		        			handler.findValueReply( contact, decodeNodes( nodes, target ));
 		        			
 	        			}else{
 	        			
@@ -1805,7 +1786,9 @@ DHTTransportI2PRealImpl
     	
     	throws Exception
     {
-    	if ( sm_holder.isSessionClosed()){
+    		// datagrams are queued while the session is recovering
+    	
+    	if ( sm_holder.isSessionClosed() && !sm_holder.isSessionRecovering()){
     		
            	throw( new DHTTransportException( "Session closed" ));
     	}
@@ -1835,202 +1818,23 @@ DHTTransportI2PRealImpl
     			}
     		}
     		
-    		ThreadPool pool = priority?destination_lookup_pool_hp:destination_lookup_pool_lp;
-    		
-    		if ( TRACE ) trace( "Scheduling dest lookup: active=" + pool.getRunningCount() + ", queued=" + pool.getQueueSize() + ", priority=" + priority );
+    		if ( TRACE ) trace( "Scheduling dest lookup: " + dest_lookups.getStatusString() + ", priority=" + priority );
 
-    		pool.run(
-    			new AERunnable() 
+    		dest_lookups.lookup(
+    			node.getHash(),
+    			priority,
+    			new DHTTransportI2PDestLookup.Listener()
     			{
-					@Override
-					public void
-					runSupport() 
-					{
+    				@Override
+    				public void
+    				complete(
+    					Destination		dest )
+    				{
+						node.setDestination( dest );
+						
 						try{
-							byte[] hash = node.getHash().getData();
-							
-							int i1 = 	((hash[0] & 0xff) << 24) | ((hash[1] & 0xff) << 16) |
-										((hash[2] & 0xff) << 8)  | (hash[3] & 0xff);
-							
-							int i2 = 	((hash[4] & 0xff) << 24) | ((hash[5] & 0xff) << 16) |
-										((hash[6] & 0xff) << 8)  | (hash[7] & 0xff);
-
-							long l_hash = ((i1 & 0xffffffffL) << 32) | (i2 & 0xffffffffL);
-
-							long	start = SystemTime.getMonotonousTime();
-
-							synchronized( dest_lookup_negative_cache ){
-								
-								DestLookupNegativeCacheEntry entry = dest_lookup_negative_cache.get( l_hash );
-								
-								if ( entry != null ){
-																		
-									int num_fails = entry.num_fails;
-									
-									int	delay = 60*1000;
-											
-									for ( int i=1;i<num_fails;i++){
-										
-										delay *= 2;
-										
-										if ( delay > 14*60*1000 ){
-											
-											delay = 14*60*1000;
-											
-											break;
-										}
-									}
-									
-									if ( start < entry.first_fail + delay ){
-										
-										if ( TRACE_DEST_LOOKUPS ){
-
-											System.out.println( ByteFormatter.encodeString(hash, 0, 8) + ": denied (" + num_fails + ")" );
-										}
-										
-										throw( new DHTTransportException( "Destination lookup failed (negative cache)" ));
-										
-									}else{
-										
-										entry.first_fail = start;
-									}
-								}
-							}
-							
-							if ( TRACE_DEST_LOOKUPS ){
-								
-								synchronized( dest_lookup_rate ){
-									
-									dest_lookup_rate.addValue(1);
-								
-									dest_lookup_count++;
-									
-									if ( start - dest_lookup_count_log > 10*1000 ){
-										
-										dest_lookup_count_log = start;
-	
-										String lta = "";
-										
-										if ( dest_lookup_count_start == 0 ){
-											
-											dest_lookup_count_start = start;
-											
-										}else{
-											
-											long elapsed = start-dest_lookup_count_start;
-											
-											lta = " (" + (dest_lookup_count*1000f)/(elapsed) + ", " + elapsed/(60*1000) + ")";
-										}
-	
-										System.out.println( dest_lookup_rate.getAverage() + ", " + dest_lookup_count + lta + ": hist=" + dest_lookup_tracker.size() + "/" + dest_lookup_consec_fail_count + "/" + dest_lookup_consec_fail_60_count  );
-									}
-								}
-							}
-							
-							
-							//dest_lookup_negative_cache
+							sendQuery( handler, dest, node.getPort(), map, rpc_type, override_sleeping );
 							
-							Destination dest = null;
-							
-							try{
-								dest = sm_holder.lookupDest( node.getHash(), DHTUtilsI2P.DEST_LOOKUP_TIMEOUT );
-								
-							}finally{
-								
-								synchronized( dest_lookup_negative_cache ){
-
-									if ( dest == null ){
-									
-										DestLookupNegativeCacheEntry entry = dest_lookup_negative_cache.get( l_hash );
-										
-										if ( entry == null ){
-											
-											dest_lookup_negative_cache.put( l_hash, new DestLookupNegativeCacheEntry( start, 1 ));
-											
-										}else{
-											
-											entry.num_fails++;
-										}
-									}else{
-										
-										dest_lookup_negative_cache.remove( l_hash );
-									}
-								}
-
-								if ( TRACE_DEST_LOOKUPS ){
-									
-	
-									synchronized( dest_lookup_rate ){
-										
-										String mark = dest==null?".":"X";
-										
-										String[] hit = dest_lookup_tracker.get( l_hash );
-										
-										if ( hit == null ){
-											
-											hit = new String[]{ mark, "0", "" };
-											
-											dest_lookup_tracker.put( l_hash, hit );
-											
-										}else{
-											
-											hit[0] += mark;
-										}
-										
-										long now = SystemTime.getMonotonousTime();
-											
-										if ( dest == null ){
-											
-											System.out.println( "fail in " + (( now - start )/1000 ));
-										}
-										String hist = hit[0];
-										
-										String extra = "";
-										
-										if ( hist.endsWith( ".." )){
-											
-											dest_lookup_consec_fail_count++;
-											
-											long prev_fail = Long.parseLong( hit[1]);
-											
-											long secs = (now - prev_fail )/1000;
-											
-											if ( secs > 60 ){
-												
-												dest_lookup_consec_fail_60_count++;
-											}
-											
-											String s = hit[2];
-											
-											s += (s.length()==0?"":",") + secs;
-											
-											hit[2] = s;
-											
-											extra = " (" + s + ")";
-										}
-										
-										if ( dest == null ){
-											
-											hit[1] = String.valueOf( now );
-										}
-
-										System.out.println( ByteFormatter.encodeString(hash, 0, 8) + ": " + hit[0] + extra);
-									}
-								}
-							}
-							
-							if ( dest != null ){
-            
-								if ( TRACE ) trace( "Destination lookup ok - elapsed=" + (SystemTime.getMonotonousTime()-start));
-
-								node.setDestination( dest );
-								
-					    		sendQuery( handler, dest, node.getPort(), map, rpc_type, override_sleeping );
-					    		
-							}else{
-								
-								throw( new DHTTransportException( "Destination lookup failed" ));
-							}
 						}catch( Throwable e ){
 							
 							if ( e instanceof DHTTransportException ){
@@ -2042,7 +1846,15 @@ DHTTransportI2PRealImpl
 								handler.handleError( new DHTTransportException( "Destination lookup failed", e ));
 							}
 						}
-					}
+    				}
+    				
+    				@Override
+    				public void
+    				failed(
+    					DHTTransportException	error )
+    				{
+    					handler.handleError( error );
+    				}
     			});
     		    		
     	}else{
@@ -2051,6 +1863,191 @@ DHTTransportI2PRealImpl
     	}
     }
     
+		// blocking lookup used by the lookup engine's workers, applies the negative cache
+	
+	private Destination
+	lookupDestSupport(
+		Hash		node_hash )
+	
+		throws Exception
+	{
+		byte[] hash = node_hash.getData();
+		
+		int i1 = 	((hash[0] & 0xff) << 24) | ((hash[1] & 0xff) << 16) |
+					((hash[2] & 0xff) << 8)  | (hash[3] & 0xff);
+		
+		int i2 = 	((hash[4] & 0xff) << 24) | ((hash[5] & 0xff) << 16) |
+					((hash[6] & 0xff) << 8)  | (hash[7] & 0xff);
+
+		long l_hash = ((i1 & 0xffffffffL) << 32) | (i2 & 0xffffffffL);
+
+		long	start = SystemTime.getMonotonousTime();
+
+		synchronized( dest_lookup_negative_cache ){
+			
+			DestLookupNegativeCacheEntry entry = dest_lookup_negative_cache.get( l_hash );
+			
+			if ( entry != null ){
+													
+				int num_fails = entry.num_fails;
+				
+				int	delay = 60*1000;
+						
+				for ( int i=1;i<num_fails;i++){
+					
+					delay *= 2;
+					
+					if ( delay > 14*60*1000 ){
+						
+						delay = 14*60*1000;
+						
+						break;
+					}
+				}
+				
+				if ( start < entry.first_fail + delay ){
+					
+					if ( TRACE_DEST_LOOKUPS ){
+
+						System.out.println( ByteFormatter.encodeString(hash, 0, 8) + ": denied (" + num_fails + ")" );
+					}
+					
+					throw( new DHTTransportException( "Destination lookup failed (negative cache)" ));
+					
+				}else{
+					
+					entry.first_fail = start;
+				}
+			}
+		}
+		
+		if ( TRACE_DEST_LOOKUPS ){
+			
+			synchronized( dest_lookup_rate ){
+				
+				dest_lookup_rate.addValue(1);
+			
+				dest_lookup_count++;
+				
+				if ( start - dest_lookup_count_log > 10*1000 ){
+					
+					dest_lookup_count_log = start;
+	
+					String lta = "";
+					
+					if ( dest_lookup_count_start == 0 ){
+						
+						dest_lookup_count_start = start;
+						
+					}else{
+						
+						long elapsed = start-dest_lookup_count_start;
+						
+						lta = " (" + (dest_lookup_count*1000f)/(elapsed) + ", " + elapsed/(60*1000) + ")";
+					}
+	
+					System.out.println( dest_lookup_rate.getAverage() + ", " + dest_lookup_count + lta + ": hist=" + dest_lookup_tracker.size() + "/" + dest_lookup_consec_fail_count + "/" + dest_lookup_consec_fail_60_count  );
+				}
+			}
+		}
+		
+		
+		//dest_lookup_negative_cache
+		
+		Destination dest = null;
+		
+		try{
+			dest = sm_holder.lookupDest( node_hash, DHTUtilsI2P.DEST_LOOKUP_TIMEOUT );
+			
+		}finally{
+			
+			synchronized( dest_lookup_negative_cache ){
+
+				if ( dest == null ){
+				
+					DestLookupNegativeCacheEntry entry = dest_lookup_negative_cache.get( l_hash );
+					
+					if ( entry == null ){
+						
+						dest_lookup_negative_cache.put( l_hash, new DestLookupNegativeCacheEntry( start, 1 ));
+						
+					}else{
+						
+						entry.num_fails++;
+					}
+				}else{
+					
+					dest_lookup_negative_cache.remove( l_hash );
+				}
+			}
+
+			if ( TRACE_DEST_LOOKUPS ){
+				
+	
+				synchronized( dest_lookup_rate ){
+					
+					String mark = dest==null?".":"X";
+					
+					String[] hit = dest_lookup_tracker.get( l_hash );
+					
+					if ( hit == null ){
+						
+						hit = new String[]{ mark, "0", "" };
+						
+						dest_lookup_tracker.put( l_hash, hit );
+						
+					}else{
+						
+						hit[0] += mark;
+					}
+					
+					long now = SystemTime.getMonotonousTime();
+						
+					if ( dest == null ){
+						
+						System.out.println( "fail in " + (( now - start )/1000 ));
+					}
+					String hist = hit[0];
+					
+					String extra = "";
+					
+					if ( hist.endsWith( ".." )){
+						
+						dest_lookup_consec_fail_count++;
+						
+						long prev_fail = Long.parseLong( hit[1]);
+						
+						long secs = (now - prev_fail )/1000;
+						
+						if ( secs > 60 ){
+							
+							dest_lookup_consec_fail_60_count++;
+						}
+						
+						String s = hit[2];
+						
+						s += (s.length()==0?"":",") + secs;
+						
+						hit[2] = s;
+						
+						extra = " (" + s + ")";
+					}
+					
+					if ( dest == null ){
+						
+						hit[1] = String.valueOf( now );
+					}
+
+					System.out.println( ByteFormatter.encodeString(hash, 0, 8) + ": " + hit[0] + extra);
+				}
+			}
+		}
+		
+		if ( TRACE && dest != null ) trace( "Destination lookup ok - elapsed=" + (SystemTime.getMonotonousTime()-start));
+		
+		return( dest );
+	}
+	
     private void 
     sendQuery(
     	ReplyHandlerAdapter			handler,
@@ -2089,21 +2086,33 @@ DHTTransportI2PRealImpl
 	    	port++;
 	    }
 	    
-    	synchronized( requests ){
-	    		
-    		if ( destroyed ){
+    	if ( destroyed ){
+    		
+    		throw( new DHTTransportException( "Transport destroyed" ));
+    	}
+    	 
+    		// we treat unreliable as two way as for Vuze peers we will send a reply if we already have a resolved destination available (which we should do as 
+    		// we have got a token from them recently...)
+    	
+    	if ( rpc_type != RPC_TYPE_ONE_WAY ){
+    	
+    		Request request = new Request( dest, handler );
+    		
+    		if ( !requests.add( msg_id, request, request.getStartTime(), request_timeout )){
     			
-    			throw( new DHTTransportException( "Transport destroyed" ));
+    			throw( new DHTTransportException( "Duplicate message id" ));
     		}
-    		 
-    			// we treat unreliable as two way as for Vuze peers we will send a reply if we already have a resolved destination available (which we should do as 
-    			// we have got a token from them recently...)
     		
-    		if ( rpc_type != RPC_TYPE_ONE_WAY ){
+    			// destroy may have drained the table between the check above and the add
     		
-    			requests.put( new HashWrapper( msg_id ), new Request( dest, handler ));
+    		if ( destroyed ){
+    			
+    			if ( requests.remove( msg_id ) != null ){
+    			
+    				throw( new DHTTransportException( "Transport destroyed" ));
+    			}
     		}
-	    }
+    	}
 	    
 	    boolean	ok = false;
 	    
@@ -2124,10 +2133,7 @@ DHTTransportI2PRealImpl
 	    	
 	    	if ( !ok ){
 	    	
-	    		synchronized( requests ){
-	    		
-	    			requests.remove( new HashWrapper( msg_id ));
-	    		}
+	    		requests.remove( msg_id );
 	    	}
 	    }
 	}
@@ -2194,21 +2200,46 @@ DHTTransportI2PRealImpl
     	
     	throws Exception
     {
-
-        byte[] payload = BEncoder.encode( map );
-        
+    		// encoded into a reused per-thread buffer, raw datagrams are sent straight from it as the
+    		// session copies the payload during send
+    	
+    	byte[]	payload;
+    	int		payload_length;
+    	
+    	DHTTransportI2PKRPCCodec.Encoder encoder = null;
+    	
+    	try{
+    		encoder = DHTTransportI2PKRPCCodec.encode( map );
+    		
+    	}catch( IOException e ){
+    		
+    		Debug.out( e );
+    	}
+    	
         	// Always send query port, peer will increment for unsigned replies
         
         int fromPort = query_port;
         
         if ( rpc_type != RPC_TYPE_UNREPLIABLE ){
         	            
-            payload = sm_holder.makeI2PDatagram( payload );
+            payload = sm_holder.makeI2PDatagram( encoder==null?BEncoder.encode( map ):encoder.toByteArray());
             
             if ( payload == null ){
                
             	throw( new DHTTransportException( "Datagram construction failed" ));
             }
+            
+            payload_length = payload.length;
+            
+        }else if ( encoder == null ){
+        	
+        	payload 		= BEncoder.encode( map );
+        	payload_length	= payload.length;
+        	
+        }else{
+        	
+        	payload			= encoder.getBuffer();
+        	payload_length	= encoder.getLength();
         }
 
         SendMessageOptions opts = new SendMessageOptions();
@@ -2226,14 +2257,13 @@ DHTTransportI2PRealImpl
             opts.setSendLeaseSet( false );
         }
         
-        stats.total_packets_sent++;
-        stats.total_bytes_sent += payload.length;
+        stats.counters.packetSent( payload_length );
         
         if ( sm_holder.sendMessage(
            		dest, 
            		payload, 
            		0, 
-           		payload.length,
+           		payload_length,
            		rpc_type != RPC_TYPE_UNREPLIABLE ? I2PSession.PROTO_DATAGRAM : I2PSession.PROTO_DATAGRAM_RAW,
                 fromPort, 
                 toPort, 
@@ -2241,7 +2271,7 @@ DHTTransportI2PRealImpl
         	
         	trace( dest, "send ok" );
         	
-        	return( payload.length );
+        	return( payload_length );
         	
         }else{
         	
@@ -2253,53 +2283,29 @@ DHTTransportI2PRealImpl
     
     @Override
     public void
-    messageAvailable(
-    	I2PSession 		session, 
-    	int 			msg_id, 
-    	long 			size, 
-    	int 			proto, 
+    datagramReceived(
+    	Destination		from,
     	int 			from_port, 
-    	int 			to_port )
+    	int 			to_port,
+    	int				raw_length,
+    	byte[]			payload )
     {
     	try{
-	    	byte[] payload = session.receiveMessage(msg_id);
-	        
-	    	if ( payload == null ){
-	    	
-	    			// seen a few of these, not much we can do!
-	    		
-	    		return;
-	    	}
-	    	
-	    	int raw_payload_length = payload.length;
-	    	
 	        if ( to_port == query_port ){
 	
-	        		// repliable
-	
-	        	I2PDatagramDissector dgDiss = new I2PDatagramDissector();
+	        		// repliable, already verified
 	
-	        	dgDiss.loadI2PDatagram(payload);
-	
-	        	payload = dgDiss.getPayload();
-	
-	        	Destination from = dgDiss.getSender();
-	
-	        	receiveMessage( from, from_port, raw_payload_length, payload);
+	        	receiveMessage( from, from_port, raw_length, payload );
 	
 	        }else if ( to_port == reply_port) {
 	
-	        	receiveMessage( null, from_port, raw_payload_length, payload );
+	        	receiveMessage( null, from_port, raw_length, payload );
 	        	
 	        }else{
 	        	
 	        	if ( TRACE ) trace( "unmatched port: " + to_port + " (" + query_port + "/" + reply_port + ")");
 	        }
 	        
-    	}catch( I2PInvalidDatagramException e ){
-    		
-    		// can get these on address changes it seems
-    		
     	}catch( Throwable e ){
     		
     		Debug.out( e );
@@ -2334,12 +2340,10 @@ DHTTransportI2PRealImpl
     	int				raw_payload_length,
     	byte[]			payload ) 
     {
-    	stats.total_packets_received++;
-    	
-    	stats.total_bytes_received += raw_payload_length;
+    	stats.counters.packetReceived( raw_payload_length );
     	
     	try{
-	    	Map		map = BDecoder.decode( payload );
+	    	Map		map = DHTTransportI2PKRPCCodec.decode( payload );
 	
 	        byte[] msg_id = (byte[])map.get( "t" );
 	      
@@ -2365,12 +2369,7 @@ DHTTransportI2PRealImpl
 	        	}
 	        }else if ( type.equals("r") || type.equals("e")){
 	        	  
-	        	Request request;
-	        	
-	        	synchronized( requests ){
-	        		
-	        		request = requests.remove( new HashWrapper( msg_id ));
-	        	}
+	        	Request request = requests.remove( msg_id );
 	        	
 	        	if ( request != null ){
 	        		
@@ -2380,6 +2379,8 @@ DHTTransportI2PRealImpl
 	        		
 	        		if ( TRACE ) trace( "Request took " + elapsed );
 	        		
+	        		stats.counters.replyReceived( elapsed );
+	        		
 	        		ReplyHandlerAdapter reply_handler = request.getHandler();
 	        		
                     reply_handler.contactAlive();
@@ -2434,6 +2435,8 @@ DHTTransportI2PRealImpl
     {
     	stats.incomingRequestReceived( null, false );
     	
+    	stats.counters.queryReceived( method );
+    	
         if ( dest == null && !method.equals( "announce_peer")){
     
         		// only announce is valid without a replyable dest
@@ -2523,38 +2526,11 @@ DHTTransportI2PRealImpl
     private void
     checkTimeouts()
     {
-    	List<Request>	timed_out = null;
-    	
-    	synchronized( requests ){
-    		
-    		if ( requests.size() > 0 ){
-    		
-    			long	now = SystemTime.getMonotonousTime();
-    			
-    			Iterator<Request>	it = requests.values().iterator();
-    			
-    			while( it.hasNext()){
-    				
-    				Request	req = it.next();
-    				
-    				if ( now - req.getStartTime() > request_timeout ){
-    					
-    					if ( timed_out == null ){
-    						
-    						timed_out = new ArrayList<Request>();
-    					}
-    					
-    					timed_out.add( req );
-    					
-    					it.remove();
-    				}
-    			}
-    		}
-    	}
+    	List<Request>	timed_out = requests.expire( SystemTime.getMonotonousTime());
     	
     	if ( timed_out != null ){
     		
-    		stats.total_request_timeouts += timed_out.size();
+    		stats.counters.requestsTimedOut( timed_out.size());
     		
     		for ( Request r: timed_out ){
     			
@@ -2697,14 +2673,11 @@ DHTTransportI2PRealImpl
 	public void
 	destroy()
 	{
-		List<Request>	to_fail = new ArrayList<Request>();
-		
-		synchronized( requests ){
-			
-			destroyed	= true;			
+		destroyed	= true;			
 
-			to_fail = new ArrayList<Request>( requests.values());
-		}
+		List<Request>	to_fail = requests.removeAll();
+		
+		dest_lookups.destroy();
 		
 		for ( Request request: to_fail ){
 			
@@ -2826,31 +2799,30 @@ DHTTransportI2PRealImpl
 	DHTTransportStatsI2P
 		extends DHTTransportStatsImpl
 	{
-		private long	total_request_timeouts;
-		private long	total_packets_sent;
-		private long	total_packets_received;
-		private long	total_bytes_sent;
-		private long	total_bytes_received;
+		private final DHTTransportI2PStatsCounters	counters;
 
 		public 
 		DHTTransportStatsI2P()
+		{
+			this( new DHTTransportI2PStatsCounters());
+		}
+		
+		private
+		DHTTransportStatsI2P(
+			DHTTransportI2PStatsCounters	_counters )
 		{
 			super( DHTUtilsI2P.PROTOCOL_VERSION );
+			
+			counters	= _counters;
 		}
 		
 		@Override
 		public DHTTransportStats snapshot() {
 			
-			DHTTransportStatsI2P res = new DHTTransportStatsI2P();
+			DHTTransportStatsI2P res = new DHTTransportStatsI2P( counters.snapshot());
 			
 			snapshotSupport( res );
 			
-			res.total_request_timeouts		= total_request_timeouts;
-			res.total_packets_sent			= total_packets_sent;
-			res.total_packets_received		= total_packets_received;
-			res.total_bytes_sent			= total_bytes_sent;
-			res.total_bytes_received		= total_bytes_received;
-			
 			return( res );
 		}
 		
@@ -2861,27 +2833,32 @@ DHTTransportI2PRealImpl
 		
 		@Override
 		public long getRequestsTimedOut() {
-			return( total_request_timeouts );
+			return( counters.getRequestsTimedOut());
 		}
 		
 		@Override
 		public long getPacketsSent() {
-			return( total_packets_sent );
+			return( counters.getPacketsSent());
 		}
 		
 		@Override
 		public long getPacketsReceived() {
-			return( total_packets_received );
+			return( counters.getPacketsReceived());
 		}
 		
 		@Override
 		public long getBytesSent() {
-			return( total_bytes_sent );
+			return( counters.getBytesSent());
 		}
 		
 		@Override
 		public long getBytesReceived() {
-			return( total_bytes_received );
+			return( counters.getBytesReceived());
+		}
+		
+		@Override
+		public String getString() {
+			return( super.getString() + ", " + counters.getString());
 		}
 	}
 	
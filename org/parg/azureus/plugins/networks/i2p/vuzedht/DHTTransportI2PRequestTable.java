@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.vuzedht;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Outstanding requests keyed by transaction id. The id space is split over lock-striped shards
+ * and expiry is handled by a hashed timer wheel, so adding, completing and expiring a request
+ * are all O(1) regardless of how many are in flight.
+ *
+ * Each wheel entry records its absolute deadline tick so timeouts longer than one revolution
+ * simply stay in their slot until due.
+ */
+
+class
+DHTTransportI2PRequestTable<T>
+{
+	private static final int	NUM_SHARDS	= 16;		// power of 2
+	private static final int	WHEEL_SIZE	= 256;		// power of 2
+
+	private final long			tick_millis;
+
+	private final Shard<T>[]	shards;
+
+	private final List<Entry<T>>[]	wheel;
+
+		// only updated by the thread calling expire, and then while holding the lock of the
+		// slot for the tick being recorded so add can check it against the slot it inserts into
+
+	private volatile long		last_tick	= -1;
+
+	@SuppressWarnings("unchecked")
+	DHTTransportI2PRequestTable(
+		long		_tick_millis )
+	{
+		tick_millis	= _tick_millis;
+
+		shards	= new Shard[NUM_SHARDS];
+
+		for ( int i=0;i<NUM_SHARDS;i++){
+
+			shards[i] = new Shard<>();
+		}
+
+		wheel	= new List[WHEEL_SIZE];
+
+		for ( int i=0;i<WHEEL_SIZE;i++){
+
+			wheel[i] = new ArrayList<>();
+		}
+	}
+
+	private static long
+	getKey(
+		byte[]		id )
+	{
+			// ids we generate are random so the leading 8 bytes make a good key, full id is
+			// still checked on lookup
+
+		long	key = 0;
+
+		int	len = Math.min( 8, id.length );
+
+		for ( int i=0;i<len;i++){
+
+			key = ( key << 8 ) | ( id[i]&0xff );
+		}
+
+		return( key );
+	}
+
+	private Shard<T>
+	getShard(
+		long		key )
+	{
+		return( shards[(int)( key ^ ( key >>> 32 )) & ( NUM_SHARDS-1 )]);
+	}
+
+		/**
+		 * @return false if a request with the same id is already outstanding
+		 */
+
+	boolean
+	add(
+		byte[]		id,
+		T			value,
+		long		now,
+		long		timeout )
+	{
+		long	key = getKey( id );
+
+		long	deadline_tick = ( now + timeout + tick_millis - 1 ) / tick_millis;
+
+		Entry<T>	entry = new Entry<>( key, id, value, deadline_tick );
+
+		Shard<T> shard = getShard( key );
+
+		synchronized( shard ){
+
+			if ( shard.map.containsKey( key )){
+
+				return( false );
+			}
+
+			shard.map.put( key, entry );
+		}
+
+			// never schedule into a slot that has already been visited for this revolution. last_tick
+			// is checked under the slot's lock as expire records each tick under it, if the tick has
+			// been passed meanwhile try again with the next one
+
+		while( true ){
+
+			List<Entry<T>> slot = wheel[(int)( deadline_tick & ( WHEEL_SIZE-1 ))];
+
+			synchronized( slot ){
+
+				if ( deadline_tick > last_tick ){
+
+					entry.deadline_tick = deadline_tick;
+
+					slot.add( entry );
+
+					return( true );
+				}
+			}
+
+			deadline_tick = last_tick + 1;
+		}
+	}
+
+	T
+	remove(
+		byte[]		id )
+	{
+		long	key = getKey( id );
+
+		Shard<T> shard = getShard( key );
+
+		synchronized( shard ){
+
+			Entry<T> entry = shard.map.get( key );
+
+			if ( entry == null || !Arrays.equals( entry.id, id )){
+
+				return( null );
+			}
+
+			shard.map.remove( key );
+
+				// left in its wheel slot, dropped when the slot is next visited
+
+			entry.done = true;
+
+			return( entry.value );
+		}
+	}
+
+		/**
+		 * Removes and returns all requests whose deadline has passed. Must only be called from
+		 * a single thread.
+		 */
+
+	List<T>
+	expire(
+		long		now )
+	{
+		long	current_tick = now / tick_millis;
+
+		if ( last_tick < 0 ){
+
+			last_tick = current_tick - 1;
+		}
+
+		List<T>	result = null;
+
+		long	from = Math.max( last_tick + 1, current_tick - WHEEL_SIZE + 1 );
+
+		for ( long tick=from; tick<=current_tick; tick++ ){
+
+			List<Entry<T>> slot = wheel[(int)( tick & ( WHEEL_SIZE-1 ))];
+
+			synchronized( slot ){
+
+				Iterator<Entry<T>>	it = slot.iterator();
+
+				while( it.hasNext()){
+
+					Entry<T> entry = it.next();
+
+					if ( entry.done ){
+
+						it.remove();
+
+					}else if ( entry.deadline_tick <= current_tick ){
+
+						it.remove();
+
+						Shard<T> shard = getShard( entry.key );
+
+						synchronized( shard ){
+
+							if ( shard.map.get( entry.key ) != entry ){
+
+								continue;
+							}
+
+							shard.map.remove( entry.key );
+
+							entry.done = true;
+						}
+
+						if ( result == null ){
+
+							result = new ArrayList<>();
+						}
+
+						result.add( entry.value );
+					}
+				}
+
+				last_tick = tick;
+			}
+		}
+
+		return( result );
+	}
+
+	List<T>
+	removeAll()
+	{
+		List<T>	result = new ArrayList<>();
+
+		for ( Shard<T> shard: shards ){
+
+			synchronized( shard ){
+
+				for ( Entry<T> entry: shard.map.values()){
+
+					entry.done = true;
+
+					result.add( entry.value );
+				}
+
+				shard.map.clear();
+			}
+		}
+
+		for ( List<Entry<T>> slot: wheel ){
+
+			synchronized( slot ){
+
+				slot.clear();
+			}
+		}
+
+		return( result );
+	}
+
+	int
+	size()
+	{
+		int	size = 0;
+
+		for ( Shard<T> shard: shards ){
+
+			synchronized( shard ){
+
+				size += shard.map.size();
+			}
+		}
+
+		return( size );
+	}
+
+	private static final class
+	Shard<T>
+	{
+		private final HashMap<Long,Entry<T>>	map = new HashMap<>();
+	}
+
+	private static final class
+	Entry<T>
+	{
+		private final long		key;
+		private final byte[]	id;
+		private final T			value;
+
+			// only changed under the lock of the wheel slot holding the entry
+
+		private long			deadline_tick;
+
+			// set under the owning shard's lock, read without it when tidying wheel slots
+
+		private volatile boolean	done;
+
+		private
+		Entry(
+			long		_key,
+			byte[]		_id,
+			T			_value,
+			long		_deadline_tick )
+		{
+			key				= _key;
+			id				= _id;
+			value			= _value;
+			deadline_tick	= _deadline_tick;
+		}
+	}
+}
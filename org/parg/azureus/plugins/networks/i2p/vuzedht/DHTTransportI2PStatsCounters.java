@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) Bigly Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA
+ */
+
+package org.parg.azureus.plugins.networks.i2p.vuzedht;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.parg.azureus.plugins.networks.i2p.util.I2PHelperHistogram;
+
+/**
+ * Traffic counters shared by the I2P and AZ transports. Updates are striped so the send and
+ * receive paths don't contend, reads sum the stripes. Use snapshot() to get a frozen copy for
+ * display.
+ */
+
+class
+DHTTransportI2PStatsCounters
+{
+	static final String[]	QUERY_TYPES = { "ping", "find_node", "get_peers", "announce_peer", "azrequest" };
+
+	private final LongAdder		packets_sent		= new LongAdder();
+	private final LongAdder		bytes_sent			= new LongAdder();
+	private final LongAdder		packets_received	= new LongAdder();
+	private final LongAdder		bytes_received		= new LongAdder();
+	private final LongAdder		request_timeouts	= new LongAdder();
+
+	private final LongAdder[]	queries_received	= new LongAdder[QUERY_TYPES.length + 1];	// last is 'other'
+
+	private final I2PHelperHistogram	reply_latency;
+
+	DHTTransportI2PStatsCounters()
+	{
+		this( new I2PHelperHistogram( "Reply latency", "ms" ));
+	}
+
+	private
+	DHTTransportI2PStatsCounters(
+		I2PHelperHistogram		_reply_latency )
+	{
+		reply_latency	= _reply_latency;
+
+		for ( int i=0;i<queries_received.length;i++){
+
+			queries_received[i] = new LongAdder();
+		}
+	}
+
+	void
+	packetSent(
+		long		bytes )
+	{
+		packets_sent.increment();
+
+		bytes_sent.add( bytes );
+	}
+
+	void
+	packetReceived(
+		long		bytes )
+	{
+		packets_received.increment();
+
+		bytes_received.add( bytes );
+	}
+
+	void
+	requestsTimedOut(
+		int			num )
+	{
+		request_timeouts.add( num );
+	}
+
+	void
+	queryReceived(
+		String		method )
+	{
+		int	index = QUERY_TYPES.length;
+
+		for ( int i=0;i<QUERY_TYPES.length;i++){
+
+			if ( QUERY_TYPES[i].equals( method )){
+
+				index = i;
+
+				break;
+			}
+		}
+
+		queries_received[index].increment();
+	}
+
+	void
+	replyReceived(
+		long		elapsed )
+	{
+		reply_latency.record( elapsed );
+	}
+
+	long
+	getPacketsSent()
+	{
+		return( packets_sent.sum());
+	}
+
+	long
+	getBytesSent()
+	{
+		return( bytes_sent.sum());
+	}
+
+	long
+	getPacketsReceived()
+	{
+		return( packets_received.sum());
+	}
+
+	long
+	getBytesReceived()
+	{
+		return( bytes_received.sum());
+	}
+
+	long
+	getRequestsTimedOut()
+	{
+		return( request_timeouts.sum());
+	}
+
+		/**
+		 * @return a copy whose values no longer change, the latency histogram is shared as it is
+		 * only used for display
+		 */
+
+	DHTTransportI2PStatsCounters
+	snapshot()
+	{
+		DHTTransportI2PStatsCounters res = new DHTTransportI2PStatsCounters( reply_latency );
+
+		res.packets_sent.add( packets_sent.sum());
+		res.bytes_sent.add( bytes_sent.sum());
+		res.packets_received.add( packets_received.sum());
+		res.bytes_received.add( bytes_received.sum());
+		res.request_timeouts.add( request_timeouts.sum());
+
+		for ( int i=0;i<queries_received.length;i++){
+
+			res.queries_received[i].add( queries_received[i].sum());
+		}
+
+		return( res );
+	}
+
+	String
+	getString()
+	{
+		StringBuilder sb = new StringBuilder( 256 );
+
+		sb.append( "queries received=" );
+
+		for ( int i=0;i<queries_received.length;i++){
+
+			sb.append( i==0?"":"," ).append( i==QUERY_TYPES.length?"other":QUERY_TYPES[i] ).append( ":" ).append( queries_received[i].sum());
+		}
+
+		sb.append( ", timeouts=" ).append( request_timeouts.sum());
+
+		if ( reply_latency.getCount() > 0 ){
+
+			sb.append( ", " ).append( reply_latency.getStatusString());
+		}
+
+		return( sb.toString());
+	}
+}